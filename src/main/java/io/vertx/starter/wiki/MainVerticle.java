@@ -1,28 +1,117 @@
 package io.vertx.starter.wiki;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.starter.wiki.database.WikiDatabaseVerticle;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Deploys the database and HTTP verticles, then optionally warms the server up, logging how long each phase took.
+ * <p>
+ * By default the HTTP verticles are deployed once the database verticles are up. With {@code startup.parallel} both
+ * are deployed at once, and requests reaching the HTTP server before the database service is ready get a 503 with a
+ * {@code Retry-After}.
+ */
 public class MainVerticle extends AbstractVerticle {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MainVerticle.class);
+
+  private static final String CONFIG_HTTP_SERVER_INSTANCES = "http.server.instances";
+  private static final String CONFIG_HTTP_SERVER_PORT = "http.server.port";
+  private static final String CONFIG_STARTUP_PARALLEL = "startup.parallel";
+  private static final String CONFIG_STARTUP_WARMUP_PAGES = "startup.warmup.pages";
+  private static final String CONFIG_STARTUP_WARMUP_ROUNDS = "startup.warmup.rounds";
+
+  private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
   @Override
   public void start(Future<Void> startFuture) {
-    Future<String> deploymentFuture = Future.future();
-    vertx.deployVerticle(new WikiDatabaseVerticle(), deploymentFuture.completer());
-
-    deploymentFuture.compose(s -> {
-      Future<String> httpVerticleDeployment = Future.future();
-      vertx.deployVerticle("io.vertx.starter.wiki.http.HttpServerVerticle",
-        new DeploymentOptions().setInstances(2),
-        httpVerticleDeployment.completer());
-      return httpVerticleDeployment;
-    }).setHandler(ar -> {
+    int cores = Runtime.getRuntime().availableProcessors();
+    long start = System.nanoTime();
+
+    Supplier<Future<String>> database = () -> timed("database", deploy("io.vertx.starter.wiki.database.WikiDatabaseVerticle",
+      config().getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_INSTANCES, cores)));
+    Supplier<Future<String>> http = () -> timed("http", deploy("io.vertx.starter.wiki.http.HttpServerVerticle",
+      config().getInteger(CONFIG_HTTP_SERVER_INSTANCES, cores)));
+
+    Future<?> deployed;
+    if (config().getBoolean(CONFIG_STARTUP_PARALLEL, false)) {
+      deployed = CompositeFuture.all(database.get(), http.get());
+    } else {
+      deployed = database.get().compose(s -> http.get());
+    }
+
+    deployed.compose(v -> warmUp()).setHandler(ar -> {
       if (ar.succeeded()) {
+        phaseNanos.put("total", System.nanoTime() - start);
+        logPhases();
         startFuture.complete();
       } else {
         startFuture.fail(ar.cause());
       }
     });
   }
+
+  private Future<String> deploy(String verticle, int instances) {
+    Future<String> future = Future.future();
+    vertx.deployVerticle(verticle, new DeploymentOptions().setInstances(instances).setConfig(config()), future.completer());
+    return future;
+  }
+
+  /**
+   * Warm the server up with {@code startup.warmup.pages} pages, if more than zero. Failures are only logged, a cold
+   * server still serves.
+   */
+  private Future<Void> warmUp() {
+    int pages = config().getInteger(CONFIG_STARTUP_WARMUP_PAGES, 0);
+    if (pages <= 0) {
+      return Future.succeededFuture();
+    }
+    WarmUp warmUp = new WarmUp(vertx, config().getInteger(CONFIG_HTTP_SERVER_PORT, 8080), pages,
+      config().getInteger(CONFIG_STARTUP_WARMUP_ROUNDS, 3));
+    Future<Void> future = Future.future();
+    timed("warmup", warmUp.run(config().getString(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)))
+      .setHandler(ar -> {
+        if (ar.succeeded()) {
+          LOGGER.info("Warmed up with {} request(s)", ar.result());
+        } else {
+          LOGGER.warn("Warm-up failed", ar.cause());
+        }
+        future.complete();
+      });
+    return future;
+  }
+
+  private <T> Future<T> timed(String phase, Future<T> future) {
+    long start = System.nanoTime();
+    Future<T> timed = Future.future();
+    future.setHandler(ar -> {
+      phaseNanos.put(phase, System.nanoTime() - start);
+      timed.handle(ar);
+    });
+    return timed;
+  }
+
+  private void logPhases() {
+    MetricsRegistry metrics = MetricsRegistry.shared(vertx);
+    StringBuilder phases = new StringBuilder();
+    phaseNanos.forEach((phase, nanos) -> {
+      double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+      metrics.gauge("startup_phase_seconds", "Time taken by each startup phase", () -> seconds, "phase", phase);
+      phases.append(phases.length() > 0 ? ", " : "").append(phase).append(' ').append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms");
+    });
+    long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+    metrics.gauge("startup_jvm_uptime_seconds", "JVM uptime when the wiki was ready to serve", () -> uptime / 1000.0);
+    LOGGER.info("Ready to serve {}ms after JVM start: {}", uptime, phases);
+  }
 }
@@ -0,0 +1,91 @@
+package io.vertx.starter.wiki;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.starter.wiki.database.WikiDatabaseService;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Requests the home, search and first pages of the wiki from the HTTP server once it is up, so that the first real
+ * requests do not pay for template compilation, cold caches and interpreted code.
+ * <p>
+ * Pages are requested with gzip accepted, as browsers do, which fills the page cache of the database service and the
+ * pre-compressed page cache. Requests are sent one at a time, leaving the server to actual clients.
+ */
+final class WarmUp {
+
+  private final Vertx vertx;
+  private final int port;
+  private final int pages;
+  private final int rounds;
+
+  WarmUp(Vertx vertx, int port, int pages, int rounds) {
+    this.vertx = vertx;
+    this.port = port;
+    this.pages = pages;
+    this.rounds = rounds;
+  }
+
+  /**
+   * @return a future completed with the number of requests sent
+   */
+  Future<Integer> run(String wikiDbQueue) {
+    Future<List<String>> names = Future.future();
+    WikiDatabaseService.createLocalProxy(vertx, wikiDbQueue, new DeliveryOptions())
+      .fetchPages(null, pages, ar -> names.handle(ar.map(array -> {
+        List<String> list = new ArrayList<>();
+        array.forEach(name -> list.add((String) name));
+        return list;
+      })));
+    return names.compose(list -> {
+      List<String> uris = new ArrayList<>();
+      uris.add("/");
+      uris.add("/search?q=wiki");
+      for (String name : list) {
+        uris.add("/wiki/" + encode(name));
+      }
+      List<String> all = new ArrayList<>();
+      for (int i = 0; i < rounds; i++) {
+        all.addAll(uris);
+      }
+      WebClient client = WebClient.create(vertx, new WebClientOptions().setDefaultPort(port).setMaxPoolSize(1).setKeepAlive(true));
+      Future<Integer> done = Future.future();
+      next(client, all.iterator(), 0, done);
+      return done;
+    });
+  }
+
+  private void next(WebClient client, Iterator<String> uris, int sent, Future<Integer> done) {
+    if (!uris.hasNext()) {
+      client.close();
+      done.complete(sent);
+      return;
+    }
+    HttpRequest<?> request = client.get(uris.next()).putHeader("Accept-Encoding", "gzip");
+    request.send(ar -> {
+      if (ar.failed()) {
+        client.close();
+        done.fail(ar.cause());
+      } else {
+        next(client, uris, sent + 1, done);
+      }
+    });
+  }
+
+  private static String encode(String name) {
+    try {
+      return URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ServiceException;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the database service calls in flight from this JVM, rejecting calls over the limit right away rather than
+ * queuing them on the event bus behind calls that already wait for a JDBC connection.
+ * <p>
+ * Reads may use the whole limit, while writes leave a quarter of it to reads and bulk operations (imports, exports and
+ * other batch calls) half of it, besides having a limit of their own. A burst of writes or a backup hence never starves
+ * page views. Rejected calls fail with a {@link ServiceException} whose code is {@link WikiDatabaseService#OVERLOADED}.
+ * <p>
+ * One instance is shared by all verticles of a Vert.x instance through a local map.
+ */
+public final class AdmissionControl implements Shareable {
+
+  public static final String CONFIG_WIKIDB_MAX_IN_FLIGHT = "wikidb.admission.max_in_flight";
+  public static final String CONFIG_WIKIDB_MAX_BULK_IN_FLIGHT = "wikidb.admission.max_bulk_in_flight";
+
+  private static final String SHARED_MAP_NAME = "wiki.database.admission";
+  private static final String SHARED_MAP_KEY = "admission";
+
+  private static final Set<String> WRITES = new HashSet<>(Arrays.asList("createPage", "savePage", "deletePage"));
+  private static final Set<String> BULK = new HashSet<>(Arrays.asList("fetchAllPagesData", "exportPages", "createPages",
+    "savePages", "deletePages", "fetchPageChanges", "prunePageChanges"));
+
+  public enum Priority {
+    READ, WRITE, BULK
+  }
+
+  private final int maxInFlight;
+  private final int maxBulkInFlight;
+  private final EnumMap<Priority, Integer> limits = new EnumMap<>(Priority.class);
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final EnumMap<Priority, AtomicInteger> inFlightByPriority = new EnumMap<>(Priority.class);
+  private final EnumMap<Priority, MetricsRegistry.Counter> rejected = new EnumMap<>(Priority.class);
+
+  AdmissionControl(int maxInFlight, int maxBulkInFlight, MetricsRegistry metrics) {
+    this.maxInFlight = maxInFlight;
+    this.maxBulkInFlight = maxBulkInFlight;
+    limits.put(Priority.READ, maxInFlight);
+    limits.put(Priority.WRITE, Math.max(1, maxInFlight - maxInFlight / 4));
+    limits.put(Priority.BULK, Math.max(1, maxInFlight / 2));
+    for (Priority priority : Priority.values()) {
+      String label = priority.name().toLowerCase();
+      AtomicInteger count = new AtomicInteger();
+      inFlightByPriority.put(priority, count);
+      rejected.put(priority, metrics.counter("wikidb_admission_rejected_total", "Database service calls rejected as over the in-flight limit", "priority", label));
+    }
+  }
+
+  /**
+   * Get the admission control shared by every verticle of this Vert.x instance, creating it on first use.
+   */
+  public static AdmissionControl shared(Vertx vertx, JsonObject config, MetricsRegistry metrics) {
+    LocalMap<String, AdmissionControl> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+    AdmissionControl existing = map.get(SHARED_MAP_KEY);
+    if (existing != null) {
+      return existing;
+    }
+    AdmissionControl admission = new AdmissionControl(config.getInteger(CONFIG_WIKIDB_MAX_IN_FLIGHT, 64),
+      config.getInteger(CONFIG_WIKIDB_MAX_BULK_IN_FLIGHT, 4), metrics);
+    existing = map.putIfAbsent(SHARED_MAP_KEY, admission);
+    if (existing != null) {
+      return existing;
+    }
+    admission.inFlightByPriority.forEach((priority, count) -> metrics.gauge("wikidb_admission_in_flight",
+      "Database service calls in flight from this JVM", count::get, "priority", priority.name().toLowerCase()));
+    return admission;
+  }
+
+  static Priority priority(String method) {
+    return BULK.contains(method) ? Priority.BULK : WRITES.contains(method) ? Priority.WRITE : Priority.READ;
+  }
+
+  /**
+   * Take a slot for a call, or return {@code false} if the call must be rejected.
+   */
+  boolean tryAcquire(Priority priority) {
+    int limit = limits.get(priority);
+    AtomicInteger own = inFlightByPriority.get(priority);
+    while (true) {
+      int current = inFlight.get();
+      // Concurrent bulk calls may overshoot their own limit by a few, the overall limit still holds
+      if (current >= limit || (priority == Priority.BULK && own.get() >= maxBulkInFlight)) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        own.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  void release(Priority priority) {
+    inFlightByPriority.get(priority).decrementAndGet();
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * Wrap a service so that every method taking a result handler as its last argument is subject to admission; fluent
+   * methods return the wrapper.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T guard(Class<T> type, T delegate) {
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+      Class<?>[] parameters = method.getParameterTypes();
+      if (parameters.length > 0 && parameters[parameters.length - 1] == Handler.class) {
+        Priority priority = priority(method.getName());
+        Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) args[args.length - 1];
+        if (!tryAcquire(priority)) {
+          rejected.get(priority).inc();
+          handler.handle(Future.failedFuture(new ServiceException(WikiDatabaseService.OVERLOADED,
+            "Too many database calls in flight, " + method.getName() + " rejected")));
+          return self;
+        }
+        args[args.length - 1] = (Handler<AsyncResult<Object>>) ar -> {
+          release(priority);
+          handler.handle(ar);
+        };
+        try {
+          return invoke(self, delegate, method, args);
+        } catch (Throwable t) {
+          release(priority);
+          throw t;
+        }
+      }
+      return invoke(self, delegate, method, args);
+    });
+  }
+
+  private static Object invoke(Object self, Object delegate, Method method, Object[] args) throws Throwable {
+    try {
+      Object result = method.invoke(delegate, args);
+      return result == delegate ? self : result;
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  public JsonObject stats() {
+    JsonObject stats = new JsonObject()
+      .put("inFlight", inFlight.get())
+      .put("maxInFlight", maxInFlight)
+      .put("maxBulkInFlight", maxBulkInFlight);
+    inFlightByPriority.forEach((priority, count) -> stats.put(priority.name().toLowerCase(), count.get()));
+    return stats;
+  }
+}
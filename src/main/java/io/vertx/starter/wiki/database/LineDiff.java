@@ -0,0 +1,221 @@
+package io.vertx.starter.wiki.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line based diff of two texts, with Myers' O(ND) algorithm.
+ * <p>
+ * Past {@link #MAX_EDITS} differing lines the search is abandoned and the differing region is reported as replaced as a
+ * whole, which keeps time and memory bounded for unrelated texts.
+ */
+final class LineDiff {
+
+  static final int MAX_EDITS = 1000;
+
+  private LineDiff() {
+  }
+
+  /**
+   * Lines of a text, each with its line terminator, so that joining them gives the text back.
+   */
+  static List<String> lines(String text) {
+    List<String> lines = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        lines.add(text.substring(start, i + 1));
+        start = i + 1;
+      }
+    }
+    if (start < text.length()) {
+      lines.add(text.substring(start));
+    }
+    return lines;
+  }
+
+  /**
+   * The changes turning {@code a} into {@code b}, in order.
+   */
+  static List<Change> diff(List<String> a, List<String> b) {
+    // Common head and tail lines are cheap to skip, and usually most of a page that was edited
+    int prefix = 0;
+    while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < a.size() - prefix && suffix < b.size() - prefix
+      && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) {
+      suffix++;
+    }
+    List<String> aMiddle = a.subList(prefix, a.size() - suffix);
+    List<String> bMiddle = b.subList(prefix, b.size() - suffix);
+    List<Change> changes = new ArrayList<>();
+    if (aMiddle.isEmpty() && bMiddle.isEmpty()) {
+      return changes;
+    }
+    if (!myers(aMiddle, bMiddle, prefix, changes)) {
+      changes.clear();
+      changes.add(new Change(prefix, aMiddle.size(), prefix, bMiddle.size()));
+    }
+    return changes;
+  }
+
+  private static boolean myers(List<String> a, List<String> b, int offset, List<Change> changes) {
+    int n = a.size();
+    int m = b.size();
+    int max = Math.min(n + m, MAX_EDITS);
+    // v[k + max] is the furthest x reached on diagonal k; trace[d] keeps diagonals -d..d once d edits are explored
+    int[] v = new int[2 * max + 2];
+    List<int[]> trace = new ArrayList<>();
+    for (int d = 0; d <= max; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x = k == -d || (k != d && v[k - 1 + max] < v[k + 1 + max]) ? v[k + 1 + max] : v[k - 1 + max] + 1;
+        int y = x - k;
+        while (x < n && y < m && a.get(x).equals(b.get(y))) {
+          x++;
+          y++;
+        }
+        v[k + max] = x;
+        if (x >= n && y >= m) {
+          trace.add(slice(v, max, d));
+          backtrack(trace, n, m, offset, changes);
+          return true;
+        }
+      }
+      trace.add(slice(v, max, d));
+    }
+    return false;
+  }
+
+  private static int[] slice(int[] v, int max, int d) {
+    int[] slice = new int[2 * d + 1];
+    System.arraycopy(v, max - d, slice, 0, slice.length);
+    return slice;
+  }
+
+  private static void backtrack(List<int[]> trace, int n, int m, int offset, List<Change> changes) {
+    List<Change> reversed = new ArrayList<>();
+    int x = n;
+    int y = m;
+    // The change being built, from the end of the texts backwards
+    int deleteEnd = -1;
+    int insertEnd = -1;
+    int deleted = 0;
+    int inserted = 0;
+    for (int d = trace.size() - 1; d > 0; d--) {
+      int[] previous = trace.get(d - 1);
+      int k = x - y;
+      int previousK = k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]) ? k + 1 : k - 1;
+      int previousX = previous[previousK + d - 1];
+      int previousY = previousX - previousK;
+      if (x > previousX && y > previousY && (deleted > 0 || inserted > 0)) {
+        reversed.add(new Change(offset + deleteEnd - deleted, deleted, offset + insertEnd - inserted, inserted));
+        deleted = 0;
+        inserted = 0;
+      }
+      while (x > previousX && y > previousY) {
+        x--;
+        y--;
+      }
+      if (deleted == 0 && inserted == 0) {
+        deleteEnd = x;
+        insertEnd = y;
+      }
+      if (previousK == k + 1) {
+        inserted++;
+      } else {
+        deleted++;
+      }
+      x = previousX;
+      y = previousY;
+    }
+    if (deleted > 0 || inserted > 0) {
+      reversed.add(new Change(offset + deleteEnd - deleted, deleted, offset + insertEnd - inserted, inserted));
+    }
+    Collections.reverse(reversed);
+    changes.addAll(reversed);
+  }
+
+  /**
+   * Format changes as a unified diff with {@code context} lines around each hunk.
+   */
+  static String unified(String fromLabel, String toLabel, List<String> a, List<String> b, List<Change> changes, int context) {
+    StringBuilder out = new StringBuilder();
+    out.append("--- ").append(fromLabel).append('\n');
+    out.append("+++ ").append(toLabel).append('\n');
+    int i = 0;
+    while (i < changes.size()) {
+      // Changes closer than twice the context share a hunk
+      int j = i;
+      while (j + 1 < changes.size() && changes.get(j + 1).aStart - changes.get(j).aEnd() <= 2 * context) {
+        j++;
+      }
+      Change first = changes.get(i);
+      Change last = changes.get(j);
+      int aFrom = Math.max(0, first.aStart - context);
+      int bFrom = Math.max(0, first.bStart - context);
+      int aTo = Math.min(a.size(), last.aEnd() + context);
+      int bTo = Math.min(b.size(), last.bEnd() + context);
+      out.append("@@ -").append(range(aFrom, aTo - aFrom)).append(" +").append(range(bFrom, bTo - bFrom)).append(" @@\n");
+      int line = aFrom;
+      for (int c = i; c <= j; c++) {
+        Change change = changes.get(c);
+        for (; line < change.aStart; line++) {
+          appendLine(out, ' ', a.get(line));
+        }
+        for (int l = change.aStart; l < change.aEnd(); l++) {
+          appendLine(out, '-', a.get(l));
+        }
+        for (int l = change.bStart; l < change.bEnd(); l++) {
+          appendLine(out, '+', b.get(l));
+        }
+        line = change.aEnd();
+      }
+      for (; line < aTo; line++) {
+        appendLine(out, ' ', a.get(line));
+      }
+      i = j + 1;
+    }
+    return out.toString();
+  }
+
+  private static String range(int start, int length) {
+    // Unified diffs number lines from 1, and an empty range is given by the line before it
+    return length == 1 ? String.valueOf(start + 1) : (length == 0 ? start : start + 1) + "," + length;
+  }
+
+  private static void appendLine(StringBuilder out, char prefix, String line) {
+    out.append(prefix).append(line);
+    if (!line.endsWith("\n")) {
+      out.append("\n\\ No newline at end of file\n");
+    }
+  }
+
+  /**
+   * Lines {@code aStart} to {@code aStart + deleted} of the first text replaced by lines {@code bStart} to
+   * {@code bStart + inserted} of the second.
+   */
+  static final class Change {
+    final int aStart;
+    final int deleted;
+    final int bStart;
+    final int inserted;
+
+    Change(int aStart, int deleted, int bStart, int inserted) {
+      this.aStart = aStart;
+      this.deleted = deleted;
+      this.bStart = bStart;
+      this.inserted = inserted;
+    }
+
+    int aEnd() {
+      return aStart + deleted;
+    }
+
+    int bEnd() {
+      return bStart + inserted;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory graph of the links between pages, kept in line with the {@code Links} table as pages are written.
+ * <p>
+ * Both directions of each link are indexed, along with the names of the pages that are linked to but do not exist, so
+ * that backlinks and missing pages are answered in time proportional to the size of the answer rather than of the
+ * wiki.
+ */
+public class LinkIndex {
+
+  // Longer names do not fit the Links table, nor the Pages one
+  private static final int MAX_NAME_LENGTH = 255;
+
+  private static final Pattern WIKI_LINK = Pattern.compile("<a\\s[^>]*?href=\"/wiki/([^\"#?]+)[^\"]*\"");
+
+  private final Map<String, Set<String>> outgoing = new HashMap<>();
+  private final Map<String, Set<String>> incoming = new HashMap<>();
+  private final Set<String> pages = new HashSet<>();
+  private final NavigableSet<String> missing = new TreeSet<>();
+  private long links;
+
+  /**
+   * The names of the pages that rendered page {@code source} links to, itself excluded. Only {@code /wiki/} links
+   * count, as produced by markdown links such as {@code [Other page](/wiki/Other%20page)}.
+   */
+  static Set<String> targets(String source, String html) {
+    Set<String> targets = new LinkedHashSet<>();
+    if (html == null) {
+      return targets;
+    }
+    Matcher matcher = WIKI_LINK.matcher(html);
+    while (matcher.find()) {
+      String target = decode(matcher.group(1));
+      if (target != null && !target.isEmpty() && target.length() <= MAX_NAME_LENGTH && !target.equals(source)) {
+        targets.add(target);
+      }
+    }
+    return targets;
+  }
+
+  private static String decode(String path) {
+    try {
+      // Page names may contain a plus sign, which only means a space in query strings
+      return URLDecoder.decode(path.replace("&amp;", "&").replace("+", "%2B"), "UTF-8");
+    } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Replace the whole index.
+   *
+   * @param rows {@code Links} table rows, the source page name followed by the target one
+   */
+  public synchronized void load(Collection<String> pageNames, Collection<JsonArray> rows) {
+    outgoing.clear();
+    incoming.clear();
+    pages.clear();
+    missing.clear();
+    links = 0;
+    pages.addAll(pageNames);
+    for (JsonArray link : rows) {
+      String source = link.getString(0);
+      String target = link.getString(1);
+      outgoing.computeIfAbsent(source, name -> new HashSet<>()).add(target);
+      addIncoming(source, target);
+    }
+  }
+
+  public synchronized void pageCreated(String name) {
+    pages.add(name);
+    missing.remove(name);
+  }
+
+  /**
+   * Forget the links from a deleted page. Links to it are kept, it is now missing for the pages they come from.
+   */
+  public synchronized void pageDeleted(String name) {
+    setLinks(name, Collections.emptySet());
+    pages.remove(name);
+    if (incoming.containsKey(name)) {
+      missing.add(name);
+    }
+  }
+
+  public synchronized void setLinks(String source, Set<String> targets) {
+    Set<String> previous = outgoing.remove(source);
+    if (previous != null) {
+      for (String target : previous) {
+        if (!targets.contains(target)) {
+          removeIncoming(source, target);
+        }
+      }
+    }
+    for (String target : targets) {
+      if (previous == null || !previous.contains(target)) {
+        addIncoming(source, target);
+      }
+    }
+    if (!targets.isEmpty()) {
+      outgoing.put(source, new HashSet<>(targets));
+    }
+  }
+
+  private void addIncoming(String source, String target) {
+    if (incoming.computeIfAbsent(target, name -> new HashSet<>()).add(source)) {
+      links++;
+    }
+    if (!pages.contains(target)) {
+      missing.add(target);
+    }
+  }
+
+  private void removeIncoming(String source, String target) {
+    Set<String> sources = incoming.get(target);
+    if (sources == null) {
+      return;
+    }
+    if (sources.remove(source)) {
+      links--;
+    }
+    if (sources.isEmpty()) {
+      incoming.remove(target);
+      missing.remove(target);
+    }
+  }
+
+  /**
+   * @return the names of the pages linking to page {@code name}, in alphabetical order
+   */
+  public synchronized JsonArray backlinks(String name) {
+    Set<String> sources = incoming.get(name);
+    return sources == null ? new JsonArray() : new JsonArray(new ArrayList<>(new TreeSet<>(sources)));
+  }
+
+  /**
+   * @param afterName the last name of the previous page of results, or {@code null} for the first page
+   * @return objects with the {@code name} of pages linked to that do not exist, in alphabetical order, and the number
+   * of pages linking to them in {@code backlinks}
+   */
+  public synchronized JsonArray missingPages(String afterName, int limit) {
+    JsonArray results = new JsonArray();
+    for (String name : afterName == null ? missing : missing.tailSet(afterName, false)) {
+      if (results.size() >= limit) {
+        break;
+      }
+      results.add(new JsonObject().put("name", name).put("backlinks", incoming.get(name).size()));
+    }
+    return results;
+  }
+
+  public synchronized JsonObject stats() {
+    return new JsonObject()
+      .put("pages", pages.size())
+      .put("linkingPages", outgoing.size())
+      .put("links", links)
+      .put("missingPages", missing.size());
+  }
+}
@@ -0,0 +1,160 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.BiConsumer;
+
+/**
+ * Event-bus delivery of service calls between verticles of the same JVM, without the JSON encoding done by the generated
+ * proxies.
+ * <p>
+ * Calls are sent to {@code <address>.local} as {@link Invocation}s, whose codec hands the very same object to the
+ * consumer, and results come back by reference the same way. Only local consumers are registered on that address, so
+ * these messages never go over the wire: when no local consumer exists (e.g. the service runs on another cluster node)
+ * calls go through the regular proxy instead.
+ * <p>
+ * Since nothing is copied, callers must not modify arguments once a call is made, nor services their results once
+ * handed over.
+ */
+public final class LocalDelivery {
+
+  private static final String LOCAL_SUFFIX = ".local";
+
+  private LocalDelivery() {
+  }
+
+  /**
+   * Create a proxy calling local consumers registered with {@link #register}, or {@code fallback} if there are none.
+   *
+   * @param deliveryOptions options of every call, the codec aside
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T proxy(Vertx vertx, String address, Class<T> type, T fallback, DeliveryOptions deliveryOptions) {
+    registerCodec(vertx);
+    String localAddress = address + LOCAL_SUFFIX;
+    DeliveryOptions options = new DeliveryOptions(deliveryOptions).setCodecName(InvocationCodec.NAME);
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+      if (args == null || args.length == 0 || !(args[args.length - 1] instanceof Handler)) {
+        Object result = invoke(fallback, method, args);
+        return result == fallback ? self : result;
+      }
+      Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) args[args.length - 1];
+      Invocation invocation = new Invocation(method, args);
+      vertx.eventBus().<Invocation>send(localAddress, invocation, options, reply -> {
+        if (reply.succeeded()) {
+          Invocation result = reply.result().body();
+          handler.handle(result.cause == null ? Future.succeededFuture(result.result) : Future.failedFuture(result.cause));
+        } else if (reply.cause() instanceof ReplyException && ((ReplyException) reply.cause()).failureType() == ReplyFailure.NO_HANDLERS) {
+          invoke(fallback, method, args);
+        } else {
+          handler.handle(Future.failedFuture(reply.cause()));
+        }
+      });
+      return self;
+    });
+  }
+
+  /**
+   * Consume local calls to {@code service}.
+   *
+   * @param queueWait called with the method name and the time in nanoseconds each call waited to be handled
+   */
+  public static <T> MessageConsumer<Invocation> register(Vertx vertx, String address, T service, BiConsumer<String, Long> queueWait) {
+    registerCodec(vertx);
+    DeliveryOptions options = new DeliveryOptions().setCodecName(InvocationCodec.NAME);
+    return vertx.eventBus().<Invocation>localConsumer(address + LOCAL_SUFFIX, message -> {
+      Invocation invocation = message.body();
+      queueWait.accept(invocation.method.getName(), System.nanoTime() - invocation.sent);
+      Object[] args = invocation.args.clone();
+      args[args.length - 1] = (Handler<AsyncResult<Object>>) ar -> {
+        invocation.result = ar.result();
+        invocation.cause = ar.cause();
+        message.reply(invocation, options);
+      };
+      try {
+        invoke(service, invocation.method, args);
+      } catch (RuntimeException e) {
+        invocation.cause = e;
+        message.reply(invocation, options);
+      }
+    });
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) {
+    try {
+      return method.invoke(target, args);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static void registerCodec(Vertx vertx) {
+    try {
+      vertx.eventBus().registerCodec(new InvocationCodec());
+    } catch (IllegalStateException e) {
+      // Already registered
+    }
+  }
+
+  /**
+   * A service call, then its outcome once the reply is sent back.
+   */
+  public static final class Invocation {
+    private final Method method;
+    private final Object[] args;
+    private final long sent = System.nanoTime();
+    private volatile Object result;
+    private volatile Throwable cause;
+
+    private Invocation(Method method, Object[] args) {
+      this.method = method;
+      this.args = args;
+    }
+  }
+
+  private static final class InvocationCodec implements MessageCodec<Invocation, Invocation> {
+    private static final String NAME = "wiki.local-invocation";
+
+    @Override
+    public void encodeToWire(Buffer buffer, Invocation invocation) {
+      throw new UnsupportedOperationException("Local invocations cannot be sent to other nodes");
+    }
+
+    @Override
+    public Invocation decodeFromWire(int pos, Buffer buffer) {
+      throw new UnsupportedOperationException("Local invocations cannot be received from other nodes");
+    }
+
+    @Override
+    public Invocation transform(Invocation invocation) {
+      return invocation;
+    }
+
+    @Override
+    public String name() {
+      return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,695 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Page storage as an append-only log file, an alternative to the JDBC tables for what is essentially a map of page
+ * names to markdown.
+ * <p>
+ * Every write appends records: the new state of a page in full, or a page deletion. An in-memory index maps page names
+ * and ids to the offset of their latest record and of the records of their previous revisions, which are read back
+ * through a memory mapping of the file. Records are framed with their length and a CRC32, and those making up a single
+ * write are flagged so that recovery only applies complete writes: when the log is opened, it is replayed to rebuild the
+ * index and truncated after the last complete write, dropping whatever a crash left half written.
+ * <p>
+ * Replaced and deleted pages leave garbage behind. {@link #compact()} rewrites the live pages to a new file, replacing
+ * the full records of previous revisions with the same reverse deltas as the JDBC history table, and swaps it in.
+ * <p>
+ * Record sequence numbers double as the change log of {@link WikiDatabaseService#fetchPageChanges}. Methods block on
+ * file IO and are synchronized: instances are shared by every verticle using the same file and called from worker
+ * threads.
+ */
+public class LogStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LogStore.class);
+
+  private static final int HEADER_BYTES = 8;
+
+  private final File file;
+  private final boolean sync;
+
+  private FileChannel channel;
+  private MappedByteBuffer mapped;
+  // Volatile so that metrics can read them without waiting for a compaction or a synced append
+  private volatile long size;
+  private volatile long garbageBytes;
+  private long compactions;
+
+  private final NavigableMap<Integer, Page> byId = new TreeMap<>();
+  private final NavigableMap<String, Page> byName = new TreeMap<>();
+  private final NavigableMap<Long, String> changes = new TreeMap<>();
+  private int nextId = 1;
+  private long nextSeq = 1;
+  private long prunedSeq;
+
+  /**
+   * @param sync whether to force writes to the disk before they are acknowledged
+   */
+  public LogStore(File file, boolean sync) {
+    this.file = file;
+    this.sync = sync;
+  }
+
+  /**
+   * Open the log, creating it if needed, and replay it.
+   *
+   * @return the number of pages in the log
+   */
+  public synchronized int open() throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      Files.createDirectories(parent.toPath());
+    }
+    // Left over by a compaction that did not complete, the log itself is intact
+    Files.deleteIfExists(compactionFile().toPath());
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    recover();
+    return byId.size();
+  }
+
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+      mapped = null;
+    }
+  }
+
+  private void recover() throws IOException {
+    byId.clear();
+    byName.clear();
+    changes.clear();
+    nextId = 1;
+    nextSeq = 1;
+    prunedSeq = 0;
+    garbageBytes = 0;
+    mapped = null;
+    size = channel.size();
+    long offset = 0;
+    long writeStart = 0;
+    List<Record> write = new ArrayList<>();
+    while (offset < size) {
+      Record record = tryRead(offset);
+      if (record == null) {
+        break;
+      }
+      write.add(record);
+      offset += record.length;
+      if (!record.json.getBoolean("more", false)) {
+        write.forEach(this::apply);
+        write.clear();
+        writeStart = offset;
+      }
+    }
+    if (writeStart < size) {
+      LOGGER.warn("Truncating {} from {} to {} bytes, dropping an incomplete write", file, size, writeStart);
+      channel.truncate(writeStart);
+      channel.force(true);
+      size = writeStart;
+      mapped = null;
+    }
+  }
+
+  /**
+   * @return the record at {@code offset}, or {@code null} if it is truncated or corrupt
+   */
+  private Record tryRead(long offset) throws IOException {
+    if (size - offset < HEADER_BYTES) {
+      return null;
+    }
+    ByteBuffer header = bytes(offset, HEADER_BYTES);
+    int length = header.getInt();
+    long crc = header.getInt() & 0xffffffffL;
+    if (length <= 0 || size - offset - HEADER_BYTES < length) {
+      return null;
+    }
+    byte[] payload = new byte[length];
+    bytes(offset + HEADER_BYTES, length).get(payload);
+    CRC32 checksum = new CRC32();
+    checksum.update(payload);
+    if (checksum.getValue() != crc) {
+      return null;
+    }
+    try {
+      return new Record(offset, HEADER_BYTES + length, Buffer.buffer(payload).toJsonObject());
+    } catch (DecodeException e) {
+      return null;
+    }
+  }
+
+  private JsonObject read(long offset) throws IOException {
+    Record record = tryRead(offset);
+    if (record == null) {
+      throw new IOException("Corrupt record at offset " + offset + " of " + file);
+    }
+    return record.json;
+  }
+
+  private ByteBuffer bytes(long offset, int length) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      // Too large for a single mapping
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+    if (mapped == null || mapped.capacity() < offset + length) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    ByteBuffer slice = mapped.duplicate();
+    slice.position((int) offset).limit((int) offset + length);
+    return slice.slice();
+  }
+
+  /**
+   * Update the index with a record, the same way whether it was just appended or is being replayed.
+   */
+  private void apply(Record record) {
+    JsonObject json = record.json;
+    long seq = json.getLong("seq", 0L);
+    nextSeq = Math.max(nextSeq, seq + 1);
+    switch (json.getString("t")) {
+      case "meta":
+        nextId = Math.max(nextId, json.getInteger("nextId"));
+        nextSeq = Math.max(nextSeq, json.getLong("nextSeq"));
+        prunedSeq = json.getLong("pruned");
+        return;
+      case "page": {
+        int id = json.getInteger("id");
+        Page page = byId.get(id);
+        if (page == null) {
+          page = new Page(id, json.getString("name"));
+          byId.put(id, page);
+          byName.put(page.name, page);
+        } else {
+          // The record of the previous revision is kept in full until the next compaction
+          page.history.put(page.revision, page.offset);
+          garbageBytes += page.length;
+          page.bytes -= page.length;
+        }
+        page.revision = json.getInteger("rev");
+        page.modified = json.getLong("mod");
+        page.offset = record.offset;
+        page.length = record.length;
+        page.bytes += record.length;
+        nextId = Math.max(nextId, id + 1);
+        logChange(seq, page.name);
+        return;
+      }
+      case "delta": {
+        Page page = byId.get(json.getInteger("id"));
+        if (page == null) {
+          garbageBytes += record.length;
+          return;
+        }
+        page.history.put(json.getInteger("rev"), record.offset);
+        page.bytes += record.length;
+        logChange(seq, page.name);
+        return;
+      }
+      case "delete": {
+        Page page = byId.remove(json.getInteger("id"));
+        if (page != null) {
+          byName.remove(page.name);
+          garbageBytes += page.bytes;
+        }
+        garbageBytes += record.length;
+        logChange(seq, json.getString("name"));
+        return;
+      }
+      case "change":
+        logChange(seq, json.getString("name"));
+        return;
+      case "prune":
+        prunedSeq = Math.max(prunedSeq, json.getLong("upTo"));
+        changes.headMap(prunedSeq, true).clear();
+        garbageBytes += record.length;
+        return;
+      default:
+        throw new IllegalStateException("Unknown record type " + json.getString("t") + " at offset " + record.offset + " of " + file);
+    }
+  }
+
+  private void logChange(long seq, String name) {
+    if (seq > prunedSeq) {
+      changes.put(seq, name);
+    }
+  }
+
+  /**
+   * Append the records of a single write and apply them to the index.
+   */
+  private void append(List<JsonObject> records) throws IOException {
+    if (records.isEmpty()) {
+      return;
+    }
+    List<byte[]> payloads = new ArrayList<>(records.size());
+    int total = 0;
+    for (int i = 0; i < records.size(); i++) {
+      JsonObject record = records.get(i);
+      if (i < records.size() - 1) {
+        record.put("more", true);
+      }
+      byte[] payload = record.toBuffer().getBytes();
+      payloads.add(payload);
+      total += HEADER_BYTES + payload.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(total);
+    for (byte[] payload : payloads) {
+      CRC32 checksum = new CRC32();
+      checksum.update(payload);
+      buffer.putInt(payload.length).putInt((int) checksum.getValue()).put(payload);
+    }
+    buffer.flip();
+    long start = size;
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, start + buffer.position());
+    }
+    if (sync) {
+      channel.force(false);
+    }
+    size = start + total;
+    long offset = start;
+    for (int i = 0; i < records.size(); i++) {
+      int length = HEADER_BYTES + payloads.get(i).length;
+      apply(new Record(offset, length, records.get(i)));
+      offset += length;
+    }
+  }
+
+  public synchronized int pageCount() {
+    return byId.size();
+  }
+
+  public synchronized List<String> names(String afterName, int limit) {
+    Collection<String> names = afterName == null ? byName.keySet() : byName.tailMap(afterName, false).keySet();
+    return names.stream().limit(limit).collect(Collectors.toList());
+  }
+
+  /**
+   * @return an object shaped like {@link WikiDatabaseService#fetchPage} results
+   */
+  public synchronized JsonObject page(String name) throws IOException {
+    Page page = byName.get(name);
+    if (page == null) {
+      return new JsonObject().put("found", false);
+    }
+    JsonObject record = read(page.offset);
+    return new JsonObject()
+      .put("found", true)
+      .put("id", page.id)
+      .put("rawContent", record.getString("content"))
+      .put("revision", page.revision)
+      .put("modified", page.modified)
+      .put("html", record.getString("html"))
+      .put("hash", record.getString("hash"));
+  }
+
+  /**
+   * @return the current revision of a page, or {@code null} if it does not exist
+   */
+  public synchronized Integer revisionOf(String name) {
+    Page page = byName.get(name);
+    return page == null ? null : page.revision;
+  }
+
+  /**
+   * Rebuild a previous revision of a page from its current content and the records of the revisions since.
+   *
+   * @return an object shaped like {@link WikiDatabaseService#fetchPageRevision} results
+   */
+  public synchronized JsonObject revision(String name, int revision) throws IOException {
+    Page page = byName.get(name);
+    if (page == null) {
+      return new JsonObject().put("found", false);
+    }
+    JsonObject notFound = new JsonObject().put("found", false).put("latestRevision", page.revision);
+    if (revision < 1 || revision > page.revision) {
+      return notFound;
+    }
+    String content = read(page.offset).getString("content");
+    long modified = page.modified;
+    for (int rev = page.revision - 1; rev >= revision; rev--) {
+      Long offset = page.history.get(rev);
+      if (offset == null) {
+        return notFound;
+      }
+      JsonObject record = read(offset);
+      content = "page".equals(record.getString("t")) ? record.getString("content") : RevisionDelta.apply(content, record.getString("delta"));
+      modified = record.getLong("mod");
+    }
+    return new JsonObject()
+      .put("found", true)
+      .put("id", page.id)
+      .put("revision", revision)
+      .put("latestRevision", page.revision)
+      .put("rawContent", content)
+      .put("modified", modified);
+  }
+
+  /**
+   * Call {@code consumer} with the {@code id}, {@code name}, {@code revision}, markdown {@code content} and rendered
+   * {@code html} of every page, in id order.
+   */
+  public synchronized void forEachPage(Consumer<JsonObject> consumer) throws IOException {
+    for (Page page : byId.values()) {
+      consumer.accept(export(page));
+    }
+  }
+
+  /**
+   * @return pages shaped like {@link WikiDatabaseService#exportPages} results, {@code html} included
+   */
+  public synchronized List<JsonObject> pagesAfter(int afterId, int limit) throws IOException {
+    List<JsonObject> pages = new ArrayList<>();
+    for (Page page : byId.tailMap(afterId, false).values()) {
+      if (pages.size() >= limit) {
+        break;
+      }
+      pages.add(export(page));
+    }
+    return pages;
+  }
+
+  private JsonObject export(Page page) throws IOException {
+    JsonObject record = read(page.offset);
+    return new JsonObject()
+      .put("id", page.id)
+      .put("name", page.name)
+      .put("content", record.getString("content"))
+      .put("revision", page.revision)
+      .put("modified", page.modified)
+      .put("html", record.getString("html"))
+      .put("hash", record.getString("hash"));
+  }
+
+  /**
+   * Create pages, all of them or none.
+   *
+   * @param pages objects with the page {@code name}, markdown {@code content}, rendered {@code html} and its {@code hash}
+   * @return the ids of the pages, in the same order
+   */
+  public synchronized List<Integer> create(List<JsonObject> pages, long modified) throws IOException {
+    Set<String> names = new HashSet<>();
+    for (JsonObject page : pages) {
+      if (byName.containsKey(page.getString("name")) || !names.add(page.getString("name"))) {
+        throw new IllegalArgumentException("Page " + page.getString("name") + " already exists");
+      }
+    }
+    List<Integer> ids = new ArrayList<>(pages.size());
+    List<JsonObject> records = new ArrayList<>(pages.size());
+    int id = nextId;
+    for (JsonObject page : pages) {
+      ids.add(id);
+      records.add(pageRecord(nextSeq + records.size(), id++, page.getString("name"), 1, modified, page));
+    }
+    append(records);
+    return ids;
+  }
+
+  /**
+   * Save pages, all of them or none.
+   *
+   * @param pages objects with the page {@code id}, markdown {@code content}, rendered {@code html} and its {@code hash},
+   *              and the {@code revision} it was edited from if it must be checked
+   * @return the names of the pages saved, by id; pages that do not exist are skipped, unless their revision is checked
+   * in which case the save fails with a {@link WikiDatabaseService#CONFLICT}
+   */
+  public synchronized Map<Integer, String> save(List<JsonObject> pages, long modified) throws IOException {
+    Map<Integer, String> saved = new HashMap<>();
+    List<JsonObject> records = new ArrayList<>(pages.size());
+    Map<Integer, Integer> revisions = new HashMap<>();
+    for (JsonObject update : pages) {
+      int id = update.getInteger("id");
+      Page page = byId.get(id);
+      Integer expected = update.getInteger("revision");
+      int current = revisions.getOrDefault(id, page == null ? 0 : page.revision);
+      if (expected != null && (page == null || current != expected)) {
+        throw new ServiceException(WikiDatabaseService.CONFLICT, "Page " + id + " was changed or deleted since revision " + expected);
+      }
+      if (page == null) {
+        continue;
+      }
+      revisions.put(id, current + 1);
+      records.add(pageRecord(nextSeq + records.size(), id, page.name, current + 1, modified, update));
+      saved.put(id, page.name);
+    }
+    append(records);
+    return saved;
+  }
+
+  private static JsonObject pageRecord(long seq, int id, String name, int revision, long modified, JsonObject page) {
+    return new JsonObject()
+      .put("t", "page")
+      .put("seq", seq)
+      .put("id", id)
+      .put("name", name)
+      .put("rev", revision)
+      .put("mod", modified)
+      .put("content", page.getString("content"))
+      .put("html", page.getString("html"))
+      .put("hash", page.getString("hash"));
+  }
+
+  /**
+   * Delete pages, all of them or none, skipping those that do not exist.
+   *
+   * @return the names of the pages deleted
+   */
+  public synchronized List<String> delete(Collection<Integer> ids) throws IOException {
+    List<String> names = new ArrayList<>(ids.size());
+    List<JsonObject> records = new ArrayList<>(ids.size());
+    for (int id : new HashSet<>(ids)) {
+      Page page = byId.get(id);
+      if (page != null) {
+        names.add(page.name);
+        records.add(new JsonObject().put("t", "delete").put("seq", nextSeq + records.size()).put("id", id).put("name", page.name));
+      }
+    }
+    append(records);
+    return names;
+  }
+
+  /**
+   * Add a page along with its previous revisions, keeping its id, for migrations from another store.
+   *
+   * @param page    shaped like {@link #pagesAfter} results
+   * @param history objects with the {@code revision}, {@code modified} date and reverse {@code delta} of previous
+   *                revisions, as in the JDBC history table
+   */
+  public synchronized void importPage(JsonObject page, List<JsonObject> history) throws IOException {
+    if (byId.containsKey(page.getInteger("id")) || byName.containsKey(page.getString("name"))) {
+      throw new IllegalArgumentException("Page " + page.getString("name") + " already exists");
+    }
+    List<JsonObject> records = new ArrayList<>(1 + history.size());
+    records.add(pageRecord(nextSeq, page.getInteger("id"), page.getString("name"), page.getInteger("revision"), page.getLong("modified", 0L), page));
+    for (JsonObject revision : history) {
+      records.add(deltaRecord(nextSeq + records.size(), page.getInteger("id"), revision.getInteger("revision"), revision.getLong("modified"), revision.getString("delta")));
+    }
+    append(records);
+  }
+
+  private static JsonObject deltaRecord(long seq, int id, int revision, Long modified, String delta) {
+    return new JsonObject().put("t", "delta").put("seq", seq).put("id", id).put("rev", revision).put("mod", modified).put("delta", delta);
+  }
+
+  /**
+   * @return change log entries shaped like {@link WikiDatabaseService#fetchPageChanges} results
+   */
+  public synchronized List<JsonObject> changes(long afterSeq, int limit) throws IOException {
+    List<JsonObject> entries = new ArrayList<>();
+    for (Map.Entry<Long, String> change : changes.tailMap(afterSeq, false).entrySet()) {
+      if (entries.size() >= limit) {
+        break;
+      }
+      JsonObject entry = new JsonObject().put("seq", change.getKey()).put("name", change.getValue());
+      Page page = byName.get(change.getValue());
+      if (page == null) {
+        entries.add(entry.put("deleted", true));
+      } else {
+        entries.add(entry
+          .put("deleted", false)
+          .put("id", page.id)
+          .put("content", read(page.offset).getString("content"))
+          .put("revision", page.revision)
+          .put("modified", page.modified));
+      }
+    }
+    return entries;
+  }
+
+  public synchronized long lastChange() {
+    return changes.isEmpty() ? 0 : changes.lastKey();
+  }
+
+  public synchronized void pruneChanges(long upToSeq) throws IOException {
+    if (!changes.isEmpty() && changes.firstKey() <= upToSeq) {
+      append(Collections.singletonList(new JsonObject().put("t", "prune").put("upTo", upToSeq)));
+    }
+  }
+
+  /**
+   * @return whether garbage makes up at least {@code ratio} of the log
+   */
+  public synchronized boolean needsCompaction(double ratio) {
+    return size > 0 && garbageBytes >= ratio * size;
+  }
+
+  /**
+   * Rewrite the live pages to a new log and swap it in: the latest revision of each page in full, previous revisions
+   * as reverse deltas, and the change log entries not pruned yet.
+   *
+   * @return the number of bytes reclaimed
+   */
+  public synchronized long compact() throws IOException {
+    long before = size;
+    File compacted = compactionFile();
+    try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      write(out, new JsonObject().put("t", "meta").put("nextId", nextId).put("nextSeq", nextSeq).put("pruned", prunedSeq));
+      Set<Long> written = new HashSet<>();
+      for (Page page : byId.values()) {
+        JsonObject current = read(page.offset);
+        current.remove("more");
+        write(out, current);
+        written.add(current.getLong("seq"));
+        String newer = current.getString("content");
+        int expected = page.revision - 1;
+        for (Map.Entry<Integer, Long> revision : page.history.descendingMap().entrySet()) {
+          if (revision.getKey() != expected--) {
+            // Older revisions cannot be rebuilt past a gap in the history
+            break;
+          }
+          JsonObject record = read(revision.getValue());
+          String older = "page".equals(record.getString("t")) ? record.getString("content") : RevisionDelta.apply(newer, record.getString("delta"));
+          write(out, deltaRecord(record.getLong("seq"), page.id, revision.getKey(), record.getLong("mod"), RevisionDelta.encode(newer, older)));
+          written.add(record.getLong("seq"));
+          newer = older;
+        }
+      }
+      // Entries of pages that were deleted or replaced under the same name have no record left to come from
+      for (Map.Entry<Long, String> change : changes.entrySet()) {
+        if (written.contains(change.getKey())) {
+          continue;
+        }
+        write(out, new JsonObject().put("t", "change").put("seq", change.getKey()).put("name", change.getValue()));
+      }
+      out.force(true);
+    }
+    channel.close();
+    try {
+      swapIn(compacted.toPath());
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(compacted.toPath());
+      throw e;
+    } finally {
+      // The compacted copy either replaced the log or did not touch it, the store keeps going with whichever is there
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      recover();
+    }
+    compactions++;
+    LOGGER.info("Compacted {} from {} to {} bytes", file, before, size);
+    return before - size;
+  }
+
+  /**
+   * Replace the log with its compacted copy, in a single atomic step.
+   */
+  void swapIn(Path compacted) throws IOException {
+    Files.move(compacted, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void write(FileChannel out, JsonObject record) throws IOException {
+    byte[] payload = record.toBuffer().getBytes();
+    CRC32 checksum = new CRC32();
+    checksum.update(payload);
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+    buffer.putInt(payload.length).putInt((int) checksum.getValue()).put(payload).flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private File compactionFile() {
+    return new File(file.getPath() + ".compact");
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public long garbageBytes() {
+    return garbageBytes;
+  }
+
+  public synchronized JsonObject stats() {
+    return new JsonObject()
+      .put("file", file.getPath())
+      .put("pages", byId.size())
+      .put("bytes", size)
+      .put("garbageBytes", garbageBytes)
+      .put("changes", changes.size())
+      .put("compactions", compactions);
+  }
+
+  private static final class Record {
+    private final long offset;
+    private final int length;
+    private final JsonObject json;
+
+    private Record(long offset, int length, JsonObject json) {
+      this.offset = offset;
+      this.length = length;
+      this.json = json;
+    }
+  }
+
+  private static final class Page {
+    private final int id;
+    private final String name;
+    private int revision;
+    private Long modified;
+    private long offset;
+    private int length;
+    // Bytes of every record of the page, which become garbage when it is deleted
+    private long bytes;
+    // Offsets of the records of previous revisions, full page records or reverse deltas, by revision
+    private final NavigableMap<Integer, Long> history = new TreeMap<>();
+
+    private Page(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package io.vertx.starter.wiki.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copy the pages of a JDBC database to a page log, with their ids, revisions and history, to switch a wiki to the
+ * {@code log} backend. The wiki must be stopped, and the log must not hold any page yet:
+ *
+ * <pre>
+ * java -cp target/vertx-start-project-1.0-SNAPSHOT-fat.jar io.vertx.starter.wiki.database.LogStoreMigration \
+ *   jdbc:hsqldb:file:db/wiki db/wiki.log [dialect]
+ * </pre>
+ */
+public final class LogStoreMigration {
+
+  private static final int BATCH_SIZE = 100;
+
+  private LogStoreMigration() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: LogStoreMigration <jdbc url> <log file> [sql dialect]");
+      System.exit(1);
+    }
+    long start = System.currentTimeMillis();
+    int pages = migrate(args[0], args.length > 2 ? args[2] : null, new File(args[1]));
+    System.out.println("Migrated " + pages + " page(s) to " + args[1] + " in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  /**
+   * @return the number of pages migrated
+   */
+  public static int migrate(String jdbcUrl, String dialect, File logFile) throws IOException, SQLException {
+    SqlQueries sqlQueries = SqlQueries.load(dialect, null);
+    StoredContent storedContent = new StoredContent(new JsonObject(), new MetricsRegistry());
+    LogStore store = new LogStore(logFile, false);
+    try (Connection connection = DriverManager.getConnection(jdbcUrl);
+         PreparedStatement export = connection.prepareStatement(sqlQueries.get(SqlQuery.EXPORT_PAGES));
+         PreparedStatement deltas = connection.prepareStatement(sqlQueries.get(SqlQuery.REVISION_DELTAS))) {
+      if (store.open() > 0) {
+        throw new IllegalStateException(logFile + " already holds pages");
+      }
+      int count = 0;
+      int afterId = -1;
+      int batch;
+      do {
+        export.setInt(1, afterId);
+        export.setInt(2, BATCH_SIZE);
+        batch = 0;
+        try (ResultSet rs = export.executeQuery()) {
+          while (rs.next()) {
+            String content = storedContent.decode(rs.getString(3));
+            JsonObject page = new JsonObject()
+              .put("id", rs.getInt(1))
+              .put("name", rs.getString(2))
+              .put("content", content == null ? "" : content)
+              .put("revision", rs.getInt(4))
+              .put("modified", (Long) rs.getObject(5));
+            page.put("html", Processor.process(page.getString("content"))).put("hash", RenderedMarkdown.hash(page.getString("content")));
+            store.importPage(page, history(deltas, page.getInteger("id"), page.getInteger("revision")));
+            afterId = page.getInteger("id");
+            batch++;
+          }
+        }
+        count += batch;
+      } while (batch == BATCH_SIZE);
+      return count;
+    } finally {
+      store.close();
+    }
+  }
+
+  private static List<JsonObject> history(PreparedStatement deltas, int id, int revision) throws SQLException {
+    deltas.setInt(1, id);
+    deltas.setInt(2, 1);
+    deltas.setInt(3, revision);
+    List<JsonObject> history = new ArrayList<>();
+    try (ResultSet rs = deltas.executeQuery()) {
+      while (rs.next()) {
+        history.add(new JsonObject()
+          .put("revision", rs.getInt(1))
+          .put("modified", (Long) rs.getObject(2))
+          .put("delta", rs.getString(3)));
+      }
+    }
+    return history;
+  }
+}
@@ -0,0 +1,383 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * {@link WikiDatabaseService} storing pages in a {@link LogStore} rather than through JDBC, selected with
+ * {@code wikidb.backend} set to {@code log}.
+ * <p>
+ * Store calls block on file IO and run on the worker pool. Search and links are served from the same in-memory indexes
+ * as with JDBC.
+ */
+public class LogWikiDatabaseService implements WikiDatabaseService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LogWikiDatabaseService.class);
+
+  private final Vertx vertx;
+  private final LogStore store;
+  private final SearchIndex searchIndex;
+  private final LinkIndex linkIndex;
+  private final MarkdownRenderer markdownRenderer;
+
+  public LogWikiDatabaseService(Vertx vertx, LogStore store, SearchIndex searchIndex, LinkIndex linkIndex, MarkdownRenderer markdownRenderer) {
+    this.vertx = vertx;
+    this.store = store;
+    this.searchIndex = searchIndex;
+    this.linkIndex = linkIndex;
+    this.markdownRenderer = markdownRenderer;
+  }
+
+  /**
+   * Open the store, bring the search index in line with it and load the link index. Services sharing a store only need
+   * one of them prepared, see {@link WikiDatabaseVerticle}.
+   */
+  Future<Void> prepare() {
+    Future<Void> future = Future.future();
+    long start = System.currentTimeMillis();
+    this.vertx.<Integer>executeBlocking(open -> {
+      try {
+        this.store.open();
+        Set<Integer> removed = this.searchIndex.pageIds();
+        List<String> names = new ArrayList<>();
+        List<JsonArray> links = new ArrayList<>();
+        int[] indexed = new int[1];
+        this.store.forEachPage(page -> {
+          int id = page.getInteger("id");
+          String name = page.getString("name");
+          removed.remove(id);
+          if (!page.getInteger("revision").equals(this.searchIndex.revisionOf(id))) {
+            this.searchIndex.index(id, name, page.getInteger("revision"), page.getString("content"));
+            indexed[0]++;
+          }
+          names.add(name);
+          LinkIndex.targets(name, page.getString("html")).forEach(target -> links.add(new JsonArray().add(name).add(target)));
+        });
+        removed.forEach(this.searchIndex::remove);
+        this.linkIndex.load(names, links);
+        open.complete(indexed[0]);
+      } catch (IOException e) {
+        open.fail(e);
+      }
+    }, ar -> {
+      if (ar.succeeded()) {
+        long took = System.currentTimeMillis() - start;
+        this.searchIndex.setBuildTimeMillis(took);
+        LOGGER.info("Page log ready in {}ms, {} page(s) indexed: {}", took, ar.result(), this.store.stats().encode());
+        future.complete();
+      } else {
+        LOGGER.error("Page log preparation error", ar.cause());
+        future.fail(ar.cause());
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Compact the store if garbage makes up at least {@code ratio} of it.
+   */
+  void compactIfNeeded(double ratio) {
+    this.vertx.<Long>executeBlocking(compaction -> {
+      try {
+        compaction.complete(this.store.needsCompaction(ratio) ? this.store.compact() : 0L);
+      } catch (IOException e) {
+        compaction.fail(e);
+      }
+    }, ar -> {
+      if (ar.failed()) {
+        // The log is only replaced once the compacted copy is complete, so it is still intact
+        LOGGER.error("Page log compaction failed", ar.cause());
+      }
+    });
+  }
+
+  @FunctionalInterface
+  private interface StoreCall<T> {
+    T call() throws IOException;
+  }
+
+  private <T> void blocking(String operation, StoreCall<T> call, Handler<AsyncResult<T>> resultHandler) {
+    this.vertx.<T>executeBlocking(future -> {
+      try {
+        future.complete(call.call());
+      } catch (IOException e) {
+        future.fail(e);
+      }
+    }, false, ar -> {
+      if (ar.failed() && !(ar.cause() instanceof ServiceException)) {
+        LOGGER.error(operation + " failed", ar.cause());
+      }
+      resultHandler.handle(ar);
+    });
+  }
+
+  private void renderAll(List<JsonObject> pages, Handler<AsyncResult<List<JsonObject>>> handler) {
+    List<String> markdowns = pages.stream().map(page -> page.getString("content")).collect(Collectors.toList());
+    this.markdownRenderer.renderAll(markdowns, ar -> handler.handle(ar.map(htmls -> {
+      List<JsonObject> rendered = new ArrayList<>(pages.size());
+      for (int i = 0; i < pages.size(); i++) {
+        rendered.add(pages.get(i).copy().put("html", htmls.get(i)).put("hash", RenderedMarkdown.hash(markdowns.get(i))));
+      }
+      return rendered;
+    })));
+  }
+
+  @Override
+  public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+    fetchPages(null, Integer.MAX_VALUE, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPages(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    // Names are held in memory, but the store may be busy compacting or syncing an append
+    blocking("fetch pages", () -> new JsonArray(this.store.names(afterName, limit)), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    blocking("fetch page", () -> this.store.page(name), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    createPages(Collections.singletonList(new JsonObject().put("name", title).put("content", markdown)), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    blocking("fetch page revision", () -> this.store.revision(name, revision), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageDiff(String name, int fromRevision, int toRevision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    blocking("fetch page diff", () -> {
+      JsonObject notFound = new JsonObject().put("found", false);
+      Integer latest = this.store.revisionOf(name);
+      if (latest == null) {
+        return notFound;
+      }
+      int to = toRevision > 0 ? toRevision : latest;
+      int from = fromRevision > 0 ? fromRevision : to - 1;
+      JsonObject older = this.store.revision(name, from);
+      JsonObject newer = this.store.revision(name, to);
+      if (!older.getBoolean("found") || !newer.getBoolean("found")) {
+        return notFound;
+      }
+      return WikiDatabaseServiceImpl.diff(name, from, to, older.getString("rawContent"), newer.getString("rawContent"));
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService savePage(int id, int revision, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    save(Collections.singletonList(new JsonObject().put("id", id).put("revision", revision).put("content", markdown)), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+    deletePages(Collections.singletonList(id), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+    blocking("fetch all pages data", () -> {
+      // Shaped like the JDBC rows
+      List<JsonObject> rows = new ArrayList<>();
+      this.store.forEachPage(page -> rows.add(new JsonObject()
+        .put("ID", page.getInteger("id"))
+        .put("NAME", page.getString("name"))
+        .put("CONTENT", page.getString("content"))
+        .put("REVISION", page.getInteger("revision"))
+        .put("MODIFIED", page.getLong("modified"))
+        .put("HTML", page.getString("html"))
+        .put("HASH", page.getString("hash"))));
+      return rows;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+    blocking("export pages", () -> {
+      List<JsonObject> pages = this.store.pagesAfter(afterId, limit);
+      pages.forEach(page -> {
+        page.remove("html");
+        page.remove("hash");
+      });
+      return pages;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+    long start = System.nanoTime();
+    JsonArray results = this.searchIndex.search(query, limit);
+    resultHandler.handle(Future.succeededFuture(new JsonObject()
+      .put("query", query)
+      .put("results", results)
+      .put("tookMicros", (System.nanoTime() - start) / 1000)));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchSearchIndexStats(Handler<AsyncResult<JsonObject>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.searchIndex.stats()));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+    renderAll(pages, rendering -> {
+      if (rendering.failed()) {
+        resultHandler.handle(Future.failedFuture(rendering.cause()));
+        return;
+      }
+      List<JsonObject> rendered = rendering.result();
+      blocking("create pages", () -> this.store.create(rendered, System.currentTimeMillis()), ar -> {
+        if (ar.succeeded()) {
+          for (int i = 0; i < rendered.size(); i++) {
+            JsonObject page = rendered.get(i);
+            String name = page.getString("name");
+            this.searchIndex.index(ar.result().get(i), name, 1, page.getString("content"));
+            this.linkIndex.pageCreated(name);
+            this.linkIndex.setLinks(name, LinkIndex.targets(name, page.getString("html")));
+          }
+          resultHandler.handle(Future.succeededFuture());
+        } else {
+          resultHandler.handle(Future.failedFuture(ar.cause()));
+        }
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+    // Saved whatever their current revision
+    save(pages.stream().map(page -> new JsonObject().put("id", page.getInteger("id")).put("content", page.getString("content")))
+      .collect(Collectors.toList()), resultHandler);
+    return this;
+  }
+
+  private void save(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+    renderAll(pages, rendering -> {
+      if (rendering.failed()) {
+        resultHandler.handle(Future.failedFuture(rendering.cause()));
+        return;
+      }
+      List<JsonObject> rendered = rendering.result();
+      blocking("save pages", () -> {
+        // Revisions are read under the same lock as the save, so they are the ones it stored
+        synchronized (this.store) {
+          Map<Integer, String> saved = this.store.save(rendered, System.currentTimeMillis());
+          Map<Integer, Integer> revisions = new HashMap<>();
+          saved.forEach((id, name) -> revisions.put(id, this.store.revisionOf(name)));
+          return new SavedPages(saved, revisions);
+        }
+      }, ar -> {
+        if (ar.succeeded()) {
+          Map<Integer, JsonObject> latest = new HashMap<>();
+          rendered.forEach(page -> latest.put(page.getInteger("id"), page));
+          ar.result().names.forEach((id, name) -> {
+            JsonObject page = latest.get(id);
+            if (!this.searchIndex.update(id, page.getString("content"))) {
+              // Missing from the index: index what was stored, as WikiDatabaseServiceImpl re-indexes the page
+              this.searchIndex.index(id, name, ar.result().revisions.get(id), page.getString("content"));
+            }
+            this.linkIndex.setLinks(name, LinkIndex.targets(name, page.getString("html")));
+          });
+          resultHandler.handle(Future.succeededFuture());
+        } else {
+          resultHandler.handle(Future.failedFuture(ar.cause()));
+        }
+      });
+    });
+  }
+
+  @Override
+  public WikiDatabaseService deletePages(List<Integer> ids, Handler<AsyncResult<Void>> resultHandler) {
+    blocking("delete pages", () -> this.store.delete(ids), ar -> {
+      if (ar.succeeded()) {
+        new HashSet<>(ids).forEach(this.searchIndex::remove);
+        ar.result().forEach(this.linkIndex::pageDeleted);
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageChanges(long afterSeq, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+    blocking("fetch page changes", () -> this.store.changes(afterSeq, limit), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchLastPageChange(Handler<AsyncResult<Long>> resultHandler) {
+    blocking("fetch last page change", this.store::lastChange, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService prunePageChanges(long upToSeq, Handler<AsyncResult<Void>> resultHandler) {
+    blocking("prune page changes", () -> {
+      this.store.pruneChanges(upToSeq);
+      return null;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchBacklinks(String name, Handler<AsyncResult<JsonArray>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.linkIndex.backlinks(name)));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchMissingPages(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.linkIndex.missingPages(afterName, limit)));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchLinkIndexStats(Handler<AsyncResult<JsonObject>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.linkIndex.stats()));
+    return this;
+  }
+
+  private static final class SavedPages {
+    private final Map<Integer, String> names;
+    private final Map<Integer, Integer> revisions;
+
+    private SavedPages(Map<Integer, String> names, Map<Integer, Integer> revisions) {
+      this.names = names;
+      this.revisions = revisions;
+    }
+  }
+}
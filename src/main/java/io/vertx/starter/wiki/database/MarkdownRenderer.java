@@ -0,0 +1,210 @@
+package io.vertx.starter.wiki.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ServiceException;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders markdown to HTML off the event loop, so that a huge page does not stall every other connection of the loop.
+ * <p>
+ * Markdown up to {@code markdown.inline_max_chars} long renders in a fraction of a millisecond and is still rendered
+ * inline. Longer markdown is rendered by a worker pool of {@code markdown.workers} threads shared by the whole Vert.x
+ * instance. Read-time renderings are bounded: over {@code markdown.queue_limit} renderings queued or running, or not done
+ * within {@code markdown.timeout_ms}, they fail with a {@link ServiceException} whose code is
+ * {@link WikiDatabaseService#OVERLOADED}; a rendering that timed out still runs to completion on its worker. Renderings
+ * of pages being written are never rejected nor timed out, they wait for a worker: a page too slow to render would
+ * otherwise fail every save, and the edit would be lost.
+ * <p>
+ * Each verticle has a renderer of its own, so that its handle on the worker pool is closed with it, and all of them
+ * share their queue through a local map.
+ */
+public final class MarkdownRenderer {
+
+  public static final String CONFIG_MARKDOWN_WORKERS = "markdown.workers";
+  public static final String CONFIG_MARKDOWN_QUEUE_LIMIT = "markdown.queue_limit";
+  public static final String CONFIG_MARKDOWN_TIMEOUT_MILLIS = "markdown.timeout_ms";
+  public static final String CONFIG_MARKDOWN_INLINE_MAX_CHARS = "markdown.inline_max_chars";
+  public static final String CONFIG_MARKDOWN_MAX_EXECUTE_MILLIS = "markdown.max_execute_ms";
+
+  private static final String WORKER_POOL_NAME = "wiki-markdown";
+  private static final String SHARED_MAP_NAME = "wiki.markdown";
+  private static final String SHARED_MAP_KEY = "queue";
+
+  private final Vertx vertx;
+  private final WorkerExecutor executor;
+  private final Queue queue;
+  private final long timeoutMillis;
+  private final int inlineMaxChars;
+
+  public MarkdownRenderer(Vertx vertx, JsonObject config, MetricsRegistry metrics) {
+    this.vertx = vertx;
+    this.timeoutMillis = config.getLong(CONFIG_MARKDOWN_TIMEOUT_MILLIS, 2000L);
+    this.inlineMaxChars = config.getInteger(CONFIG_MARKDOWN_INLINE_MAX_CHARS, 8192);
+    // Renderings of saved pages are not bounded by the timeout, only those running past this are reported by the
+    // blocked thread checker
+    this.executor = vertx.createSharedWorkerExecutor(WORKER_POOL_NAME,
+      config.getInteger(CONFIG_MARKDOWN_WORKERS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+      TimeUnit.MILLISECONDS.toNanos(config.getLong(CONFIG_MARKDOWN_MAX_EXECUTE_MILLIS, 60000L)));
+    this.queue = Queue.shared(vertx, config.getInteger(CONFIG_MARKDOWN_QUEUE_LIMIT, 32), metrics);
+  }
+
+  /**
+   * Render markdown for a page being read, failing rather than keeping the reader waiting.
+   */
+  public void render(String markdown, Handler<AsyncResult<String>> handler) {
+    if (markdown.length() <= inlineMaxChars) {
+      queue.inline.inc();
+      handler.handle(Future.succeededFuture(process(markdown)));
+      return;
+    }
+    if (!queue.tryEnter()) {
+      queue.rejected.inc();
+      handler.handle(Future.failedFuture(new ServiceException(WikiDatabaseService.OVERLOADED,
+        "Too many markdown renderings queued, " + markdown.length() + " characters rejected")));
+      return;
+    }
+    queue.offloaded.inc();
+    Future<String> result = Future.future();
+    // The timer and the rendering result are both handled on the caller context, one of them completes the result
+    long timer = vertx.setTimer(timeoutMillis, id -> {
+      if (!result.isComplete()) {
+        queue.timedOut.inc();
+        result.fail(new ServiceException(WikiDatabaseService.OVERLOADED,
+          "Rendering " + markdown.length() + " characters of markdown took over " + timeoutMillis + "ms"));
+      }
+    });
+    // Unordered, renderings of a verticle run in parallel
+    executor.<String>executeBlocking(future -> future.complete(process(markdown)), false, ar -> {
+      queue.leave();
+      vertx.cancelTimer(timer);
+      if (ar.succeeded()) {
+        result.tryComplete(ar.result());
+      } else {
+        result.tryFail(ar.cause());
+      }
+    });
+    result.setHandler(handler);
+  }
+
+  /**
+   * Render markdown for a page being written, however long it takes.
+   */
+  public void renderForWrite(String markdown, Handler<AsyncResult<String>> handler) {
+    if (markdown.length() <= inlineMaxChars) {
+      queue.inline.inc();
+      handler.handle(Future.succeededFuture(process(markdown)));
+      return;
+    }
+    // Counted in the queue depth, so that read-time renderings give way to it
+    queue.enter();
+    queue.offloaded.inc();
+    executor.<String>executeBlocking(future -> future.complete(process(markdown)), false, ar -> {
+      queue.leave();
+      handler.handle(ar);
+    });
+  }
+
+  /**
+   * Render several pages being written one after the other, so that bulk operations take a single place in the queue at
+   * a time.
+   */
+  public void renderAll(List<String> markdowns, Handler<AsyncResult<List<String>>> handler) {
+    Future<List<String>> future = Future.succeededFuture(new ArrayList<>(markdowns.size()));
+    for (String markdown : markdowns) {
+      future = future.compose(htmls -> {
+        Future<String> rendered = Future.future();
+        renderForWrite(markdown, rendered.completer());
+        return rendered.map(html -> {
+          htmls.add(html);
+          return htmls;
+        });
+      });
+    }
+    future.setHandler(handler);
+  }
+
+  private String process(String markdown) {
+    long start = System.nanoTime();
+    String html = Processor.process(markdown);
+    queue.seconds.record(System.nanoTime() - start);
+    return html;
+  }
+
+  public JsonObject stats() {
+    return new JsonObject()
+      .put("depth", queue.depth.get())
+      .put("queueLimit", queue.limit)
+      .put("inlineMaxChars", inlineMaxChars)
+      .put("timeoutMillis", timeoutMillis);
+  }
+
+  /**
+   * Renderings queued or running on the worker pool.
+   */
+  private static final class Queue implements Shareable {
+    private final int limit;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final MetricsRegistry.Histogram seconds;
+    private final MetricsRegistry.Counter inline;
+    private final MetricsRegistry.Counter offloaded;
+    private final MetricsRegistry.Counter rejected;
+    private final MetricsRegistry.Counter timedOut;
+
+    private Queue(int limit, MetricsRegistry metrics) {
+      this.limit = limit;
+      this.seconds = metrics.timer("markdown_render_seconds", "Markdown to HTML conversion time");
+      this.inline = metrics.counter("markdown_renders_total", "Markdown renderings by where they ran", "mode", "inline");
+      this.offloaded = metrics.counter("markdown_renders_total", "Markdown renderings by where they ran", "mode", "worker");
+      this.rejected = metrics.counter("markdown_render_failures_total", "Markdown renderings that failed", "reason", "queue_full");
+      this.timedOut = metrics.counter("markdown_render_failures_total", "Markdown renderings that failed", "reason", "timeout");
+    }
+
+    private static Queue shared(Vertx vertx, int limit, MetricsRegistry metrics) {
+      LocalMap<String, Queue> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+      Queue existing = map.get(SHARED_MAP_KEY);
+      if (existing != null) {
+        return existing;
+      }
+      Queue queue = new Queue(limit, metrics);
+      existing = map.putIfAbsent(SHARED_MAP_KEY, queue);
+      if (existing != null) {
+        return existing;
+      }
+      metrics.gauge("markdown_render_queue_depth", "Markdown renderings queued or running on the worker pool", queue.depth::get);
+      return queue;
+    }
+
+    private boolean tryEnter() {
+      while (true) {
+        int current = depth.get();
+        if (current >= limit) {
+          return false;
+        }
+        if (depth.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private void enter() {
+      depth.incrementAndGet();
+    }
+
+    private void leave() {
+      depth.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of {@code fetchPage} results by page name, and of the sorted set of page names.
+ * <p>
+ * Entries expire after a fixed time and the least recently used pages are evicted past {@code maxEntries}. Concurrent
+ * misses on the same key share a single load. Writes invalidate what they touch, including loads in flight, so a load
+ * started before a write never caches what it read.
+ * <p>
+ * One instance is shared by all {@link WikiDatabaseVerticle} instances, hence the synchronized accessors. Cached
+ * objects are handed out as they are, callers must not modify them.
+ */
+class PageCache implements Shareable {
+
+  private final int maxEntries;
+  private final long ttlMillis;
+
+  private final LinkedHashMap<String, Entry<JsonObject>> pages = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Integer, String> pageNames = new HashMap<>();
+  private final Map<String, Load<JsonObject>> pageLoads = new HashMap<>();
+
+  private Entry<NavigableSet<String>> names;
+  private Load<NavigableSet<String>> namesLoad;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong collapsed = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxEntries the maximum number of cached pages, 0 disables caching altogether
+   */
+  PageCache(int maxEntries, long ttlMillis) {
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Create a cache sized from the {@code wikidb.cache.*} settings of {@code config}.
+   */
+  static PageCache of(JsonObject config) {
+    return new PageCache(config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_CACHE_MAX_ENTRIES, 10000),
+      config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_CACHE_TTL_MILLIS, 60000L));
+  }
+
+  boolean isEnabled() {
+    return maxEntries > 0;
+  }
+
+  /**
+   * Get a page from the cache, or from {@code loader} on a miss.
+   */
+  void page(String name, Handler<Future<JsonObject>> loader, Handler<AsyncResult<JsonObject>> handler) {
+    if (maxEntries <= 0) {
+      load(loader, handler);
+      return;
+    }
+    Load<JsonObject> load;
+    JsonObject cached = null;
+    synchronized (this) {
+      Entry<JsonObject> entry = pages.get(name);
+      if (entry != null && !entry.isExpired()) {
+        cached = entry.value;
+        load = null;
+      } else {
+        load = pageLoads.get(name);
+        if (load != null) {
+          collapsed.incrementAndGet();
+          load.waiters.add(new Waiter<>(handler));
+          return;
+        }
+        load = new Load<>(handler);
+        pageLoads.put(name, load);
+      }
+    }
+    if (load == null) {
+      hits.incrementAndGet();
+      handler.handle(Future.succeededFuture(cached));
+      return;
+    }
+    misses.incrementAndGet();
+    Load<JsonObject> pageLoad = load;
+    load(loader, ar -> {
+      synchronized (this) {
+        if (pageLoads.get(name) == pageLoad) {
+          pageLoads.remove(name);
+        }
+        if (ar.succeeded() && !pageLoad.stale) {
+          putPage(name, ar.result());
+        }
+      }
+      pageLoad.complete(ar);
+    });
+  }
+
+  /**
+   * Get all page names in ascending order from the cache, or from {@code loader} on a miss.
+   */
+  void names(Handler<Future<NavigableSet<String>>> loader, Handler<AsyncResult<NavigableSet<String>>> handler) {
+    if (maxEntries <= 0) {
+      load(loader, handler);
+      return;
+    }
+    Load<NavigableSet<String>> load;
+    NavigableSet<String> cached = null;
+    synchronized (this) {
+      if (names != null && !names.isExpired()) {
+        cached = names.value;
+        load = null;
+      } else if (namesLoad != null) {
+        collapsed.incrementAndGet();
+        namesLoad.waiters.add(new Waiter<>(handler));
+        return;
+      } else {
+        load = new Load<>(handler);
+        namesLoad = load;
+      }
+    }
+    if (load == null) {
+      hits.incrementAndGet();
+      handler.handle(Future.succeededFuture(cached));
+      return;
+    }
+    misses.incrementAndGet();
+    Load<NavigableSet<String>> thisLoad = load;
+    load(loader, ar -> {
+      synchronized (this) {
+        if (namesLoad == thisLoad) {
+          namesLoad = null;
+        }
+        if (ar.succeeded() && !thisLoad.stale) {
+          names = new Entry<>(ar.result(), expiry());
+        }
+      }
+      thisLoad.complete(ar);
+    });
+  }
+
+  synchronized void pageCreated(String name) {
+    pagesCreated(Collections.singleton(name));
+  }
+
+  /**
+   * Add pages created together, copying the cached names once for all of them.
+   */
+  synchronized void pagesCreated(Collection<String> created) {
+    created.forEach(this::invalidatePage);
+    if (names != null) {
+      // Copy on write, readers may be iterating the current set outside of the lock
+      NavigableSet<String> updated = new TreeSet<>(names.value);
+      updated.addAll(created);
+      names = new Entry<>(updated, names.expiresAt);
+    }
+    if (namesLoad != null) {
+      namesLoad.stale = true;
+      namesLoad = null;
+    }
+  }
+
+  synchronized void pageSaved(int id) {
+    String name = pageNames.get(id);
+    if (name != null) {
+      invalidatePage(name);
+    } else {
+      // The name of a page that is not cached is unknown, so whatever is in flight may be about it
+      pageLoads.values().forEach(load -> load.stale = true);
+      pageLoads.clear();
+    }
+  }
+
+  synchronized void pageDeleted(int id) {
+    pageSaved(id);
+    names = null;
+    if (namesLoad != null) {
+      namesLoad.stale = true;
+      namesLoad = null;
+    }
+  }
+
+  synchronized JsonObject stats() {
+    return new JsonObject()
+      .put("entries", pages.size())
+      .put("maxEntries", maxEntries)
+      .put("ttlMillis", ttlMillis)
+      .put("names", names != null ? names.value.size() : 0)
+      .put("hits", hits.get())
+      .put("misses", misses.get())
+      .put("collapsed", collapsed.get())
+      .put("evictions", evictions.get());
+  }
+
+  private void invalidatePage(String name) {
+    Entry<JsonObject> entry = pages.remove(name);
+    if (entry != null) {
+      pageNames.remove(entry.value.getInteger("id"));
+    }
+    Load<JsonObject> load = pageLoads.remove(name);
+    if (load != null) {
+      load.stale = true;
+    }
+  }
+
+  private void putPage(String name, JsonObject page) {
+    Entry<JsonObject> previous = pages.put(name, new Entry<>(page, expiry()));
+    if (previous != null) {
+      pageNames.remove(previous.value.getInteger("id"));
+    }
+    if (page.getInteger("id") != null) {
+      pageNames.put(page.getInteger("id"), name);
+    }
+    Iterator<Map.Entry<String, Entry<JsonObject>>> iterator = pages.entrySet().iterator();
+    while (pages.size() > maxEntries && iterator.hasNext()) {
+      pageNames.remove(iterator.next().getValue().value.getInteger("id"));
+      iterator.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private long expiry() {
+    return System.currentTimeMillis() + ttlMillis;
+  }
+
+  private static <T> void load(Handler<Future<T>> loader, Handler<AsyncResult<T>> handler) {
+    Future<T> future = Future.future();
+    future.setHandler(handler);
+    loader.handle(future);
+  }
+
+  private static final class Entry<T> {
+    private final T value;
+    private final long expiresAt;
+
+    private Entry(T value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() >= expiresAt;
+    }
+  }
+
+  /**
+   * A load in flight and the callers waiting for it. Guarded by the cache lock: waiters are only added while the load
+   * is registered in the cache, and it is completed once unregistered.
+   */
+  private static final class Load<T> {
+    private final List<Waiter<T>> waiters = new ArrayList<>();
+    private boolean stale;
+
+    private Load(Handler<AsyncResult<T>> handler) {
+      waiters.add(new Waiter<>(handler));
+    }
+
+    private void complete(AsyncResult<T> result) {
+      waiters.forEach(waiter -> waiter.notify(result));
+    }
+  }
+
+  /**
+   * A caller waiting for a load, notified on its own context since loads shared by verticle instances complete on
+   * the context of the instance that started them.
+   */
+  private static final class Waiter<T> {
+    private final Handler<AsyncResult<T>> handler;
+    private final Context context = Vertx.currentContext();
+
+    private Waiter(Handler<AsyncResult<T>> handler) {
+      this.handler = handler;
+    }
+
+    private void notify(AsyncResult<T> result) {
+      if (context == null || context == Vertx.currentContext()) {
+        handler.handle(result);
+      } else {
+        context.runOnContext(v -> handler.handle(result));
+      }
+    }
+  }
+}
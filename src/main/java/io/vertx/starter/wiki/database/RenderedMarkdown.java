@@ -0,0 +1,37 @@
+package io.vertx.starter.wiki.database;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * HTML rendering of a page markdown, stored next to it so that reads do not have to render pages again.
+ * The hash of the markdown it was rendered from allows spotting stale renderings.
+ */
+final class RenderedMarkdown {
+
+  final String html;
+  final String hash;
+
+  private RenderedMarkdown(String html, String hash) {
+    this.html = html;
+    this.hash = hash;
+  }
+
+  /**
+   * @param html the markdown rendered by {@link MarkdownRenderer}
+   */
+  static RenderedMarkdown of(String markdown, String html) {
+    return new RenderedMarkdown(html, hash(markdown));
+  }
+
+  static String hash(String markdown) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(markdown.getBytes(StandardCharsets.UTF_8));
+      return String.format("%040x", new BigInteger(1, digest));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package io.vertx.starter.wiki.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reverse deltas of page revisions: the current content of a page is stored in full, and each previous revision as the
+ * line changes turning the revision that replaced it back into it, deflated.
+ * <p>
+ * Deltas are Base64 text so that they can be passed as JDBC parameters through {@link io.vertx.core.json.JsonArray}s,
+ * which only carry binary values as Base64 strings anyway.
+ */
+final class RevisionDelta {
+
+  private static final int FORMAT = 1;
+
+  private RevisionDelta() {
+  }
+
+  /**
+   * Encode the changes turning {@code newer} into {@code older}.
+   */
+  static String encode(String newer, String older) {
+    List<String> base = LineDiff.lines(newer);
+    List<String> target = LineDiff.lines(older);
+    List<LineDiff.Change> changes = LineDiff.diff(base, target);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      out.writeByte(FORMAT);
+      out.writeInt(base.size());
+      out.writeInt(changes.size());
+      for (LineDiff.Change change : changes) {
+        out.writeInt(change.aStart);
+        out.writeInt(change.deleted);
+        out.writeInt(change.inserted);
+        for (int i = change.bStart; i < change.bEnd(); i++) {
+          byte[] line = target.get(i).getBytes(StandardCharsets.UTF_8);
+          out.writeInt(line.length);
+          out.write(line);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  /**
+   * Apply a delta produced by {@link #encode} to the {@code newer} text it was computed from.
+   *
+   * @throws IllegalArgumentException if the delta is corrupt or was computed from another text
+   */
+  static String apply(String newer, String delta) {
+    List<String> base = LineDiff.lines(newer);
+    StringBuilder older = new StringBuilder(newer.length());
+    try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(delta))))) {
+      if (in.readByte() != FORMAT) {
+        throw new IllegalArgumentException("Unknown delta format");
+      }
+      if (in.readInt() != base.size()) {
+        throw new IllegalArgumentException("Delta does not apply to a text of " + base.size() + " lines");
+      }
+      int line = 0;
+      int changes = in.readInt();
+      for (int c = 0; c < changes; c++) {
+        int start = in.readInt();
+        int deleted = in.readInt();
+        int inserted = in.readInt();
+        if (start < line || start + deleted > base.size()) {
+          throw new IllegalArgumentException("Delta does not apply, change at line " + start + " is out of range");
+        }
+        for (; line < start; line++) {
+          older.append(base.get(line));
+        }
+        line += deleted;
+        for (int i = 0; i < inserted; i++) {
+          byte[] bytes = new byte[in.readInt()];
+          in.readFully(bytes);
+          older.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+      }
+      for (; line < base.size(); line++) {
+        older.append(base.get(line));
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupt delta", e);
+    }
+    return older.toString();
+  }
+}
@@ -0,0 +1,253 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory inverted index over page titles and markdown content, ranked with TF-IDF.
+ * <p>
+ * Documents are keyed by page id and remember the page revision they were built from, so that a persisted index can be
+ * reconciled with the database at startup by only re-indexing the pages that changed.
+ */
+public class SearchIndex {
+
+  private static final int FILE_FORMAT_VERSION = 1;
+  private static final int TITLE_BOOST = 5;
+  private static final int MIN_TERM_LENGTH = 2;
+
+  // Rough per-entry JVM costs used for the memory footprint estimate
+  private static final int POSTING_ENTRY_BYTES = 64;
+  private static final int TERM_ENTRY_BYTES = 96;
+  private static final int DOCUMENT_ENTRY_BYTES = 128;
+
+  private final Map<String, Map<Integer, Integer>> postings = new HashMap<>();
+  private final Map<Integer, Document> documents = new HashMap<>();
+  private long postingCount;
+
+  private volatile long buildTimeMillis = -1;
+  private final AtomicLong queries = new AtomicLong();
+  private final AtomicLong queryNanos = new AtomicLong();
+
+  public synchronized void index(int id, String name, int revision, String markdown) {
+    remove(id);
+    Map<String, Integer> terms = new HashMap<>();
+    for (String term : tokenize(name)) {
+      terms.merge(term, TITLE_BOOST, Integer::sum);
+    }
+    for (String term : tokenize(markdown)) {
+      terms.merge(term, 1, Integer::sum);
+    }
+    add(new Document(id, name, revision, terms));
+  }
+
+  /**
+   * Re-index an already indexed page after its content has been saved, which bumps its revision.
+   *
+   * @return {@code false} when the page is unknown to the index and must be indexed with {@link #index} instead
+   */
+  public synchronized boolean update(int id, String markdown) {
+    Document document = documents.get(id);
+    if (document == null) {
+      return false;
+    }
+    index(id, document.name, document.revision + 1, markdown);
+    return true;
+  }
+
+  public synchronized void remove(int id) {
+    Document document = documents.remove(id);
+    if (document == null) {
+      return;
+    }
+    for (String term : document.terms.keySet()) {
+      Map<Integer, Integer> pages = postings.get(term);
+      pages.remove(id);
+      postingCount--;
+      if (pages.isEmpty()) {
+        postings.remove(term);
+      }
+    }
+  }
+
+  /**
+   * @return the revision the page was indexed at, or {@code null} when the page is not indexed
+   */
+  public synchronized Integer revisionOf(int id) {
+    Document document = documents.get(id);
+    return document != null ? document.revision : null;
+  }
+
+  public synchronized Set<Integer> pageIds() {
+    return new LinkedHashSet<>(documents.keySet());
+  }
+
+  /**
+   * Search for pages matching any of the query terms, best matches first.
+   *
+   * @return a JSON array of {@code {"name": ..., "score": ...}} objects
+   */
+  public JsonArray search(String query, int limit) {
+    long start = System.nanoTime();
+    List<Hit> hits = new ArrayList<>();
+    synchronized (this) {
+      Map<Integer, Double> scores = new HashMap<>();
+      int documentCount = documents.size();
+      for (String term : new LinkedHashSet<>(tokenize(query))) {
+        Map<Integer, Integer> pages = postings.get(term);
+        if (pages == null) {
+          continue;
+        }
+        double idf = Math.log(1.0 + (double) documentCount / pages.size());
+        pages.forEach((id, frequency) -> scores.merge(id, (1.0 + Math.log(frequency)) * idf, Double::sum));
+      }
+      scores.forEach((id, score) -> hits.add(new Hit(documents.get(id).name, score)));
+    }
+    hits.sort((a, b) -> a.score != b.score ? Double.compare(b.score, a.score) : a.name.compareTo(b.name));
+
+    JsonArray results = new JsonArray();
+    hits.stream().limit(limit).forEach(hit -> results.add(new JsonObject().put("name", hit.name).put("score", hit.score)));
+    queries.incrementAndGet();
+    queryNanos.addAndGet(System.nanoTime() - start);
+    return results;
+  }
+
+  public void setBuildTimeMillis(long buildTimeMillis) {
+    this.buildTimeMillis = buildTimeMillis;
+  }
+
+  public synchronized JsonObject stats() {
+    long estimatedBytes = postingCount * POSTING_ENTRY_BYTES
+      + postings.size() * (long) TERM_ENTRY_BYTES
+      + documents.size() * (long) DOCUMENT_ENTRY_BYTES;
+    long queryCount = queries.get();
+    return new JsonObject()
+      .put("pages", documents.size())
+      .put("terms", postings.size())
+      .put("postings", postingCount)
+      .put("estimatedBytes", estimatedBytes)
+      .put("estimatedBytesPerPage", documents.isEmpty() ? 0 : estimatedBytes / documents.size())
+      .put("buildTimeMillis", buildTimeMillis)
+      .put("queries", queryCount)
+      .put("averageQueryMicros", queryCount == 0 ? 0 : queryNanos.get() / queryCount / 1000);
+  }
+
+  static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        if (i - start >= MIN_TERM_LENGTH) {
+          tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Write the index to a file. The file is written next to the target and moved in place, so a crash never leaves a
+   * truncated index behind.
+   */
+  public void save(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      synchronized (this) {
+        out.writeInt(FILE_FORMAT_VERSION);
+        out.writeInt(documents.size());
+        for (Document document : documents.values()) {
+          out.writeInt(document.id);
+          out.writeUTF(document.name);
+          out.writeInt(document.revision);
+          out.writeInt(document.terms.size());
+          for (Map.Entry<String, Integer> term : document.terms.entrySet()) {
+            out.writeUTF(term.getKey());
+            out.writeInt(term.getValue());
+          }
+        }
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public synchronized void load(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int version = in.readInt();
+      if (version != FILE_FORMAT_VERSION) {
+        throw new IOException("Unsupported search index format version " + version);
+      }
+      postings.clear();
+      documents.clear();
+      postingCount = 0;
+      int documentCount = in.readInt();
+      for (int i = 0; i < documentCount; i++) {
+        int id = in.readInt();
+        String name = in.readUTF();
+        int revision = in.readInt();
+        int termCount = in.readInt();
+        Map<String, Integer> terms = new HashMap<>(termCount * 2);
+        for (int j = 0; j < termCount; j++) {
+          terms.put(in.readUTF(), in.readInt());
+        }
+        add(new Document(id, name, revision, terms));
+      }
+    }
+  }
+
+  private void add(Document document) {
+    documents.put(document.id, document);
+    document.terms.forEach((term, frequency) -> {
+      postings.computeIfAbsent(term, t -> new HashMap<>()).put(document.id, frequency);
+      postingCount++;
+    });
+  }
+
+  private static final class Document {
+    private final int id;
+    private final String name;
+    private final int revision;
+    private final Map<String, Integer> terms;
+
+    private Document(int id, String name, int revision, Map<String, Integer> terms) {
+      this.id = id;
+      this.name = name;
+      this.revision = revision;
+      this.terms = terms;
+    }
+  }
+
+  private static final class Hit {
+    private final String name;
+    private final double score;
+
+    private Hit(String name, double score) {
+      this.name = name;
+      this.score = score;
+    }
+  }
+}
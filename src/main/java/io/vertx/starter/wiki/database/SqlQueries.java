@@ -0,0 +1,101 @@
+package io.vertx.starter.wiki.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The SQL of every {@link SqlQuery}, for one database dialect.
+ * <p>
+ * Dialects are properties files on the classpath: {@code /db-queries.properties} for HSQLDB, the default, and
+ * {@code /db-queries-<dialect>.properties} for others. Each file gives the SQL of every query under its
+ * {@link SqlQuery#key() key}, and loading fails on the first missing one rather than leaving a query without SQL to be
+ * found out when it is first run.
+ */
+public final class SqlQueries {
+
+  public static final String DEFAULT_DIALECT = "hsqldb";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SqlQueries.class);
+
+  private final String dialect;
+  private final EnumMap<SqlQuery, String> queries;
+
+  private SqlQueries(String dialect, EnumMap<SqlQuery, String> queries) {
+    this.dialect = dialect;
+    this.queries = queries;
+  }
+
+  /**
+   * Load the queries of a dialect, or from a file when {@code queriesFile} is not {@code null}.
+   *
+   * @throws IllegalArgumentException if the dialect is unknown or some queries are missing
+   */
+  public static SqlQueries load(String dialect, String queriesFile) throws IOException {
+    String name = dialect != null ? dialect : DEFAULT_DIALECT;
+    Properties props = new Properties();
+    if (queriesFile != null) {
+      try (InputStream in = new FileInputStream(queriesFile)) {
+        props.load(in);
+      }
+      return of(name, props, queriesFile);
+    }
+    String resource = DEFAULT_DIALECT.equals(name) ? "/db-queries.properties" : "/db-queries-" + name + ".properties";
+    try (InputStream in = SqlQueries.class.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IllegalArgumentException("Unknown SQL dialect " + name + ", " + resource + " is not on the classpath");
+      }
+      props.load(in);
+    }
+    return of(name, props, resource);
+  }
+
+  /**
+   * @throws IllegalArgumentException if some queries are missing from {@code props}
+   */
+  static SqlQueries of(String dialect, Properties props, String source) {
+    EnumMap<SqlQuery, String> queries = new EnumMap<>(SqlQuery.class);
+    List<String> missing = new ArrayList<>();
+    for (SqlQuery query : SqlQuery.values()) {
+      String sql = props.getProperty(query.key());
+      if (sql == null || sql.trim().isEmpty()) {
+        missing.add(query.key());
+      } else {
+        queries.put(query, sql.trim());
+      }
+    }
+    if (!missing.isEmpty()) {
+      throw new IllegalArgumentException(source + " lacks the SQL of " + String.join(", ", missing));
+    }
+    Set<String> unknown = new TreeSet<>(props.stringPropertyNames());
+    for (SqlQuery query : SqlQuery.values()) {
+      unknown.remove(query.key());
+    }
+    if (!unknown.isEmpty()) {
+      LOGGER.warn("Ignoring unknown queries in {}: {}", source, unknown);
+    }
+    return new SqlQueries(dialect.toLowerCase(Locale.ROOT), queries);
+  }
+
+  public String dialect() {
+    return dialect;
+  }
+
+  public String get(SqlQuery query) {
+    return queries.get(query);
+  }
+
+  public int size() {
+    return queries.size();
+  }
+}
@@ -1,5 +1,7 @@
 package io.vertx.starter.wiki.database;
 
+import java.util.Locale;
+
 public enum SqlQuery {
   CREATE_PAGES_TABLE,
   ALL_PAGES,
@@ -7,6 +9,43 @@ public enum SqlQuery {
   CREATE_PAGE,
   SAVE_PAGE,
   DELETE_PAGE,
-  ALL_PAGES_DATA
+  ALL_PAGES_DATA,
+  EXPORT_PAGES,
+  PAGE_REVISIONS,
+  GET_PAGE_BY_ID,
+  MAX_PAGE_ID,
+  PAGES_AFTER_ID,
+  PAGES_AFTER_NAME,
+  PAGE_COLUMNS,
+  ADD_HTML_COLUMN,
+  ADD_HASH_COLUMN,
+  ADD_REVISION_COLUMN,
+  ADD_MODIFIED_COLUMN,
+  PAGES_WITHOUT_HTML,
+  BACKFILL_HTML,
+  CREATE_REVISIONS_TABLE,
+  INSERT_REVISION,
+  REVISION_DELTAS,
+  DELETE_PAGE_REVISIONS,
+  CREATE_PAGE_CHANGES_TABLE,
+  LOG_PAGE_CREATION,
+  LOG_PAGE_CHANGE,
+  PAGE_CHANGES,
+  LAST_PAGE_CHANGE,
+  PRUNE_PAGE_CHANGES,
+  PAGE_NAME,
+  LINKS_TABLE_EXISTS,
+  CREATE_LINKS_TABLE,
+  ALL_LINKS,
+  INSERT_LINK,
+  DELETE_LINKS,
+  LINK_SOURCES;
+
+  /**
+   * The key of the query SQL in the dialect files, e.g. {@code create-pages-table}.
+   */
+  public String key() {
+    return name().toLowerCase(Locale.ROOT).replace('_', '-');
+  }
 }
 
@@ -0,0 +1,106 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Transparent compression of the page markdown stored in the {@code Content} column.
+ * <p>
+ * Markdown of at least {@code threshold} UTF-8 bytes is stored deflated, as Base64 text behind a marker starting with a
+ * NUL character, so that compressed and raw rows can live side by side: rows written with compression disabled, or
+ * before it was enabled, are read as they are. Small pages are stored raw since deflate would barely shrink them.
+ */
+final class StoredContent {
+
+  private static final String MARKER = "\u0000deflate:";
+
+  private final boolean enabled;
+  private final int threshold;
+
+  private final MetricsRegistry.Counter rawBytes;
+  private final MetricsRegistry.Counter storedBytes;
+  private final MetricsRegistry.Histogram compressTimer;
+  private final MetricsRegistry.Histogram decompressTimer;
+
+  StoredContent(JsonObject config, MetricsRegistry metrics) {
+    this.enabled = config.getBoolean(WikiDatabaseVerticle.CONFIG_WIKIDB_COMPRESSION_ENABLED, false);
+    this.threshold = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_COMPRESSION_THRESHOLD, 2048);
+    this.rawBytes = metrics.counter("wikidb_content_compression_bytes_total", "Size of compressed page contents before and after compression", "form", "raw");
+    this.storedBytes = metrics.counter("wikidb_content_compression_bytes_total", "Size of compressed page contents before and after compression", "form", "stored");
+    this.compressTimer = metrics.timer("wikidb_content_compression_seconds", "Page content compression time", "operation", "compress");
+    this.decompressTimer = metrics.timer("wikidb_content_compression_seconds", "Page content compression time", "operation", "decompress");
+  }
+
+  /**
+   * The value to store for some markdown.
+   */
+  String encode(String markdown) {
+    if (markdown == null) {
+      return null;
+    }
+    // Markdown starting with the marker must be compressed to be read back as is
+    boolean marked = markdown.startsWith(MARKER);
+    if (!enabled && !marked) {
+      return markdown;
+    }
+    byte[] raw = markdown.getBytes(StandardCharsets.UTF_8);
+    if (raw.length < threshold && !marked) {
+      return markdown;
+    }
+    long start = System.nanoTime();
+    Deflater deflater = new Deflater();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+    } finally {
+      deflater.end();
+    }
+    String stored = MARKER + Base64.getEncoder().encodeToString(out.toByteArray());
+    compressTimer.record(System.nanoTime() - start);
+    rawBytes.inc(raw.length);
+    storedBytes.inc(stored.length());
+    return stored;
+  }
+
+  /**
+   * The markdown of a stored value, compressed or not.
+   */
+  String decode(String stored) {
+    if (stored == null || !stored.startsWith(MARKER)) {
+      return stored;
+    }
+    long start = System.nanoTime();
+    byte[] compressed = Base64.getDecoder().decode(stored.substring(MARKER.length()));
+    Inflater inflater = new Inflater();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+    try {
+      inflater.setInput(compressed);
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalStateException("Truncated page content");
+        }
+        out.write(buffer, 0, inflated);
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Corrupt page content", e);
+    } finally {
+      inflater.end();
+    }
+    decompressTimer.record(System.nanoTime() - start);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -1,31 +1,81 @@
 package io.vertx.starter.wiki.database;
 
 import io.vertx.codegen.annotations.Fluent;
+import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.ProxyGen;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
 
-import java.util.HashMap;
 import java.util.List;
 
 @ProxyGen
 public interface WikiDatabaseService {
 
+  /**
+   * Failure code of the {@link io.vertx.serviceproxy.ServiceException} failing saves of pages changed or deleted since
+   * the revision they were edited from.
+   */
+  int CONFLICT = 409;
+
+  /**
+   * Failure code of the {@link io.vertx.serviceproxy.ServiceException} failing calls rejected by
+   * {@link AdmissionControl} because too many calls are in flight.
+   */
+  int OVERLOADED = 503;
+
   @Fluent
   WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler);
 
+  /**
+   * Fetch page names in alphabetical order, a page at a time. Seeks past {@code afterName} on the {@code Name} index
+   * rather than skipping rows, so every page of results costs the same.
+   *
+   * @param afterName the last name of the previous page of results, or {@code null} for the first page
+   */
+  @Fluent
+  WikiDatabaseService fetchPages(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
   @Fluent
   WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler);
 
   @Fluent
   WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler);
 
+  /**
+   * Fetch a revision of a page, the current one included. Previous revisions are rebuilt from the current content and
+   * the deltas stored by each save since.
+   *
+   * @return an object shaped like {@link #fetchPage} results, with {@code found} false if the page or the revision does
+   * not exist, plus the current revision number in {@code latestRevision}
+   */
+  @Fluent
+  WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Compare two revisions of a page.
+   *
+   * @param fromRevision the older revision, or 0 for the one before {@code toRevision}
+   * @param toRevision   the newer revision, or 0 for the current one
+   * @return an object with the resolved {@code from} and {@code to} revisions, a unified {@code diff} and the number of
+   * lines {@code added} and {@code removed}, or {@code found} false if the page or a revision does not exist
+   */
+  @Fluent
+  WikiDatabaseService fetchPageDiff(String name, int fromRevision, int toRevision, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Save a new revision of a page, keeping the replaced one in its history.
+   *
+   * @param revision the revision the new content was edited from; if the page has changed or was deleted since, the
+   *                 call fails with a {@link #CONFLICT} and nothing is saved
+   */
   @Fluent
-  WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler);
+  WikiDatabaseService savePage(int id, int revision, String markdown, Handler<AsyncResult<Void>> resultHandler);
 
   @Fluent
   WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler);
@@ -33,12 +83,126 @@ public interface WikiDatabaseService {
   @Fluent
   WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler);
 
-  static WikiDatabaseService create(JDBCClient jdbcClient, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDatabaseService>> resultHandler) {
+  /**
+   * Fetch a batch of full pages ordered by id, for exports that must not hold the whole wiki in memory.
+   * Pass the id of the last page of the previous batch (or -1 for the first batch) to get the next one;
+   * a batch smaller than {@code limit} is the last one.
+   */
+  @Fluent
+  WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+  /**
+   * Search page titles and contents.
+   *
+   * @return an object with the matching pages, best first, in {@code results} and the search time in {@code tookMicros}
+   */
+  @Fluent
+  WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  @Fluent
+  WikiDatabaseService fetchSearchIndexStats(Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Create pages in JDBC batches within a single transaction: either all pages are created or none.
+   *
+   * @param pages objects with the page {@code name} and markdown {@code content}
+   */
+  @Fluent
+  WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Save pages in JDBC batches within a single transaction, whatever their current revision. Replaced revisions are
+   * kept in the page history as with {@link #savePage}.
+   *
+   * @param pages objects with the page {@code id} and markdown {@code content}
+   */
+  @Fluent
+  WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Delete pages in JDBC batches within a single transaction.
+   */
+  @Fluent
+  WikiDatabaseService deletePages(List<Integer> ids, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Fetch a batch of entries of the change log that every page creation, save and deletion adds to, for incremental
+   * backups. Entries are ordered by their {@code seq}; pass the last one of the previous batch (or 0 for the first
+   * batch) to get the next one, a batch smaller than {@code limit} is the last one.
+   * <p>
+   * Entries hold the page {@code name} and its <em>current</em> state rather than the state after the change: either
+   * {@code deleted} true, or its {@code content}, {@code revision} and {@code modified} date. A page changed several
+   * times hence comes up several times with the same content.
+   */
+  @Fluent
+  WikiDatabaseService fetchPageChanges(long afterSeq, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+  /**
+   * Fetch the {@code seq} of the latest change log entry, or 0 if there is none.
+   */
+  @Fluent
+  WikiDatabaseService fetchLastPageChange(Handler<AsyncResult<Long>> resultHandler);
+
+  /**
+   * Drop the change log entries up to {@code upToSeq} included, once they have been backed up.
+   */
+  @Fluent
+  WikiDatabaseService prunePageChanges(long upToSeq, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Fetch the names of the pages linking to a page, in alphabetical order. Links between pages are extracted when pages
+   * are written and kept in an in-memory index, so the answer does not depend on the size of the wiki.
+   */
+  @Fluent
+  WikiDatabaseService fetchBacklinks(String name, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Fetch pages that are linked to but do not exist, in alphabetical order, a page at a time as with
+   * {@link #fetchPages}.
+   *
+   * @return objects with the missing page {@code name} and the number of pages linking to it in {@code backlinks}
+   */
+  @Fluent
+  WikiDatabaseService fetchMissingPages(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
 
-    return new WikiDatabaseServiceImpl(jdbcClient, sqlQueries, resultHandler);
+  /**
+   * Fetch the number of pages, links and missing pages of the link index.
+   */
+  @Fluent
+  WikiDatabaseService fetchLinkIndexStats(Handler<AsyncResult<JsonObject>> resultHandler);
+
+  static WikiDatabaseService create(JDBCClient jdbcClient, SqlQueries sqlQueries, SearchIndex searchIndex, MarkdownRenderer markdownRenderer, MetricsRegistry metrics, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> resultHandler) {
+
+    WikiDatabaseServiceImpl service = new WikiDatabaseServiceImpl(jdbcClient, sqlQueries, searchIndex, new LinkIndex(), PageCache.of(config), markdownRenderer, metrics, config);
+    service.prepare().setHandler(ar -> resultHandler.handle(ar.map(service)));
+    return service;
   }
 
   static WikiDatabaseService createProxy(Vertx vertx, String address) {
-    return new WikiDatabaseServiceVertxEBProxy(vertx, address);
+    return createProxy(vertx, address, new DeliveryOptions());
+  }
+
+  /**
+   * @param options delivery options of every call, e.g. a send timeout
+   */
+  @GenIgnore
+  static WikiDatabaseService createProxy(Vertx vertx, String address, DeliveryOptions options) {
+    return new WikiDatabaseServiceVertxEBProxy(vertx, address, options);
+  }
+
+  /**
+   * Create a proxy passing arguments and results by reference to service instances of the same JVM, and falling back
+   * to JSON messages when the service is only available on other cluster nodes. See {@link LocalDelivery}.
+   */
+  static WikiDatabaseService createLocalProxy(Vertx vertx, String address) {
+    return createLocalProxy(vertx, address, new DeliveryOptions());
+  }
+
+  /**
+   * @param options delivery options of every call, e.g. a send timeout
+   */
+  @GenIgnore
+  static WikiDatabaseService createLocalProxy(Vertx vertx, String address, DeliveryOptions options) {
+    return LocalDelivery.proxy(vertx, address, WikiDatabaseService.class, createProxy(vertx, address, options), options);
   }
 }
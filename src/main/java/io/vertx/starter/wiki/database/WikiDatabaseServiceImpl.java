@@ -1,65 +1,359 @@
 package io.vertx.starter.wiki.database;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.UpdateResult;
+import io.vertx.serviceproxy.ServiceException;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class WikiDatabaseServiceImpl implements WikiDatabaseService {
   private static final Logger LOGGER = LoggerFactory.getLogger(WikiDatabaseServiceImpl.class);
+
+  private static final int SEARCH_INDEX_BATCH_SIZE = 100;
+  private static final int BACKFILL_BATCH_SIZE = 50;
+  private static final int DIFF_CONTEXT_LINES = 3;
+
   private final JDBCClient jdbcClient;
-  private final HashMap<SqlQuery, String> sqlQueries;
+  private final SqlQueries sqlQueries;
+  private final SearchIndex searchIndex;
+  private final LinkIndex linkIndex;
+  private final int batchSize;
+  private final EnumMap<SqlQuery, QueryMetrics> queryMetrics = new EnumMap<>(SqlQuery.class);
+  private final MarkdownRenderer markdownRenderer;
+  private final PageCache pageCache;
+  private final StoredContent storedContent;
+  private final int groupCommitWindowMillis;
+  private final int groupCommitMaxSaves;
+  private final MetricsRegistry.Histogram groupCommitSaves;
+  private final MetricsRegistry.Counter groupCommitDeferred;
+  private List<PendingSave> pendingSaves = new ArrayList<>();
+  private Context groupCommitContext;
+  private long groupCommitTimer = -1;
 
-  public WikiDatabaseServiceImpl(JDBCClient jdbcClient, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDatabaseService>> resultHandler) {
+  public WikiDatabaseServiceImpl(JDBCClient jdbcClient, SqlQueries sqlQueries, SearchIndex searchIndex, LinkIndex linkIndex, PageCache pageCache, MarkdownRenderer markdownRenderer, MetricsRegistry metrics, JsonObject config) {
     this.jdbcClient = jdbcClient;
     this.sqlQueries = sqlQueries;
+    this.searchIndex = searchIndex;
+    this.linkIndex = linkIndex;
+    this.pageCache = pageCache;
+    this.markdownRenderer = markdownRenderer;
+    this.batchSize = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_BATCH_SIZE, 500);
+    for (SqlQuery query : SqlQuery.values()) {
+      this.queryMetrics.put(query, new QueryMetrics(metrics, query));
+    }
+    this.storedContent = new StoredContent(config, metrics);
+    this.groupCommitWindowMillis = config.getBoolean(WikiDatabaseVerticle.CONFIG_WIKIDB_GROUP_COMMIT_ENABLED, false)
+      ? config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_GROUP_COMMIT_WINDOW_MILLIS, 5) : 0;
+    this.groupCommitMaxSaves = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_GROUP_COMMIT_MAX_SAVES, 64);
+    this.groupCommitSaves = metrics.histogram("wikidb_group_commit_saves", "Page saves committed together", MetricsRegistry.ROWS_BUCKETS);
+    this.groupCommitDeferred = metrics.counter("wikidb_group_commit_deferred_total", "Page saves held back for the next group commit because their page was already in it");
+  }
 
+  /**
+   * Create the schema if needed, bring the search index in line with the database and load the link index. Services
+   * sharing a database and indexes only need one of them prepared, see {@link WikiDatabaseVerticle}.
+   */
+  Future<Void> prepare() {
+    Future<Void> future = Future.future();
     this.jdbcClient.getConnection(ar -> {
       if (ar.failed()) {
         LOGGER.error("Could not open a database connection", ar.cause());
-        resultHandler.handle(Future.failedFuture(ar.cause()));
+        future.fail(ar.cause());
       } else {
         SQLConnection sqlConnection = ar.result();
-        sqlConnection.execute(this.sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE), create -> {
-          if (create.failed()) {
-            LOGGER.error("Database preparation error", create.cause());
-            resultHandler.handle(Future.failedFuture(create.cause()));
+        Future<Void> create = Future.future();
+        sqlConnection.execute(this.sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE), create.completer());
+        create.compose(v -> {
+          Future<Void> revisions = Future.future();
+          sqlConnection.execute(this.sqlQueries.get(SqlQuery.CREATE_REVISIONS_TABLE), revisions.completer());
+          return revisions;
+        }).compose(v -> {
+          Future<Void> changes = Future.future();
+          sqlConnection.execute(this.sqlQueries.get(SqlQuery.CREATE_PAGE_CHANGES_TABLE), changes.completer());
+          return changes;
+        }).compose(v -> migrateSchema(sqlConnection)).compose(v -> prepareLinksTable(sqlConnection)).setHandler(migrate -> {
+          sqlConnection.close();
+          if (migrate.failed()) {
+            LOGGER.error("Database preparation error", migrate.cause());
+            future.fail(migrate.cause());
           } else {
-            resultHandler.handle(Future.succeededFuture(this));
+            prepareSearchIndex().compose(v -> prepareLinkIndex()).setHandler(index -> {
+              if (index.failed()) {
+                LOGGER.error("Index preparation error", index.cause());
+              }
+              future.handle(index);
+            });
           }
         });
       }
     });
+    return future;
+  }
+
+  /**
+   * Add the columns that tables created by earlier versions lack.
+   */
+  private Future<Void> migrateSchema(SQLConnection connection) {
+    Future<ResultSet> columns = Future.future();
+    connection.query(this.sqlQueries.get(SqlQuery.PAGE_COLUMNS), columns.completer());
+    return columns.compose(rs -> {
+      Set<String> names = rs.getResults().stream().map(row -> row.getString(0).toUpperCase()).collect(Collectors.toSet());
+      Future<Void> future = Future.succeededFuture();
+      // Rows of tables created before revisions were tracked start at revision 1, with an unknown modification date
+      if (!names.contains("REVISION")) {
+        future = future.compose(v -> execute(connection, SqlQuery.ADD_REVISION_COLUMN));
+      }
+      if (!names.contains("MODIFIED")) {
+        future = future.compose(v -> execute(connection, SqlQuery.ADD_MODIFIED_COLUMN));
+      }
+      if (!names.contains("HTML")) {
+        future = future.compose(v -> execute(connection, SqlQuery.ADD_HTML_COLUMN));
+      }
+      if (!names.contains("HASH")) {
+        future = future.compose(v -> execute(connection, SqlQuery.ADD_HASH_COLUMN));
+      }
+      return future;
+    });
+  }
+
+  /**
+   * Create the {@code Links} table, filling it from the pages already stored when it did not exist yet.
+   */
+  private Future<Void> prepareLinksTable(SQLConnection connection) {
+    Future<ResultSet> exists = Future.future();
+    connection.query(this.sqlQueries.get(SqlQuery.LINKS_TABLE_EXISTS), exists.completer());
+    return exists.compose(rs -> {
+      if (rs.getResults().get(0).getInteger(0) > 0) {
+        return Future.succeededFuture();
+      }
+      return execute(connection, SqlQuery.CREATE_LINKS_TABLE)
+        .compose(v -> extractLinks(connection, -1, 0))
+        .map(count -> {
+          LOGGER.info("Extracted the links of {} page(s)", count);
+          return null;
+        });
+    });
+  }
+
+  /**
+   * Store the links of the pages past {@code afterId}, a batch at a time. Pages without stored HTML yet are rendered
+   * for the purpose.
+   *
+   * @return a future completed with the number of pages whose links were stored
+   */
+  private Future<Long> extractLinks(SQLConnection connection, int afterId, long count) {
+    Future<ResultSet> fetch = Future.future();
+    JsonArray params = new JsonArray().add(afterId).add(BACKFILL_BATCH_SIZE);
+    connection.queryWithParams(this.sqlQueries.get(SqlQuery.LINK_SOURCES), params, timed(SqlQuery.LINK_SOURCES, fetch.completer()));
+    return fetch.compose(rs -> {
+      List<JsonArray> rows = rs.getResults();
+      List<String> unrendered = rows.stream().filter(row -> row.getString(3) == null).map(row -> {
+        String markdown = this.storedContent.decode(row.getString(2));
+        return markdown == null ? "" : markdown;
+      }).collect(Collectors.toList());
+      Future<List<String>> rendering = Future.future();
+      this.markdownRenderer.renderAll(unrendered, rendering.completer());
+      return rendering.compose(htmls -> {
+        Iterator<String> rendered = htmls.iterator();
+        Map<String, Set<String>> links = new HashMap<>();
+        for (JsonArray row : rows) {
+          links.put(row.getString(1), LinkIndex.targets(row.getString(1), row.getString(3) != null ? row.getString(3) : rendered.next()));
+        }
+        return replaceLinks(connection, links);
+      }).compose(v -> rows.size() < BACKFILL_BATCH_SIZE
+        ? Future.succeededFuture(count + rows.size())
+        : extractLinks(connection, rows.get(rows.size() - 1).getInteger(0), count + rows.size()));
+    });
+  }
+
+  private Future<Void> prepareLinkIndex() {
+    long start = System.currentTimeMillis();
+    Future<ResultSet> pages = Future.future();
+    this.jdbcClient.query(this.sqlQueries.get(SqlQuery.ALL_PAGES), timed(SqlQuery.ALL_PAGES, pages.completer()));
+    return pages.compose(names -> {
+      Future<ResultSet> links = Future.future();
+      this.jdbcClient.query(this.sqlQueries.get(SqlQuery.ALL_LINKS), timed(SqlQuery.ALL_LINKS, links.completer()));
+      return links.map(rs -> {
+        this.linkIndex.load(names.getResults().stream().map(row -> row.getString(0)).collect(Collectors.toList()), rs.getResults());
+        LOGGER.info("Link index ready in {}ms: {}", System.currentTimeMillis() - start, this.linkIndex.stats().encode());
+        return null;
+      });
+    });
+  }
+
+  private Future<Void> execute(SQLConnection connection, SqlQuery query) {
+    LOGGER.info("Migrating schema: {}", this.sqlQueries.get(query));
+    Future<Void> future = Future.future();
+    connection.execute(this.sqlQueries.get(query), future.completer());
+    return future;
+  }
+
+  /**
+   * Store rendered HTML for the pages that have none, a batch at a time. A page saved in the meantime has been rendered
+   * by the save, so its row is left alone thanks to the revision check.
+   *
+   * @return a future completed with the number of pages rendered
+   */
+  Future<Long> backfillRenderedHtml() {
+    Future<Long> future = Future.future();
+    backfillRenderedHtml(-1, 0, future);
+    return future;
+  }
+
+  private void backfillRenderedHtml(int afterId, long count, Future<Long> done) {
+    JsonArray params = new JsonArray().add(afterId).add(BACKFILL_BATCH_SIZE);
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.PAGES_WITHOUT_HTML), params, timed(SqlQuery.PAGES_WITHOUT_HTML, fetch -> {
+      if (fetch.failed()) {
+        done.fail(fetch.cause());
+        return;
+      }
+      List<JsonArray> rows = fetch.result().getResults();
+      if (rows.isEmpty()) {
+        done.complete(count);
+        return;
+      }
+      List<String> markdowns = rows.stream().map(row -> {
+        String markdown = this.storedContent.decode(row.getString(1));
+        return markdown == null ? "" : markdown;
+      }).collect(Collectors.toList());
+      renderAll(markdowns, rendering -> {
+        if (rendering.failed()) {
+          done.fail(rendering.cause());
+          return;
+        }
+        List<JsonArray> updates = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+          RenderedMarkdown rendered = rendering.result().get(i);
+          updates.add(new JsonArray().add(rendered.html).add(rendered.hash).add(rows.get(i).getInteger(0)).add(rows.get(i).getInteger(2)));
+        }
+        updateRenderedHtml(rows, updates, count, done);
+      });
+    }));
+  }
+
+  private void updateRenderedHtml(List<JsonArray> rows, List<JsonArray> updates, long count, Future<Long> done) {
+    this.jdbcClient.getConnection(ar -> {
+      if (ar.failed()) {
+        done.fail(ar.cause());
+        return;
+      }
+      SQLConnection connection = ar.result();
+      batchUpdate(connection, SqlQuery.BACKFILL_HTML, updates).setHandler(update -> {
+        connection.close();
+        if (update.failed()) {
+          done.fail(update.cause());
+          return;
+        }
+        rows.forEach(row -> this.pageCache.pageSaved(row.getInteger(0)));
+        if (rows.size() < BACKFILL_BATCH_SIZE) {
+          done.complete(count + rows.size());
+        } else {
+          backfillRenderedHtml(rows.get(rows.size() - 1).getInteger(0), count + rows.size(), done);
+        }
+      });
+    });
+  }
+
+  private void render(String markdown, Handler<AsyncResult<RenderedMarkdown>> handler) {
+    this.markdownRenderer.renderForWrite(markdown, ar -> handler.handle(ar.map(html -> RenderedMarkdown.of(markdown, html))));
+  }
+
+  private void renderAll(List<String> markdowns, Handler<AsyncResult<List<RenderedMarkdown>>> handler) {
+    this.markdownRenderer.renderAll(markdowns, ar -> handler.handle(ar.map(htmls -> {
+      List<RenderedMarkdown> renderings = new ArrayList<>(htmls.size());
+      for (int i = 0; i < htmls.size(); i++) {
+        renderings.add(RenderedMarkdown.of(markdowns.get(i), htmls.get(i)));
+      }
+      return renderings;
+    })));
   }
 
   @Override
   public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
-    this.jdbcClient.query(this.sqlQueries.get(SqlQuery.ALL_PAGES), fetch -> {
+    this.pageCache.names(this::loadPageNames, names -> {
+      if (names.succeeded()) {
+        resultHandler.handle(Future.succeededFuture(new JsonArray(new ArrayList<>(names.result()))));
+      } else {
+        LOGGER.error("Faile to fetch all pages", names.cause());
+        resultHandler.handle(Future.failedFuture(names.cause()));
+      }
+    });
+    return this;
+  }
+
+  private void loadPageNames(Future<NavigableSet<String>> future) {
+    this.jdbcClient.query(this.sqlQueries.get(SqlQuery.ALL_PAGES), timed(SqlQuery.ALL_PAGES, fetch -> {
+      if (fetch.succeeded()) {
+        future.complete(fetch.result().getResults().stream().map(row -> row.getString(0)).collect(Collectors.toCollection(TreeSet::new)));
+      } else {
+        future.fail(fetch.cause());
+      }
+    }));
+  }
+
+  @Override
+  public WikiDatabaseService fetchPages(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    if (this.pageCache.isEnabled()) {
+      // Seek in the cached names rather than on the index
+      this.pageCache.names(this::loadPageNames, names -> {
+        if (names.succeeded()) {
+          NavigableSet<String> after = afterName == null ? names.result() : names.result().tailSet(afterName, false);
+          resultHandler.handle(Future.succeededFuture(new JsonArray(after.stream().limit(limit).collect(Collectors.toList()))));
+        } else {
+          LOGGER.error("fetch pages failed", names.cause());
+          resultHandler.handle(Future.failedFuture(names.cause()));
+        }
+      });
+      return this;
+    }
+    JsonArray params = new JsonArray().add(afterName == null ? "" : afterName).add(limit);
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.PAGES_AFTER_NAME), params, timed(SqlQuery.PAGES_AFTER_NAME, fetch -> {
       if (fetch.succeeded()) {
         List<JsonArray> results = fetch.result().getResults();
         JsonArray pages = new JsonArray(results.stream().map(json -> json.getString(0)).collect(Collectors.toList()));
         resultHandler.handle(Future.succeededFuture(pages));
       } else {
-        LOGGER.error("Faile to fetch all pages", fetch.cause());
+        LOGGER.error("fetch pages failed", fetch.cause());
         resultHandler.handle(Future.failedFuture(fetch.cause()));
       }
-    });
+    }));
     return this;
   }
 
   @Override
   public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
-    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(name), fetch -> {
+    this.pageCache.page(name, future -> loadPage(name, future), resultHandler);
+    return this;
+  }
+
+  private void loadPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(name), timed(SqlQuery.GET_PAGE, fetch -> {
       if (fetch.succeeded()) {
         JsonObject response = new JsonObject();
         ResultSet resultSet = fetch.result();
@@ -70,50 +364,402 @@ public class WikiDatabaseServiceImpl implements WikiDatabaseService {
           response.put("found", true);
           JsonArray row = resultSet.getResults().get(0);
           response.put("id", row.getInteger(0));
-          response.put("rawContent", row.getString(1));
+          response.put("rawContent", this.storedContent.decode(row.getString(1)));
+          response.put("revision", row.getInteger(2));
+          response.put("modified", row.getLong(3));
+          if (row.getString(4) != null) {
+            response.put("html", row.getString(4));
+            response.put("hash", row.getString(5));
+          }
         }
         resultHandler.handle(Future.succeededFuture(response));
       } else {
         LOGGER.error("fetch page failed", fetch.cause());
         resultHandler.handle(Future.failedFuture(fetch.cause()));
       }
+    }));
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    fetchPage(name, fetch -> {
+      if (fetch.failed()) {
+        resultHandler.handle(Future.failedFuture(fetch.cause()));
+        return;
+      }
+      JsonObject page = fetch.result();
+      if (!page.getBoolean("found") || revision < 1 || revision > page.getInteger("revision")) {
+        resultHandler.handle(Future.succeededFuture(new JsonObject().put("found", false).put("latestRevision", page.getInteger("revision"))));
+        return;
+      }
+      rebuildRevisions(page, revision, Collections.singleton(revision), ar -> {
+        if (ar.succeeded()) {
+          JsonObject found = ar.result().get(revision);
+          resultHandler.handle(Future.succeededFuture(found != null ? found
+            : new JsonObject().put("found", false).put("latestRevision", page.getInteger("revision"))));
+        } else {
+          LOGGER.error("fetch page revision failed", ar.cause());
+          resultHandler.handle(Future.failedFuture(ar.cause()));
+        }
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageDiff(String name, int fromRevision, int toRevision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    fetchPage(name, fetch -> {
+      if (fetch.failed()) {
+        resultHandler.handle(Future.failedFuture(fetch.cause()));
+        return;
+      }
+      JsonObject page = fetch.result();
+      JsonObject notFound = new JsonObject().put("found", false);
+      if (!page.getBoolean("found")) {
+        resultHandler.handle(Future.succeededFuture(notFound));
+        return;
+      }
+      int latest = page.getInteger("revision");
+      int to = toRevision > 0 ? toRevision : latest;
+      int from = fromRevision > 0 ? fromRevision : to - 1;
+      if (from < 1 || to < 1 || from > latest || to > latest) {
+        resultHandler.handle(Future.succeededFuture(notFound));
+        return;
+      }
+      rebuildRevisions(page, Math.min(from, to), new HashSet<>(Arrays.asList(from, to)), ar -> {
+        if (ar.failed()) {
+          LOGGER.error("fetch page diff failed", ar.cause());
+          resultHandler.handle(Future.failedFuture(ar.cause()));
+          return;
+        }
+        JsonObject older = ar.result().get(from);
+        JsonObject newer = ar.result().get(to);
+        if (older == null || newer == null) {
+          resultHandler.handle(Future.succeededFuture(notFound));
+          return;
+        }
+        resultHandler.handle(Future.succeededFuture(diff(name, from, to, older.getString("rawContent"), newer.getString("rawContent"))));
+      });
     });
     return this;
   }
 
+  /**
+   * @return a {@link #fetchPageDiff} result
+   */
+  static JsonObject diff(String name, int from, int to, String older, String newer) {
+    List<String> a = LineDiff.lines(older);
+    List<String> b = LineDiff.lines(newer);
+    List<LineDiff.Change> changes = LineDiff.diff(a, b);
+    return new JsonObject()
+      .put("found", true)
+      .put("name", name)
+      .put("from", from)
+      .put("to", to)
+      .put("diff", LineDiff.unified(name + "@" + from, name + "@" + to, a, b, changes, DIFF_CONTEXT_LINES))
+      .put("added", changes.stream().mapToInt(change -> change.inserted).sum())
+      .put("removed", changes.stream().mapToInt(change -> change.deleted).sum());
+  }
+
+  /**
+   * Rebuild the {@code wanted} revisions of a page, from its current content back to revision {@code oldest}. Revisions
+   * missing from the history, such as those saved before it was kept, are left out of the result.
+   *
+   * @param page a {@link #fetchPage} result
+   */
+  private void rebuildRevisions(JsonObject page, int oldest, Set<Integer> wanted, Handler<AsyncResult<Map<Integer, JsonObject>>> handler) {
+    int latest = page.getInteger("revision");
+    Map<Integer, JsonObject> revisions = new HashMap<>();
+    if (wanted.contains(latest)) {
+      revisions.put(latest, revision(page, latest, page.getLong("modified"), page.getString("rawContent")));
+    }
+    if (oldest >= latest) {
+      handler.handle(Future.succeededFuture(revisions));
+      return;
+    }
+    // Deltas of revisions saved after the page was fetched do not apply to its content, hence the upper bound
+    JsonArray params = new JsonArray().add(page.getInteger("id")).add(oldest).add(latest);
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.REVISION_DELTAS), params, timed(SqlQuery.REVISION_DELTAS, fetch -> {
+      if (fetch.failed()) {
+        handler.handle(Future.failedFuture(fetch.cause()));
+        return;
+      }
+      String content = page.getString("rawContent");
+      int expected = latest - 1;
+      try {
+        for (JsonArray row : fetch.result().getResults()) {
+          if (row.getInteger(0) != expected) {
+            break;
+          }
+          content = RevisionDelta.apply(content, row.getString(2));
+          if (wanted.contains(expected)) {
+            revisions.put(expected, revision(page, expected, row.getLong(1), content));
+          }
+          expected--;
+        }
+      } catch (IllegalArgumentException e) {
+        handler.handle(Future.failedFuture(e));
+        return;
+      }
+      handler.handle(Future.succeededFuture(revisions));
+    }));
+  }
+
+  private static JsonObject revision(JsonObject page, int revision, Long modified, String content) {
+    return new JsonObject()
+      .put("found", true)
+      .put("id", page.getInteger("id"))
+      .put("revision", revision)
+      .put("latestRevision", page.getInteger("revision"))
+      .put("rawContent", content)
+      .put("modified", modified);
+  }
+
   @Override
   public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-    JsonArray params = new JsonArray().add(title).add(markdown);
-    this.jdbcClient.updateWithParams(this.sqlQueries.get(SqlQuery.CREATE_PAGE), params, create -> {
-      if (create.succeeded()) {
-        resultHandler.handle(Future.succeededFuture());
-      } else {
-        LOGGER.error("create page failed", create.cause());
-        resultHandler.handle(Future.failedFuture(create.cause()));
+    render(markdown, rendering -> {
+      if (rendering.failed()) {
+        resultHandler.handle(Future.failedFuture(rendering.cause()));
+        return;
       }
+      RenderedMarkdown rendered = rendering.result();
+      JsonArray params = new JsonArray().add(title).add(this.storedContent.encode(markdown)).add(System.currentTimeMillis()).add(rendered.html).add(rendered.hash);
+      Set<String> links = LinkIndex.targets(title, rendered.html);
+      inTransaction(connection -> update(connection, SqlQuery.CREATE_PAGE, params)
+        .compose(v -> update(connection, SqlQuery.LOG_PAGE_CREATION, new JsonArray().add(title)))
+        .compose(v -> replaceLinks(connection, Collections.singletonMap(title, links))), create -> {
+        if (create.succeeded()) {
+          this.pageCache.pageCreated(title);
+          this.linkIndex.pageCreated(title);
+          this.linkIndex.setLinks(title, links);
+          indexNewPage(title, markdown, v -> resultHandler.handle(Future.succeededFuture()));
+        } else {
+          LOGGER.error("create page failed", create.cause());
+          resultHandler.handle(Future.failedFuture(create.cause()));
+        }
+      });
     });
     return this;
   }
 
   @Override
-  public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-    JsonArray params = new JsonArray().add(markdown).add(id);
-    this.jdbcClient.updateWithParams(this.sqlQueries.get(SqlQuery.SAVE_PAGE), params, save -> {
+  public WikiDatabaseService savePage(int id, int revision, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    render(markdown, rendering -> {
+      if (rendering.failed()) {
+        resultHandler.handle(Future.failedFuture(rendering.cause()));
+        return;
+      }
+      if (this.groupCommitWindowMillis > 0) {
+        enqueueSave(new PendingSave(id, revision, markdown, rendering.result(), resultHandler));
+      } else {
+        saveNow(id, revision, markdown, rendering.result(), resultHandler);
+      }
+    });
+    return this;
+  }
+
+  private void saveNow(int id, int revision, String markdown, RenderedMarkdown rendered, Handler<AsyncResult<Void>> resultHandler) {
+    long modified = System.currentTimeMillis();
+    inTransaction(connection -> fetchPageById(connection, id).compose(head -> {
+      if (head == null || head.getInteger(3) != revision) {
+        return Future.failedFuture(conflict(id, revision));
+      }
+      String name = head.getString(1);
+      JsonArray params = new JsonArray().add(this.storedContent.encode(markdown)).add(rendered.html).add(rendered.hash).add(modified).add(id).add(revision);
+      return update(connection, SqlQuery.SAVE_PAGE, params).compose(save -> save.getUpdated() == 0
+        ? Future.failedFuture(conflict(id, revision))
+        : historyRows(Collections.singletonList(replacedRevision(head, markdown)))
+        .compose(rows -> update(connection, SqlQuery.INSERT_REVISION, rows.get(0)))
+        .compose(v -> update(connection, SqlQuery.LOG_PAGE_CHANGE, new JsonArray().add(id)))
+        .compose(v -> replaceLinks(connection, Collections.singletonMap(name, LinkIndex.targets(name, rendered.html))))
+        .map(v -> name));
+    }), save -> {
       if (save.succeeded()) {
-        resultHandler.handle(Future.succeededFuture());
+        this.pageCache.pageSaved(id);
+        this.linkIndex.setLinks(save.result(), LinkIndex.targets(save.result(), rendered.html));
+        if (this.searchIndex.update(id, markdown)) {
+          resultHandler.handle(Future.succeededFuture());
+        } else {
+          reindexPage(id, v -> resultHandler.handle(Future.succeededFuture()));
+        }
       } else {
-        LOGGER.error("save page failed", save.cause());
+        if (!(save.cause() instanceof ServiceException)) {
+          LOGGER.error("save page failed", save.cause());
+        }
         resultHandler.handle(Future.failedFuture(save.cause()));
       }
     });
-    return this;
+  }
+
+  /**
+   * Queue a save for the next group commit, which happens once {@code wikidb.group_commit.max_saves} saves are queued
+   * or {@code wikidb.group_commit.window_ms} after the first one.
+   */
+  private void enqueueSave(PendingSave save) {
+    this.pendingSaves.add(save);
+    if (this.pendingSaves.size() >= this.groupCommitMaxSaves) {
+      commitPendingSaves();
+    } else if (this.groupCommitTimer == -1) {
+      // Service calls always run on the context of the verticle the service was registered by
+      this.groupCommitContext = Vertx.currentContext();
+      this.groupCommitTimer = this.groupCommitContext.owner().setTimer(this.groupCommitWindowMillis, timer -> {
+        this.groupCommitTimer = -1;
+        commitPendingSaves();
+      });
+    }
+  }
+
+  /**
+   * Commit the queued saves in a single transaction, one save per page: further saves of a page are held back, in the
+   * order they came in, and committed right after, each checked against the revision stored by the previous commit.
+   * Saves whose revision does not match fail with a {@link #CONFLICT} without failing the others.
+   * <p>
+   * Callers are answered once the transaction is committed. Should it fail, e.g. because another service instance saved
+   * one of the pages meanwhile, the saves are retried one at a time.
+   */
+  private void commitPendingSaves() {
+    if (this.groupCommitTimer != -1) {
+      this.groupCommitContext.owner().cancelTimer(this.groupCommitTimer);
+      this.groupCommitTimer = -1;
+    }
+    Map<Integer, PendingSave> batch = new LinkedHashMap<>();
+    List<PendingSave> deferred = new ArrayList<>();
+    for (PendingSave save : this.pendingSaves) {
+      if (batch.putIfAbsent(save.id, save) != null) {
+        deferred.add(save);
+      }
+    }
+    this.pendingSaves = new ArrayList<>();
+    this.groupCommitSaves.record(batch.size());
+    this.groupCommitDeferred.inc(deferred.size());
+    long modified = System.currentTimeMillis();
+    List<PendingSave> accepted = new ArrayList<>();
+    List<PendingSave> rejected = new ArrayList<>();
+    Map<String, Set<String>> links = new HashMap<>();
+    inTransaction(connection -> fetchPagesById(connection, new ArrayList<>(batch.keySet())).compose(heads -> {
+      List<JsonArray> saves = new ArrayList<>(heads.size());
+      List<ReplacedRevision> history = new ArrayList<>(heads.size());
+      List<JsonArray> changes = new ArrayList<>(heads.size());
+      Map<Integer, JsonArray> headsById = new HashMap<>();
+      heads.forEach(head -> headsById.put(head.getInteger(0), head));
+      batch.forEach((id, save) -> {
+        JsonArray head = headsById.get(id);
+        if (head == null || head.getInteger(3) != save.revision) {
+          rejected.add(save);
+          return;
+        }
+        String name = head.getString(1);
+        history.add(replacedRevision(head, save.markdown));
+        saves.add(new JsonArray().add(this.storedContent.encode(save.markdown)).add(save.rendered.html).add(save.rendered.hash)
+          .add(modified).add(id).add(save.revision));
+        changes.add(new JsonArray().add(id));
+        links.put(name, LinkIndex.targets(name, save.rendered.html));
+        accepted.add(save);
+      });
+      return batchUpdate(connection, SqlQuery.SAVE_PAGE, saves).compose(counts -> counts.contains(0)
+        ? Future.failedFuture(new ServiceException(CONFLICT, "Pages were changed while being saved"))
+        : historyRows(history).compose(rows -> batchUpdate(connection, SqlQuery.INSERT_REVISION, rows)))
+        .compose(v -> batchUpdate(connection, SqlQuery.LOG_PAGE_CHANGE, changes))
+        .compose(v -> replaceLinks(connection, links));
+    }), commit -> {
+      if (commit.failed()) {
+        LOGGER.warn("Group commit of {} save(s) failed, saving them one at a time: {}", batch.size(), commit.cause().getMessage());
+        List<PendingSave> retried = new ArrayList<>(batch.values());
+        retried.addAll(deferred);
+        saveOneAtATime(retried.iterator());
+        return;
+      }
+      links.forEach(this.linkIndex::setLinks);
+      rejected.forEach(save -> save.handler.handle(Future.failedFuture(conflict(save.id, save.revision))));
+      for (PendingSave save : accepted) {
+        this.pageCache.pageSaved(save.id);
+        if (this.searchIndex.update(save.id, save.markdown)) {
+          save.handler.handle(Future.succeededFuture());
+        } else {
+          reindexPage(save.id, v -> save.handler.handle(Future.succeededFuture()));
+        }
+      }
+      if (!deferred.isEmpty()) {
+        // Held back saves already waited a whole window, they go ahead of the saves queued meanwhile
+        deferred.addAll(this.pendingSaves);
+        this.pendingSaves = deferred;
+        commitPendingSaves();
+      }
+    });
+  }
+
+  private void saveOneAtATime(Iterator<PendingSave> saves) {
+    if (!saves.hasNext()) {
+      return;
+    }
+    PendingSave save = saves.next();
+    saveNow(save.id, save.revision, save.markdown, save.rendered, ar -> {
+      save.handler.handle(ar);
+      saveOneAtATime(saves);
+    });
+  }
+
+  private static ServiceException conflict(int id, int revision) {
+    return new ServiceException(CONFLICT, "Page " + id + " was changed or deleted since revision " + revision);
+  }
+
+  /**
+   * The revision {@code head} that {@code newContent} replaces.
+   *
+   * @param head a {@link SqlQuery#GET_PAGE_BY_ID} row
+   */
+  private ReplacedRevision replacedRevision(JsonArray head, String newContent) {
+    String oldContent = head.getString(2) == null ? "" : this.storedContent.decode(head.getString(2));
+    return new ReplacedRevision(head.getInteger(0), head.getInteger(3), head.getLong(4), oldContent, newContent);
+  }
+
+  /**
+   * The history rows of replaced revisions. Deltas are diffs costing up to the product of the content sizes, they are
+   * computed on a worker thread rather than on the event loop.
+   */
+  private static Future<List<JsonArray>> historyRows(List<ReplacedRevision> replaced) {
+    Future<List<JsonArray>> future = Future.future();
+    Vertx.currentContext().<List<JsonArray>>executeBlocking(rows -> {
+      List<JsonArray> history = new ArrayList<>(replaced.size());
+      for (ReplacedRevision revision : replaced) {
+        JsonArray row = new JsonArray().add(revision.id).add(revision.revision);
+        if (revision.modified != null) {
+          row.add(revision.modified);
+        } else {
+          row.addNull();
+        }
+        history.add(row.add(RevisionDelta.encode(revision.newContent, revision.oldContent)));
+      }
+      rows.complete(history);
+    }, false, future.completer());
+    return future;
+  }
+
+  private Future<JsonArray> fetchPageById(SQLConnection connection, int id) {
+    Future<ResultSet> fetch = Future.future();
+    connection.queryWithParams(this.sqlQueries.get(SqlQuery.GET_PAGE_BY_ID), new JsonArray().add(id), timed(SqlQuery.GET_PAGE_BY_ID, fetch.completer()));
+    return fetch.map(rs -> rs.getResults().isEmpty() ? null : rs.getResults().get(0));
+  }
+
+  private Future<UpdateResult> update(SQLConnection connection, SqlQuery query, JsonArray params) {
+    Future<UpdateResult> future = Future.future();
+    connection.updateWithParams(this.sqlQueries.get(query), params, timed(query, future.completer()));
+    return future;
   }
 
   @Override
   public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
     JsonArray params = new JsonArray().add(id);
-    this.jdbcClient.updateWithParams(this.sqlQueries.get(SqlQuery.DELETE_PAGE), params, delete -> {
+    // The change is logged first, while the page name can still be looked up
+    inTransaction(connection -> fetchPageNames(connection, Collections.singletonList(id)).compose(names -> update(connection, SqlQuery.LOG_PAGE_CHANGE, params)
+      .compose(v -> batchUpdate(connection, SqlQuery.DELETE_LINKS, names.stream().map(name -> new JsonArray().add(name)).collect(Collectors.toList())))
+      .compose(v -> update(connection, SqlQuery.DELETE_PAGE_REVISIONS, params))
+      .compose(v -> update(connection, SqlQuery.DELETE_PAGE, params))
+      .map(v -> names)), delete -> {
       if (delete.succeeded()) {
+        this.pageCache.pageDeleted(id);
+        this.searchIndex.remove(id);
+        delete.result().forEach(this.linkIndex::pageDeleted);
         resultHandler.handle(Future.succeededFuture());
       } else {
         LOGGER.error("delete page failed", delete.cause());
@@ -125,15 +771,551 @@ public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 
   @Override
   public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler) {
-    this.jdbcClient.query(this.sqlQueries.get(SqlQuery.ALL_PAGES_DATA), fetch -> {
+    this.jdbcClient.query(this.sqlQueries.get(SqlQuery.ALL_PAGES_DATA), timed(SqlQuery.ALL_PAGES_DATA, fetch -> {
       if (fetch.succeeded()) {
         List<JsonObject> rows = fetch.result().getRows();
+        rows.forEach(row -> row.put("CONTENT", this.storedContent.decode(row.getString("CONTENT"))));
         resultHandler.handle(Future.succeededFuture(rows));
       } else {
         LOGGER.error("fetch all pages data failed", fetch.cause());
         resultHandler.handle(Future.failedFuture(fetch.cause()));
       }
+    }));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+    JsonArray params = new JsonArray().add(afterId).add(limit);
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.EXPORT_PAGES), params, timed(SqlQuery.EXPORT_PAGES, fetch -> {
+      if (fetch.succeeded()) {
+        List<JsonObject> pages = fetch.result().getResults().stream()
+          .map(row -> new JsonObject()
+            .put("id", row.getInteger(0))
+            .put("name", row.getString(1))
+            .put("content", this.storedContent.decode(row.getString(2)))
+            .put("revision", row.getInteger(3))
+            .put("modified", row.getLong(4)))
+          .collect(Collectors.toList());
+        resultHandler.handle(Future.succeededFuture(pages));
+      } else {
+        LOGGER.error("export pages failed", fetch.cause());
+        resultHandler.handle(Future.failedFuture(fetch.cause()));
+      }
+    }));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+    long start = System.nanoTime();
+    JsonArray results = this.searchIndex.search(query, limit);
+    resultHandler.handle(Future.succeededFuture(new JsonObject()
+      .put("query", query)
+      .put("results", results)
+      .put("tookMicros", (System.nanoTime() - start) / 1000)));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchSearchIndexStats(Handler<AsyncResult<JsonObject>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.searchIndex.stats()));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+    long modified = System.currentTimeMillis();
+    List<String> markdowns = pages.stream().map(page -> page.getString("content")).collect(Collectors.toList());
+    renderAll(markdowns, rendering -> {
+      if (rendering.failed()) {
+        resultHandler.handle(Future.failedFuture(rendering.cause()));
+        return;
+      }
+      Map<String, String> contents = new HashMap<>();
+      Map<String, Set<String>> links = new HashMap<>();
+      List<JsonArray> params = new ArrayList<>(pages.size());
+      for (int i = 0; i < pages.size(); i++) {
+        JsonObject page = pages.get(i);
+        RenderedMarkdown rendered = rendering.result().get(i);
+        contents.put(page.getString("name"), page.getString("content"));
+        links.put(page.getString("name"), LinkIndex.targets(page.getString("name"), rendered.html));
+        params.add(new JsonArray().add(page.getString("name")).add(this.storedContent.encode(page.getString("content"))).add(modified).add(rendered.html).add(rendered.hash));
+      }
+      inTransaction(connection -> {
+        Future<ResultSet> maxId = Future.future();
+        connection.query(this.sqlQueries.get(SqlQuery.MAX_PAGE_ID), timed(SqlQuery.MAX_PAGE_ID, maxId.completer()));
+        List<JsonArray> names = contents.keySet().stream().map(name -> new JsonArray().add(name)).collect(Collectors.toList());
+        return maxId.compose(max -> batchUpdate(connection, SqlQuery.CREATE_PAGE, params)
+          .compose(v -> batchUpdate(connection, SqlQuery.LOG_PAGE_CREATION, names))
+          .compose(v -> replaceLinks(connection, links)).compose(v -> {
+          // Ids are increasing, so the rows past the previous maximum are the pages we just created
+          Future<ResultSet> created = Future.future();
+          connection.queryWithParams(this.sqlQueries.get(SqlQuery.PAGES_AFTER_ID),
+            new JsonArray().add(max.getResults().get(0).getInteger(0)), timed(SqlQuery.PAGES_AFTER_ID, created.completer()));
+          return created;
+        }));
+      }, ar -> {
+        if (ar.succeeded()) {
+          this.pageCache.pagesCreated(contents.keySet());
+          contents.keySet().forEach(this.linkIndex::pageCreated);
+          links.forEach(this.linkIndex::setLinks);
+          for (JsonArray row : ar.result().getResults()) {
+            String content = contents.get(row.getString(1));
+            if (content != null) {
+              this.searchIndex.index(row.getInteger(0), row.getString(1), row.getInteger(2), content);
+            }
+          }
+          resultHandler.handle(Future.succeededFuture());
+        } else {
+          LOGGER.error("create pages failed", ar.cause());
+          resultHandler.handle(Future.failedFuture(ar.cause()));
+        }
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+    long modified = System.currentTimeMillis();
+    List<String> markdowns = pages.stream().map(page -> page.getString("content")).collect(Collectors.toList());
+    renderAll(markdowns, rendering -> {
+      if (rendering.failed()) {
+        resultHandler.handle(Future.failedFuture(rendering.cause()));
+        return;
+      }
+      Map<Integer, String> contents = new HashMap<>();
+      Map<Integer, RenderedMarkdown> renderings = new HashMap<>();
+      for (int i = 0; i < pages.size(); i++) {
+        contents.put(pages.get(i).getInteger("id"), pages.get(i).getString("content"));
+        renderings.put(pages.get(i).getInteger("id"), rendering.result().get(i));
+      }
+      Map<String, Set<String>> links = new HashMap<>();
+      inTransaction(connection -> fetchPagesById(connection, new ArrayList<>(contents.keySet())).compose(heads -> {
+        // Pages that no longer exist are skipped, the others are saved over whatever revision they are at
+        List<JsonArray> saves = new ArrayList<>(heads.size());
+        List<ReplacedRevision> replaced = new ArrayList<>(heads.size());
+        List<JsonArray> changes = new ArrayList<>(heads.size());
+        for (JsonArray head : heads) {
+          int id = head.getInteger(0);
+          RenderedMarkdown rendered = renderings.get(id);
+          saves.add(new JsonArray().add(this.storedContent.encode(contents.get(id))).add(rendered.html).add(rendered.hash).add(modified).add(id).add(head.getInteger(3)));
+          replaced.add(replacedRevision(head, contents.get(id)));
+          changes.add(new JsonArray().add(id));
+          links.put(head.getString(1), LinkIndex.targets(head.getString(1), rendered.html));
+        }
+        return batchUpdate(connection, SqlQuery.SAVE_PAGE, saves).compose(counts -> counts.contains(0)
+          ? Future.failedFuture(new ServiceException(CONFLICT, "Pages were changed while being saved"))
+          : historyRows(replaced).compose(rows -> batchUpdate(connection, SqlQuery.INSERT_REVISION, rows))
+          .compose(v -> batchUpdate(connection, SqlQuery.LOG_PAGE_CHANGE, changes))
+          .compose(v -> replaceLinks(connection, links)));
+      }), ar -> {
+        if (ar.succeeded()) {
+          links.forEach(this.linkIndex::setLinks);
+          List<Integer> unindexed = new ArrayList<>();
+          for (JsonObject page : pages) {
+            this.pageCache.pageSaved(page.getInteger("id"));
+            if (!this.searchIndex.update(page.getInteger("id"), page.getString("content"))) {
+              unindexed.add(page.getInteger("id"));
+            }
+          }
+          reindexPages(unindexed.iterator(), v -> resultHandler.handle(Future.succeededFuture()));
+        } else {
+          LOGGER.error("save pages failed", ar.cause());
+          resultHandler.handle(Future.failedFuture(ar.cause()));
+        }
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService deletePages(List<Integer> ids, Handler<AsyncResult<Void>> resultHandler) {
+    List<JsonArray> params = ids.stream().map(id -> new JsonArray().add(id)).collect(Collectors.toList());
+    inTransaction(connection -> fetchPageNames(connection, ids).compose(names -> batchUpdate(connection, SqlQuery.LOG_PAGE_CHANGE, params)
+      .compose(v -> batchUpdate(connection, SqlQuery.DELETE_LINKS, names.stream().map(name -> new JsonArray().add(name)).collect(Collectors.toList())))
+      .compose(v -> batchUpdate(connection, SqlQuery.DELETE_PAGE_REVISIONS, params))
+      .compose(v -> batchUpdate(connection, SqlQuery.DELETE_PAGE, params))
+      .map(v -> names)), ar -> {
+      if (ar.succeeded()) {
+        ids.forEach(id -> {
+          this.pageCache.pageDeleted(id);
+          this.searchIndex.remove(id);
+        });
+        ar.result().forEach(this.linkIndex::pageDeleted);
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        LOGGER.error("delete pages failed", ar.cause());
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      }
     });
     return this;
   }
+
+  @Override
+  public WikiDatabaseService fetchPageChanges(long afterSeq, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+    JsonArray params = new JsonArray().add(afterSeq).add(limit);
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.PAGE_CHANGES), params, timed(SqlQuery.PAGE_CHANGES, fetch -> {
+      if (fetch.succeeded()) {
+        List<JsonObject> changes = fetch.result().getResults().stream().map(row -> {
+          JsonObject change = new JsonObject().put("seq", row.getLong(0)).put("name", row.getString(1));
+          if (row.getValue(2) == null) {
+            return change.put("deleted", true);
+          }
+          return change
+            .put("deleted", false)
+            .put("id", row.getInteger(2))
+            .put("content", this.storedContent.decode(row.getString(3)))
+            .put("revision", row.getInteger(4))
+            .put("modified", row.getLong(5));
+        }).collect(Collectors.toList());
+        resultHandler.handle(Future.succeededFuture(changes));
+      } else {
+        LOGGER.error("fetch page changes failed", fetch.cause());
+        resultHandler.handle(Future.failedFuture(fetch.cause()));
+      }
+    }));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchLastPageChange(Handler<AsyncResult<Long>> resultHandler) {
+    this.jdbcClient.query(this.sqlQueries.get(SqlQuery.LAST_PAGE_CHANGE), timed(SqlQuery.LAST_PAGE_CHANGE, fetch -> {
+      if (fetch.succeeded()) {
+        resultHandler.handle(Future.succeededFuture(fetch.result().getResults().get(0).getLong(0)));
+      } else {
+        LOGGER.error("fetch last page change failed", fetch.cause());
+        resultHandler.handle(Future.failedFuture(fetch.cause()));
+      }
+    }));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService prunePageChanges(long upToSeq, Handler<AsyncResult<Void>> resultHandler) {
+    this.jdbcClient.updateWithParams(this.sqlQueries.get(SqlQuery.PRUNE_PAGE_CHANGES), new JsonArray().add(upToSeq), timed(SqlQuery.PRUNE_PAGE_CHANGES, prune -> {
+      if (prune.succeeded()) {
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        LOGGER.error("prune page changes failed", prune.cause());
+        resultHandler.handle(Future.failedFuture(prune.cause()));
+      }
+    }));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchBacklinks(String name, Handler<AsyncResult<JsonArray>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.linkIndex.backlinks(name)));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchMissingPages(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.linkIndex.missingPages(afterName, limit)));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchLinkIndexStats(Handler<AsyncResult<JsonObject>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(this.linkIndex.stats()));
+    return this;
+  }
+
+  /**
+   * Record the execution time of a query, connection checkout included, and the number of rows it returned or updated.
+   */
+  private <T> Handler<AsyncResult<T>> timed(SqlQuery query, Handler<AsyncResult<T>> handler) {
+    QueryMetrics metrics = this.queryMetrics.get(query);
+    long start = System.nanoTime();
+    return ar -> {
+      metrics.seconds.record(System.nanoTime() - start);
+      if (ar.failed()) {
+        metrics.errors.inc();
+      } else if (ar.result() instanceof ResultSet) {
+        metrics.rows.record(((ResultSet) ar.result()).getNumRows());
+      } else if (ar.result() instanceof UpdateResult) {
+        metrics.rows.record(((UpdateResult) ar.result()).getUpdated());
+      } else if (ar.result() instanceof List) {
+        // Batches report one update count per statement
+        metrics.rows.record(((List<?>) ar.result()).size());
+      }
+      handler.handle(ar);
+    };
+  }
+
+  /**
+   * Run some work on a single connection in a transaction that is committed when the work succeeds and rolled back
+   * otherwise.
+   */
+  private <T> void inTransaction(Function<SQLConnection, Future<T>> work, Handler<AsyncResult<T>> resultHandler) {
+    this.jdbcClient.getConnection(ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+        return;
+      }
+      SQLConnection connection = ar.result();
+      Future<Void> begin = Future.future();
+      connection.setAutoCommit(false, begin.completer());
+      begin.compose(v -> work.apply(connection)).compose(result -> {
+        Future<T> commit = Future.future();
+        connection.commit(done -> commit.handle(done.map(result)));
+        return commit;
+      }).setHandler(result -> {
+        if (result.succeeded()) {
+          release(connection);
+          resultHandler.handle(result);
+        } else {
+          connection.rollback(rollback -> {
+            release(connection);
+            resultHandler.handle(result);
+          });
+        }
+      });
+    });
+  }
+
+  private void release(SQLConnection connection) {
+    // Hand the connection back to the pool in auto-commit mode as other callers expect
+    connection.setAutoCommit(true, v -> connection.close());
+  }
+
+  /**
+   * Execute an update for each parameter set, sending at most {@code batchSize} of them per JDBC batch.
+   */
+  private Future<List<Integer>> batchUpdate(SQLConnection connection, SqlQuery query, List<JsonArray> params) {
+    Future<List<Integer>> future = Future.succeededFuture(new ArrayList<>(params.size()));
+    for (int from = 0; from < params.size(); from += batchSize) {
+      List<JsonArray> batch = params.subList(from, Math.min(from + batchSize, params.size()));
+      future = future.compose(counts -> {
+        Future<List<Integer>> executed = Future.future();
+        connection.batchWithParams(this.sqlQueries.get(query), batch, timed(query, executed.completer()));
+        return executed.map(batchCounts -> {
+          counts.addAll(batchCounts);
+          return counts;
+        });
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Fetch {@link SqlQuery#GET_PAGE_BY_ID} rows one at a time on a connection, skipping pages that do not exist.
+   */
+  private Future<List<JsonArray>> fetchPagesById(SQLConnection connection, List<Integer> ids) {
+    Future<List<JsonArray>> future = Future.succeededFuture(new ArrayList<>(ids.size()));
+    for (int id : ids) {
+      future = future.compose(rows -> fetchPageById(connection, id).map(row -> {
+        if (row != null) {
+          rows.add(row);
+        }
+        return rows;
+      }));
+    }
+    return future;
+  }
+
+  /**
+   * Fetch page names one at a time on a connection, skipping pages that do not exist.
+   */
+  private Future<List<String>> fetchPageNames(SQLConnection connection, List<Integer> ids) {
+    Future<List<String>> future = Future.succeededFuture(new ArrayList<>(ids.size()));
+    for (int id : ids) {
+      future = future.compose(names -> {
+        Future<ResultSet> fetch = Future.future();
+        connection.queryWithParams(this.sqlQueries.get(SqlQuery.PAGE_NAME), new JsonArray().add(id), timed(SqlQuery.PAGE_NAME, fetch.completer()));
+        return fetch.map(rs -> {
+          rs.getResults().forEach(row -> names.add(row.getString(0)));
+          return names;
+        });
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Replace the links from pages in the {@code Links} table.
+   *
+   * @param links the names of the pages linked to by page name
+   */
+  private Future<Void> replaceLinks(SQLConnection connection, Map<String, Set<String>> links) {
+    List<JsonArray> sources = new ArrayList<>(links.size());
+    List<JsonArray> rows = new ArrayList<>();
+    links.forEach((source, targets) -> {
+      sources.add(new JsonArray().add(source));
+      targets.forEach(target -> rows.add(new JsonArray().add(source).add(target)));
+    });
+    return batchUpdate(connection, SqlQuery.DELETE_LINKS, sources)
+      .compose(v -> batchUpdate(connection, SqlQuery.INSERT_LINK, rows))
+      .map(v -> null);
+  }
+
+  /**
+   * Bring the search index in line with the database: pages that are gone are dropped, and pages that are new or whose
+   * revision differs from the indexed one are (re-)indexed. With an empty index this is a full build.
+   */
+  private Future<Void> prepareSearchIndex() {
+    long start = System.currentTimeMillis();
+    Future<Void> future = Future.future();
+    this.jdbcClient.query(this.sqlQueries.get(SqlQuery.PAGE_REVISIONS), timed(SqlQuery.PAGE_REVISIONS, fetch -> {
+      if (fetch.failed()) {
+        future.fail(fetch.cause());
+        return;
+      }
+      Set<Integer> removed = this.searchIndex.pageIds();
+      Set<Integer> stale = new HashSet<>();
+      for (JsonArray row : fetch.result().getResults()) {
+        int id = row.getInteger(0);
+        removed.remove(id);
+        if (!row.getInteger(1).equals(this.searchIndex.revisionOf(id))) {
+          stale.add(id);
+        }
+      }
+      removed.forEach(this.searchIndex::remove);
+
+      Future<Void> indexing = Future.future();
+      if (stale.size() <= SEARCH_INDEX_BATCH_SIZE) {
+        indexPages(new ArrayList<>(stale).iterator(), indexing);
+      } else {
+        indexAllPages(stale, -1, indexing);
+      }
+      indexing.setHandler(ar -> {
+        if (ar.succeeded()) {
+          long took = System.currentTimeMillis() - start;
+          this.searchIndex.setBuildTimeMillis(took);
+          LOGGER.info("Search index ready in {}ms, {} page(s) indexed, {} removed: {}", took, stale.size(), removed.size(), this.searchIndex.stats().encode());
+        }
+        future.handle(ar);
+      });
+    }));
+    return future;
+  }
+
+  private void indexPages(Iterator<Integer> ids, Future<Void> done) {
+    if (!ids.hasNext()) {
+      done.complete();
+      return;
+    }
+    fetchAndIndexPage(ids.next(), ar -> {
+      if (ar.failed()) {
+        done.fail(ar.cause());
+      } else {
+        indexPages(ids, done);
+      }
+    });
+  }
+
+  private void indexAllPages(Set<Integer> stale, int afterId, Future<Void> done) {
+    exportPages(afterId, SEARCH_INDEX_BATCH_SIZE, ar -> {
+      if (ar.failed()) {
+        done.fail(ar.cause());
+        return;
+      }
+      List<JsonObject> pages = ar.result();
+      for (JsonObject page : pages) {
+        if (stale.contains(page.getInteger("id"))) {
+          this.searchIndex.index(page.getInteger("id"), page.getString("name"), page.getInteger("revision"), page.getString("content"));
+        }
+      }
+      if (pages.size() < SEARCH_INDEX_BATCH_SIZE) {
+        done.complete();
+      } else {
+        indexAllPages(stale, pages.get(pages.size() - 1).getInteger("id"), done);
+      }
+    });
+  }
+
+  private void indexNewPage(String name, String markdown, Handler<Void> done) {
+    // Generated keys are not reliably returned by the driver, look the id up by name instead
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(name), timed(SqlQuery.GET_PAGE, fetch -> {
+      if (fetch.succeeded() && fetch.result().getNumRows() > 0) {
+        JsonArray row = fetch.result().getResults().get(0);
+        this.searchIndex.index(row.getInteger(0), name, row.getInteger(2), markdown);
+      } else if (fetch.failed()) {
+        LOGGER.warn("Could not index new page " + name, fetch.cause());
+      }
+      done.handle(null);
+    }));
+  }
+
+  private void reindexPages(Iterator<Integer> ids, Handler<Void> done) {
+    if (!ids.hasNext()) {
+      done.handle(null);
+      return;
+    }
+    reindexPage(ids.next(), v -> reindexPages(ids, done));
+  }
+
+  private void reindexPage(int id, Handler<Void> done) {
+    fetchAndIndexPage(id, ar -> {
+      if (ar.failed()) {
+        // The index catches up on the next restart since the indexed revision will be behind
+        LOGGER.warn("Could not re-index page " + id, ar.cause());
+      }
+      done.handle(null);
+    });
+  }
+
+  private void fetchAndIndexPage(int id, Handler<AsyncResult<Void>> handler) {
+    this.jdbcClient.queryWithParams(this.sqlQueries.get(SqlQuery.GET_PAGE_BY_ID), new JsonArray().add(id), timed(SqlQuery.GET_PAGE_BY_ID, fetch -> {
+      if (fetch.failed()) {
+        handler.handle(Future.failedFuture(fetch.cause()));
+        return;
+      }
+      List<JsonArray> rows = fetch.result().getResults();
+      if (rows.isEmpty()) {
+        this.searchIndex.remove(id);
+      } else {
+        JsonArray row = rows.get(0);
+        this.searchIndex.index(row.getInteger(0), row.getString(1), row.getInteger(3), this.storedContent.decode(row.getString(2)));
+      }
+      handler.handle(Future.succeededFuture());
+    }));
+  }
+
+  private static final class PendingSave {
+    private final int id;
+    private final int revision;
+    private final String markdown;
+    private final RenderedMarkdown rendered;
+    private final Handler<AsyncResult<Void>> handler;
+
+    private PendingSave(int id, int revision, String markdown, RenderedMarkdown rendered, Handler<AsyncResult<Void>> handler) {
+      this.id = id;
+      this.revision = revision;
+      this.markdown = markdown;
+      this.rendered = rendered;
+      this.handler = handler;
+    }
+  }
+
+  private static final class ReplacedRevision {
+    private final int id;
+    private final int revision;
+    private final Long modified;
+    private final String oldContent;
+    private final String newContent;
+
+    private ReplacedRevision(int id, int revision, Long modified, String oldContent, String newContent) {
+      this.id = id;
+      this.revision = revision;
+      this.modified = modified;
+      this.oldContent = oldContent;
+      this.newContent = newContent;
+    }
+  }
+
+  private static final class QueryMetrics {
+    private final MetricsRegistry.Histogram seconds;
+    private final MetricsRegistry.Histogram rows;
+    private final MetricsRegistry.Counter errors;
+
+    private QueryMetrics(MetricsRegistry metrics, SqlQuery query) {
+      String name = query.name().toLowerCase();
+      this.seconds = metrics.timer("wikidb_sql_seconds", "SQL execution time, connection checkout included", "query", name);
+      this.rows = metrics.histogram("wikidb_sql_rows", "Rows returned or updated by SQL statements", MetricsRegistry.ROWS_BUCKETS, "query", name);
+      this.errors = metrics.counter("wikidb_sql_errors_total", "Failed SQL statements", "query", name);
+    }
+  }
 }
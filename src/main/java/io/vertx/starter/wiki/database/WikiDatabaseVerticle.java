@@ -1,48 +1,104 @@
 package io.vertx.starter.wiki.database;
 
+import com.mchange.v2.c3p0.C3P0Registry;
+import com.mchange.v2.c3p0.PooledDataSource;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.SendContext;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Properties;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class WikiDatabaseVerticle extends AbstractVerticle {
 
   public static final String CONFIG_WIKIDB_JDBC_URL = "wikidb.jdbc.url";
   public static final String CONFIG_WIKIDB_JDBC_DRIVER_CLASS = "wikidb.jdbc.driver_class";
   public static final String CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE = "wikidb.jdbc.max_pool_size";
+  public static final String CONFIG_WIKIDB_JDBC_MAX_STATEMENTS_PER_CONNECTION = "wikidb.jdbc.max_statements_per_connection";
+  public static final String CONFIG_WIKIDB_SQL_DIALECT = "wikidb.sql.dialect";
   public static final String CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE = "wikidb.sqlqueries.resource.file";
+  public static final String CONFIG_WIKIDB_SEARCH_INDEX_FILE = "wikidb.search.index_file";
+  public static final String CONFIG_WIKIDB_BATCH_SIZE = "wikidb.batch.size";
+  public static final String CONFIG_WIKIDB_INSTANCES = "wikidb.instances";
+  public static final String CONFIG_WIKIDB_CACHE_MAX_ENTRIES = "wikidb.cache.max_entries";
+  public static final String CONFIG_WIKIDB_CACHE_TTL_MILLIS = "wikidb.cache.ttl_ms";
+  public static final String CONFIG_WIKIDB_COMPRESSION_ENABLED = "wikidb.compression.enabled";
+  public static final String CONFIG_WIKIDB_COMPRESSION_THRESHOLD = "wikidb.compression.threshold";
+  public static final String CONFIG_WIKIDB_GROUP_COMMIT_ENABLED = "wikidb.group_commit.enabled";
+  public static final String CONFIG_WIKIDB_GROUP_COMMIT_WINDOW_MILLIS = "wikidb.group_commit.window_ms";
+  public static final String CONFIG_WIKIDB_GROUP_COMMIT_MAX_SAVES = "wikidb.group_commit.max_saves";
+  public static final String CONFIG_WIKIDB_BACKEND = "wikidb.backend";
+  public static final String CONFIG_WIKIDB_LOG_FILE = "wikidb.log.file";
+  public static final String CONFIG_WIKIDB_LOG_SYNC = "wikidb.log.sync";
+  public static final String CONFIG_WIKIDB_LOG_COMPACTION_INTERVAL_MILLIS = "wikidb.log.compaction_interval_ms";
+  public static final String CONFIG_WIKIDB_LOG_COMPACTION_RATIO = "wikidb.log.compaction_ratio";
+
+  public static final String BACKEND_JDBC = "jdbc";
+  public static final String BACKEND_LOG = "log";
 
   public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
 
   private static final Logger LOGGER = LoggerFactory.getLogger(WikiDatabaseVerticle.class);
 
+  private static final String SENT_HEADER = "x-sent-nanos";
+
+  private static final String SHARED_MAP_NAME = "wiki.database";
+  private static final String SHARED_MAP_KEY = "state";
+  private static final String INIT_LOCK = "wiki.database.init";
+
+  private SharedState shared;
+
+  private SearchIndex searchIndex;
+
+  private Handler<SendContext> sendInterceptor;
+
+  private MetricsRegistry metrics;
+  private final Map<String, MetricsRegistry.Histogram> queueWaitTimers = new ConcurrentHashMap<>();
 
   @Override
   public void start(Future<Void> startFuture) throws Exception {
-    HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
+    metrics = MetricsRegistry.shared(vertx);
+    shared = SharedState.of(vertx, config());
+    searchIndex = shared.searchIndex;
 
-    JsonObject jdbcConfig = new JsonObject();
-    jdbcConfig.put("url", config().getString(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:db/wiki"))
-      .put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
-      .put("max_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30));
-
-    JDBCClient jdbcClient = JDBCClient.createShared(vertx, jdbcConfig);
+    WikiDatabaseService service;
+    Supplier<Future<Void>> preparation;
+    if (BACKEND_LOG.equals(config().getString(CONFIG_WIKIDB_BACKEND, BACKEND_JDBC))) {
+      LogWikiDatabaseService logService = new LogWikiDatabaseService(vertx, shared.logStore, searchIndex, shared.linkIndex,
+        new MarkdownRenderer(vertx, config(), metrics));
+      service = logService;
+      preparation = () -> prepareLog(logService);
+    } else {
+      WikiDatabaseServiceImpl jdbcService = createJdbcService();
+      service = jdbcService;
+      preparation = () -> prepareJdbc(jdbcService);
+    }
 
-    WikiDatabaseService.create(jdbcClient, sqlQueries, result -> {
+    prepareOnce(preparation).setHandler(result -> {
       if (result.succeeded()) {
-        WikiDatabaseService service = result.result();
+        shared.instances.incrementAndGet();
         ServiceBinder serviceBinder = new ServiceBinder(vertx);
         serviceBinder.setAddress(CONFIG_WIKIDB_QUEUE);
+        addQueueWaitMetrics(serviceBinder);
+        // Every instance consumes from the same address, the event bus spreads requests among them
         serviceBinder.register(WikiDatabaseService.class, service);
+        LocalDelivery.register(vertx, CONFIG_WIKIDB_QUEUE, service, this::recordQueueWait);
         startFuture.complete();
       } else {
         startFuture.fail(result.cause());
@@ -50,30 +106,228 @@ public class WikiDatabaseVerticle extends AbstractVerticle {
     });
   }
 
-  private HashMap<SqlQuery, String> loadSqlQueries() throws IOException {
-    HashMap<SqlQuery, String> sqlQueries = new HashMap<>();
-    String queriesFile = config().getString(CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE);
-    InputStream queriesInputStream;
+  private WikiDatabaseServiceImpl createJdbcService() throws IOException {
+    SqlQueries sqlQueries = SqlQueries.load(config().getString(CONFIG_WIKIDB_SQL_DIALECT), config().getString(CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE));
 
-    if (queriesFile != null) {
-      queriesInputStream = new FileInputStream(queriesFile);
-    } else {
-      queriesInputStream = getClass().getResourceAsStream("/db-queries.properties");
+    JsonObject jdbcConfig = new JsonObject();
+    jdbcConfig.put("url", config().getString(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:db/wiki"))
+      .put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
+      .put("max_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30))
+      // Every query goes through a prepared statement, c3p0 keeps them open per pooled connection so that each is only
+      // parsed and planned once per connection
+      .put("max_statements_per_connection", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_STATEMENTS_PER_CONNECTION, sqlQueries.size()));
+
+    JDBCClient jdbcClient = JDBCClient.createShared(vertx, jdbcConfig);
+
+    registerPoolGauges(metrics, jdbcConfig.getInteger("max_pool_size"));
+    registerCacheGauges(metrics, shared.pageCache);
+    return new WikiDatabaseServiceImpl(jdbcClient, sqlQueries, searchIndex, shared.linkIndex, shared.pageCache,
+      new MarkdownRenderer(vertx, config(), metrics), metrics, config());
+  }
+
+  /**
+   * Instances of this verticle share the JDBC pool and the search and link indexes, so the schema and the indexes only
+   * need to be prepared by the first one to start. Others wait on a lock until it is done rather than racing on the DDL.
+   */
+  private Future<Void> prepareOnce(Supplier<Future<Void>> preparation) {
+    Future<Void> future = Future.future();
+    vertx.sharedData().getLock(INIT_LOCK, lock -> {
+      if (lock.failed()) {
+        future.fail(lock.cause());
+        return;
+      }
+      if (shared.prepared) {
+        lock.result().release();
+        future.complete();
+        return;
+      }
+      loadSearchIndex().compose(v -> preparation.get()).setHandler(ar -> {
+        if (ar.succeeded()) {
+          shared.prepared = true;
+        }
+        lock.result().release();
+        future.handle(ar);
+      });
+    });
+    return future;
+  }
+
+  private Future<Void> prepareJdbc(WikiDatabaseServiceImpl service) {
+    return service.prepare().map(v -> {
+      // Pages saved before rendered HTML was stored are rendered in the background, reads fall back to rendering them on
+      // the fly meanwhile
+      service.backfillRenderedHtml().setHandler(backfill -> {
+        if (backfill.succeeded()) {
+          if (backfill.result() > 0) {
+            LOGGER.info("Stored rendered HTML for {} page(s)", backfill.result());
+          }
+        } else {
+          LOGGER.warn("Could not store rendered HTML for all pages", backfill.cause());
+        }
+      });
+      return null;
+    });
+  }
+
+  /**
+   * Open the page log and check periodically whether it needs compacting. The timer belongs to the instance that
+   * prepared the log, so only that one compacts it.
+   */
+  private Future<Void> prepareLog(LogWikiDatabaseService service) {
+    return service.prepare().map(v -> {
+      LogStore store = shared.logStore;
+      metrics.gauge("wikidb_log_bytes", "Size of the page log", store::size);
+      metrics.gauge("wikidb_log_garbage_bytes", "Bytes of the page log taken by replaced or deleted pages", store::garbageBytes);
+      double ratio = config().getDouble(CONFIG_WIKIDB_LOG_COMPACTION_RATIO, 0.5);
+      vertx.setPeriodic(config().getLong(CONFIG_WIKIDB_LOG_COMPACTION_INTERVAL_MILLIS, 600_000L), id -> service.compactIfNeeded(ratio));
+      return null;
+    });
+  }
+
+  @Override
+  public void stop(Future<Void> stopFuture) {
+    if (sendInterceptor != null) {
+      vertx.eventBus().removeInterceptor(sendInterceptor);
+    }
+    String indexFile = config().getString(CONFIG_WIKIDB_SEARCH_INDEX_FILE);
+    // The shared index is saved and the page log closed once, by the last instance to stop
+    if (shared == null || shared.instances.decrementAndGet() > 0) {
+      stopFuture.complete();
+      return;
+    }
+    vertx.<Void>executeBlocking(future -> {
+      if (shared.logStore != null) {
+        try {
+          shared.logStore.close();
+        } catch (IOException e) {
+          LOGGER.warn("Could not close the page log", e);
+        }
+      }
+      try {
+        if (indexFile != null) {
+          searchIndex.save(new File(indexFile));
+        }
+        future.complete();
+      } catch (IOException e) {
+        future.fail(e);
+      }
+    }, ar -> {
+      if (ar.failed()) {
+        // Not fatal, the index is rebuilt from the database on next start
+        LOGGER.warn("Could not save the search index to " + indexFile, ar.cause());
+      }
+      stopFuture.complete();
+    });
+  }
+
+  /**
+   * Time requests from being sent to {@link #CONFIG_WIKIDB_QUEUE} until the service starts handling them, which is the
+   * time they spend queued behind other requests. Senders stamp messages with {@link System#nanoTime()}, so the
+   * measure is only meaningful for senders in the same JVM.
+   */
+  private void addQueueWaitMetrics(ServiceBinder serviceBinder) {
+    sendInterceptor = context -> {
+      Message<?> message = context.message();
+      if (CONFIG_WIKIDB_QUEUE.equals(message.address()) && message.headers().contains("action") && !message.headers().contains(SENT_HEADER)) {
+        message.headers().add(SENT_HEADER, String.valueOf(System.nanoTime()));
+      }
+      context.next();
+    };
+    vertx.eventBus().addInterceptor(sendInterceptor);
+    serviceBinder.addInterceptor(message -> {
+      String sent = message.headers().get(SENT_HEADER);
+      if (sent != null) {
+        recordQueueWait(message.headers().get("action"), System.nanoTime() - Long.parseLong(sent));
+      }
+      return Future.succeededFuture(message);
+    });
+  }
+
+  private void recordQueueWait(String action, long nanos) {
+    queueWaitTimers.computeIfAbsent(action, name -> metrics.timer("wikidb_queue_wait_seconds",
+      "Time from a request being sent to the database service until it is handled", "action", name)).record(nanos);
+  }
+
+  /**
+   * Expose the utilization of the c3p0 pools behind the JDBC clients of this JVM.
+   */
+  private static void registerPoolGauges(MetricsRegistry metrics, int maxPoolSize) {
+    metrics.gauge("wikidb_pool_max_connections", "Maximum size of the JDBC connection pool", () -> maxPoolSize);
+    metrics.gauge("wikidb_pool_connections", "JDBC connections by state", () -> poolStat(PooledDataSource::getNumBusyConnectionsAllUsers), "state", "busy");
+    metrics.gauge("wikidb_pool_connections", "JDBC connections by state", () -> poolStat(PooledDataSource::getNumIdleConnectionsAllUsers), "state", "idle");
+    metrics.gauge("wikidb_pool_waiting_threads", "Threads waiting to check out a JDBC connection", () -> poolStat(PooledDataSource::getNumThreadsAwaitingCheckoutDefaultUser));
+  }
+
+  private static void registerCacheGauges(MetricsRegistry metrics, PageCache pageCache) {
+    metrics.gauge("wikidb_cache_entries", "Pages held in the database service cache", () -> pageCache.stats().getInteger("entries"));
+    for (String event : new String[]{"hits", "misses", "collapsed", "evictions"}) {
+      metrics.gauge("wikidb_cache_events", "Database service cache lookups and evictions, misses collapsed into a load in flight are counted apart",
+        () -> pageCache.stats().getLong(event), "event", event);
+    }
+  }
+
+  private static double poolStat(PoolStat stat) {
+    int total = 0;
+    for (Object dataSource : C3P0Registry.getPooledDataSources()) {
+      try {
+        total += stat.of((PooledDataSource) dataSource);
+      } catch (SQLException e) {
+        // The pool is being closed
+      }
     }
+    return total;
+  }
+
+  @FunctionalInterface
+  private interface PoolStat {
+    int of(PooledDataSource dataSource) throws SQLException;
+  }
 
-    Properties queriesProps = new Properties();
-    queriesProps.load(queriesInputStream);
-    queriesInputStream.close();
+  private Future<Void> loadSearchIndex() {
+    Future<Void> future = Future.future();
+    String indexFile = config().getString(CONFIG_WIKIDB_SEARCH_INDEX_FILE);
+    if (indexFile == null || !new File(indexFile).exists()) {
+      future.complete();
+      return future;
+    }
+    vertx.<Void>executeBlocking(load -> {
+      try {
+        searchIndex.load(new File(indexFile));
+        load.complete();
+      } catch (IOException e) {
+        load.fail(e);
+      }
+    }, ar -> {
+      if (ar.failed()) {
+        LOGGER.warn("Could not load the search index from " + indexFile + ", rebuilding it", ar.cause());
+      }
+      future.complete();
+    });
+    return future;
+  }
 
-    sqlQueries.put(SqlQuery.CREATE_PAGES_TABLE, queriesProps.getProperty("create-pages-table"));
-    sqlQueries.put(SqlQuery.ALL_PAGES, queriesProps.getProperty("all-pages"));
-    sqlQueries.put(SqlQuery.GET_PAGE, queriesProps.getProperty("get-page"));
-    sqlQueries.put(SqlQuery.CREATE_PAGE, queriesProps.getProperty("create-page"));
-    sqlQueries.put(SqlQuery.SAVE_PAGE, queriesProps.getProperty("save-page"));
-    sqlQueries.put(SqlQuery.DELETE_PAGE, queriesProps.getProperty("delete-page"));
-    sqlQueries.put(SqlQuery.ALL_PAGES_DATA, queriesProps.getProperty("all-pages-data"));
+  private static final class SharedState implements Shareable {
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final LinkIndex linkIndex = new LinkIndex();
+    private final PageCache pageCache;
+    private final LogStore logStore;
+    private final AtomicInteger instances = new AtomicInteger();
+    // Only read and written while holding the init lock
+    private volatile boolean prepared;
 
-    return sqlQueries;
+    private SharedState(PageCache pageCache, LogStore logStore) {
+      this.pageCache = pageCache;
+      this.logStore = logStore;
+    }
 
+    private static SharedState of(Vertx vertx, JsonObject config) {
+      LocalMap<String, SharedState> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+      LogStore logStore = BACKEND_LOG.equals(config.getString(CONFIG_WIKIDB_BACKEND, BACKEND_JDBC))
+        ? new LogStore(new File(config.getString(CONFIG_WIKIDB_LOG_FILE, "db/wiki.log")), config.getBoolean(CONFIG_WIKIDB_LOG_SYNC, true))
+        : null;
+      SharedState state = new SharedState(PageCache.of(config), logStore);
+      SharedState existing = map.putIfAbsent(SHARED_MAP_KEY, state);
+      return existing != null ? existing : state;
+    }
   }
 }
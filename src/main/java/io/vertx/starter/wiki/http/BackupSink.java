@@ -0,0 +1,31 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Where {@link IncrementalBackup} ships chunks of pages, along with a manifest telling how far it got.
+ * <p>
+ * Chunks are written before the manifest that accounts for them, so a sink only has to make each write durable on its
+ * own: a chunk whose manifest update was lost is written again, under the same name, by the next backup.
+ */
+interface BackupSink {
+
+  /**
+   * @return a future completed with the last manifest written, or {@code null} if there is none yet
+   */
+  Future<JsonObject> readManifest();
+
+  /**
+   * Write a chunk, replacing any chunk of the same name.
+   */
+  Future<Void> writeChunk(String name, Buffer chunk);
+
+  Future<Void> writeManifest(JsonObject manifest);
+
+  /**
+   * A description of the sink for logs and backup reports, e.g. its directory.
+   */
+  String describe();
+}
@@ -0,0 +1,18 @@
+package io.vertx.starter.wiki.http;
+
+/**
+ * A request body, declared or received, larger than the limit of its route.
+ */
+class BodyTooLargeException extends RuntimeException {
+
+  private final long maxBytes;
+
+  BodyTooLargeException(long maxBytes) {
+    super("Request body larger than " + maxBytes + " bytes");
+    this.maxBytes = maxBytes;
+  }
+
+  long maxBytes() {
+    return maxBytes;
+  }
+}
@@ -0,0 +1,53 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.shareddata.LocalMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LRU cache of gzip compressed page responses, keyed by page name and content version, so that pages are neither
+ * rendered nor compressed again for clients accepting gzip.
+ * <p>
+ * One instance is shared by all {@link HttpServerVerticle} instances of a Vert.x instance through a local map.
+ */
+public class CompressedPageCache extends VersionedLruCache<Buffer> {
+
+  private static final String SHARED_MAP_NAME = "wiki.http.cache";
+  private static final String SHARED_MAP_KEY = "compressed-pages";
+
+  public CompressedPageCache(int maxEntries, long maxBytes) {
+    super(maxEntries, maxBytes, Buffer::length);
+  }
+
+  /**
+   * Get the cache shared by every verticle of this Vert.x instance, creating it on first use.
+   */
+  public static CompressedPageCache shared(Vertx vertx, int maxEntries, long maxBytes) {
+    LocalMap<String, CompressedPageCache> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+    CompressedPageCache cache = new CompressedPageCache(maxEntries, maxBytes);
+    CompressedPageCache existing = map.putIfAbsent(SHARED_MAP_KEY, cache);
+    return existing != null ? existing : cache;
+  }
+
+  /**
+   * Compress a body in the gzip format.
+   */
+  public static Buffer gzip(Buffer body, int level) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length() / 3);
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes) {
+      {
+        def.setLevel(level);
+      }
+    }) {
+      out.write(body.getBytes());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Buffer.buffer(bytes.toByteArray());
+  }
+}
@@ -0,0 +1,97 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Helpers for HTTP validators: strong ETags, Last-Modified dates and {@code 304 Not Modified} decisions.
+ */
+final class ConditionalGet {
+
+  private ConditionalGet() {
+  }
+
+  static String etag(String value) {
+    return "\"" + value + "\"";
+  }
+
+  static String digestEtag(String content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(content.getBytes(StandardCharsets.UTF_8));
+      return etag(new BigInteger(1, digest).toString(16));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String httpDate(long millis) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+  }
+
+  /**
+   * Check the request validators against the current representation.
+   * {@code If-None-Match} takes precedence over {@code If-Modified-Since}, as mandated by RFC 7232, and uses the weak
+   * comparison it requires: proxies that compress responses turn our ETags into weak ones.
+   *
+   * @param modified the last modification time in milliseconds, or {@code null} when unknown
+   */
+  static boolean isNotModified(HttpServerRequest request, String etag, Long modified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      if (ifNoneMatch.trim().equals("*")) {
+        return true;
+      }
+      for (String candidate : ifNoneMatch.split(",")) {
+        candidate = candidate.trim();
+        if (candidate.startsWith("W/")) {
+          candidate = candidate.substring(2);
+        }
+        if (candidate.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    String ifModifiedSince = request.getHeader("If-Modified-Since");
+    if (ifModifiedSince != null && modified != null) {
+      try {
+        long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        // HTTP dates have a one second resolution
+        return modified / 1000 <= since / 1000;
+      } catch (DateTimeParseException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Put the validators of a response. Its body is sent as is: compressing it on the fly would send another body under
+   * the same ETag, so bodies meant to be compressed must be compressed ahead of time, with an ETag of their own.
+   */
+  static void putValidators(HttpServerResponse response, String etag, Long modified) {
+    response.putHeader("ETag", etag);
+    // Any Content-Encoding keeps the server from compressing, a compressed body sets its own afterwards
+    response.putHeader("Content-Encoding", "identity");
+    if (modified != null) {
+      response.putHeader("Last-Modified", httpDate(modified));
+    }
+    // Always revalidate so that edits show up immediately
+    response.putHeader("Cache-Control", "no-cache");
+  }
+
+  static void notModified(HttpServerResponse response, String etag, Long modified) {
+    putValidators(response, etag, modified);
+    response.setStatusCode(304).end();
+  }
+}
@@ -0,0 +1,73 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+
+/**
+ * Keeps backup chunks as files of a local directory, with the manifest in {@code manifest.json}. The manifest is
+ * written to a temporary file first and moved over the previous one, so a crash never leaves it half written.
+ */
+final class DirectoryBackupSink implements BackupSink {
+
+  private static final String MANIFEST = "manifest.json";
+
+  private final FileSystem fileSystem;
+  private final String dir;
+
+  DirectoryBackupSink(Vertx vertx, String dir) {
+    this.fileSystem = vertx.fileSystem();
+    this.dir = dir;
+  }
+
+  @Override
+  public Future<JsonObject> readManifest() {
+    String file = dir + File.separator + MANIFEST;
+    Future<Boolean> exists = Future.future();
+    fileSystem.exists(file, exists.completer());
+    return exists.compose(found -> {
+      if (!found) {
+        return Future.succeededFuture();
+      }
+      Future<Buffer> read = Future.future();
+      fileSystem.readFile(file, read.completer());
+      return read.map(Buffer::toJsonObject);
+    });
+  }
+
+  @Override
+  public Future<Void> writeChunk(String name, Buffer chunk) {
+    return write(name, chunk);
+  }
+
+  @Override
+  public Future<Void> writeManifest(JsonObject manifest) {
+    String tmp = MANIFEST + ".tmp";
+    return write(tmp, manifest.toBuffer()).compose(v -> {
+      Future<Void> move = Future.future();
+      fileSystem.move(dir + File.separator + tmp, dir + File.separator + MANIFEST,
+        new CopyOptions().setReplaceExisting(true).setAtomicMove(true), move.completer());
+      return move;
+    });
+  }
+
+  private Future<Void> write(String name, Buffer data) {
+    Future<Void> mkdirs = Future.future();
+    fileSystem.mkdirs(dir, mkdirs.completer());
+    return mkdirs.compose(v -> {
+      Future<Void> write = Future.future();
+      fileSystem.writeFile(dir + File.separator + name, data, write.completer());
+      return write;
+    });
+  }
+
+  @Override
+  public String describe() {
+    return dir;
+  }
+}
@@ -0,0 +1,62 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+
+/**
+ * Ships backup chunks to an HTTP endpoint: each chunk is a {@code PUT} of {@code <url>/<chunk name>}, and the
+ * manifest is read and written at {@code <url>/manifest.json}, a {@code 404} meaning there is none yet.
+ */
+final class HttpBackupSink implements BackupSink {
+
+  private static final String MANIFEST = "manifest.json";
+
+  private final WebClient webClient;
+  private final String url;
+
+  HttpBackupSink(WebClient webClient, String url) {
+    this.webClient = webClient;
+    this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+  }
+
+  @Override
+  public Future<JsonObject> readManifest() {
+    Future<HttpResponse<Buffer>> get = Future.future();
+    webClient.getAbs(url + "/" + MANIFEST).send(get.completer());
+    return get.compose(response -> {
+      if (response.statusCode() == 404) {
+        return Future.succeededFuture();
+      }
+      if (response.statusCode() != 200) {
+        return Future.failedFuture("GET " + url + "/" + MANIFEST + " answered " + response.statusCode());
+      }
+      return Future.succeededFuture(response.bodyAsJsonObject());
+    });
+  }
+
+  @Override
+  public Future<Void> writeChunk(String name, Buffer chunk) {
+    return put(name, "application/x-ndjson", chunk);
+  }
+
+  @Override
+  public Future<Void> writeManifest(JsonObject manifest) {
+    return put(MANIFEST, "application/json", manifest.toBuffer());
+  }
+
+  private Future<Void> put(String name, String contentType, Buffer body) {
+    Future<HttpResponse<Buffer>> put = Future.future();
+    webClient.putAbs(url + "/" + name).putHeader("Content-Type", contentType).sendBuffer(body, put.completer());
+    return put.compose(response -> response.statusCode() / 100 == 2
+      ? Future.succeededFuture()
+      : Future.failedFuture("PUT " + url + "/" + name + " answered " + response.statusCode()));
+  }
+
+  @Override
+  public String describe() {
+    return url;
+  }
+}
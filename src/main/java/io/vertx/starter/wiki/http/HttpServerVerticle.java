@@ -1,11 +1,22 @@
 package io.vertx.starter.wiki.http;
 
-import com.github.rjeschke.txtmark.Processor;
+import freemarker.template.TemplateException;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
@@ -13,12 +24,25 @@ import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.codec.BodyCodec;
 import io.vertx.ext.web.handler.BodyHandler;
-import io.vertx.ext.web.templ.FreeMarkerTemplateEngine;
+import io.vertx.starter.wiki.database.AdmissionControl;
+import io.vertx.starter.wiki.database.MarkdownRenderer;
 import io.vertx.starter.wiki.database.WikiDatabaseService;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
 
 public class HttpServerVerticle extends AbstractVerticle {
 
@@ -26,34 +50,154 @@ public class HttpServerVerticle extends AbstractVerticle {
 
   private static final String CONFIG_HTTP_SERVER_PORT = "http.server.port";
   private static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
+  private static final String CONFIG_WIKIDB_LOCAL_DELIVERY = "wikidb.local_delivery";
+  private static final String CONFIG_WIKIDB_SEND_TIMEOUT_MILLIS = "wikidb.send_timeout_ms";
+  private static final String CONFIG_HTTP_RETRY_AFTER_SECONDS = "http.retry_after_seconds";
+  private static final String CONFIG_HTTP_CACHE_MAX_ENTRIES = "http.cache.max_entries";
+  private static final String CONFIG_HTTP_CACHE_MAX_BYTES = "http.cache.max_bytes";
+  private static final String CONFIG_HTTP_COMPRESSION_ENABLED = "http.compression.enabled";
+  private static final String CONFIG_HTTP_COMPRESSION_LEVEL = "http.compression.level";
+  private static final String CONFIG_HTTP_COMPRESSION_MIN_BYTES = "http.compression.min_bytes";
+  private static final String CONFIG_HTTP_COMPRESSION_CACHE_MAX_BYTES = "http.compression.cache_max_bytes";
+  private static final String CONFIG_BACKUP_TARGET = "backup.target";
+  private static final String CONFIG_BACKUP_DIR = "backup.dir";
+  private static final String CONFIG_BACKUP_INCREMENTAL_SINK = "backup.incremental.sink";
+  private static final String CONFIG_BACKUP_INCREMENTAL_DIR = "backup.incremental.dir";
+  private static final String CONFIG_BACKUP_INCREMENTAL_URL = "backup.incremental.url";
+  private static final String CONFIG_BACKUP_INCREMENTAL_CHUNK_BYTES = "backup.incremental.chunk_bytes";
+  private static final String CONFIG_BACKUP_INCREMENTAL_PRUNE = "backup.incremental.prune";
+  private static final String CONFIG_EXPORT_BATCH_SIZE = "export.batch_size";
+  private static final String CONFIG_IMPORT_BATCH_SIZE = "import.batch_size";
+  private static final String CONFIG_INDEX_PAGE_SIZE = "http.index.page_size";
+  private static final String CONFIG_HTTP_BODY_MAX_BYTES = "http.body.max_bytes";
+  private static final String CONFIG_HTTP_BODY_SAVE_MAX_BYTES = "http.body.save_max_bytes";
+  private static final String CONFIG_HTTP_BODY_IMPORT_MAX_BYTES = "http.body.import_max_bytes";
+
+  private static final int SEARCH_RESULTS_LIMIT = 50;
+  private static final int MISSING_PAGES_LIMIT = 100;
+  private static final String INCREMENTAL_BACKUP_LOCK = "wiki.backup.incremental";
+
+  private static final Set<String> ROUTES = new HashSet<>(Arrays.asList("/", "/import", "/save", "/create", "/delete",
+    "/backup", "/export", "/search", "/metrics", "/admin/cache", "/admin/search", "/admin/links"));
 
   private String wikiDbQueue = "wikidb.queue";
 
-  private final FreeMarkerTemplateEngine templateEngine = FreeMarkerTemplateEngine.create();
+  private TemplateRenderer templateRenderer;
 
   private WikiDatabaseService dbService;
+  private AdmissionControl admissionControl;
+  private int retryAfterSeconds;
 
   private WebClient webClient;
 
+  private RenderedPageCache renderedPageCache;
+  private CompressedPageCache compressedPageCache;
+
+  private boolean compression;
+  private int compressionLevel;
+  private int compressionMinBytes;
+  private MetricsRegistry.Counter uncompressedBytes;
+  private MetricsRegistry.Counter compressedBytes;
+  private MetricsRegistry.Histogram compressionTimer;
+
+  private MetricsRegistry metrics;
+  private final ConcurrentMap<String, RouteMetrics> routeMetrics = new ConcurrentHashMap<>();
+  private final Map<String, MetricsRegistry.Histogram> templateTimers = new HashMap<>();
+  private MarkdownRenderer markdownRenderer;
+
+  private String backupTarget;
+  private String backupDir;
+  private int exportBatchSize;
+  private int importBatchSize;
+  private int indexPageSize;
+
+  private long bodyMaxBytes;
+  private long saveMaxBytes;
+  private long importMaxBytes;
+
   @Override
   public void start(Future<Void> startFuture) {
     wikiDbQueue = config().getString(CONFIG_WIKIDB_QUEUE, wikiDbQueue);
 
-    dbService = WikiDatabaseService.createProxy(vertx, wikiDbQueue);
+    metrics = MetricsRegistry.shared(vertx);
+    markdownRenderer = new MarkdownRenderer(vertx, config(), metrics);
+
+    // Calls give up well before the event bus default of 30s, a reply that late would only be thrown away
+    DeliveryOptions deliveryOptions = new DeliveryOptions().setSendTimeout(config().getLong(CONFIG_WIKIDB_SEND_TIMEOUT_MILLIS, 10000L));
+    WikiDatabaseService proxy = config().getBoolean(CONFIG_WIKIDB_LOCAL_DELIVERY, true)
+      ? WikiDatabaseService.createLocalProxy(vertx, wikiDbQueue, deliveryOptions)
+      : WikiDatabaseService.createProxy(vertx, wikiDbQueue, deliveryOptions);
+    WikiDatabaseService timed = metrics.timed(WikiDatabaseService.class, proxy,
+      "wikidb_call_seconds", "Database service round trip time, event bus included", "action");
+    // Rejected calls never reach the timed proxy, so they do not skew round trip times
+    admissionControl = AdmissionControl.shared(vertx, config(), metrics);
+    dbService = admissionControl.guard(WikiDatabaseService.class, timed);
+    retryAfterSeconds = config().getInteger(CONFIG_HTTP_RETRY_AFTER_SECONDS, 1);
 
     webClient = WebClient.create(vertx);
 
-    HttpServer server = vertx.createHttpServer();
+    templateRenderer = TemplateRenderer.shared(vertx, config());
+
+    renderedPageCache = RenderedPageCache.shared(vertx,
+      config().getInteger(CONFIG_HTTP_CACHE_MAX_ENTRIES, 1000),
+      config().getLong(CONFIG_HTTP_CACHE_MAX_BYTES, 16L * 1024 * 1024));
+
+    compression = config().getBoolean(CONFIG_HTTP_COMPRESSION_ENABLED, true);
+    compressionLevel = config().getInteger(CONFIG_HTTP_COMPRESSION_LEVEL, 6);
+    compressionMinBytes = config().getInteger(CONFIG_HTTP_COMPRESSION_MIN_BYTES, 1024);
+    compressedPageCache = CompressedPageCache.shared(vertx,
+      config().getInteger(CONFIG_HTTP_CACHE_MAX_ENTRIES, 1000),
+      config().getLong(CONFIG_HTTP_COMPRESSION_CACHE_MAX_BYTES, 8L * 1024 * 1024));
+    uncompressedBytes = metrics.counter("http_compression_bytes_total", "Size of pre-compressed page responses before and after compression", "form", "raw");
+    compressedBytes = metrics.counter("http_compression_bytes_total", "Size of pre-compressed page responses before and after compression", "form", "gzip");
+    compressionTimer = metrics.timer("http_compression_seconds", "Page response compression time");
+
+    backupTarget = config().getString(CONFIG_BACKUP_TARGET, "incremental");
+    backupDir = config().getString(CONFIG_BACKUP_DIR, "backups");
+    exportBatchSize = config().getInteger(CONFIG_EXPORT_BATCH_SIZE, 100);
+    importBatchSize = config().getInteger(CONFIG_IMPORT_BATCH_SIZE, 500);
+    indexPageSize = config().getInteger(CONFIG_INDEX_PAGE_SIZE, 50);
+    bodyMaxBytes = config().getLong(CONFIG_HTTP_BODY_MAX_BYTES, 64L * 1024);
+    saveMaxBytes = config().getLong(CONFIG_HTTP_BODY_SAVE_MAX_BYTES, 2L * 1024 * 1024);
+    importMaxBytes = config().getLong(CONFIG_HTTP_BODY_IMPORT_MAX_BYTES, -1L);
+
+    // Other responses are compressed on the fly, according to Accept-Encoding, when compression is enabled
+    HttpServer server = vertx.createHttpServer(new HttpServerOptions()
+      .setCompressionSupported(compression)
+      .setCompressionLevel(compressionLevel));
 
     Router router = Router.router(vertx);
 
+    router.route().handler(this::metricsHandler);
+    router.route().failureHandler(this::unavailableHandler);
+    if (compression) {
+      router.route().handler(context -> {
+        context.response().putHeader("Vary", "Accept-Encoding");
+        context.next();
+      });
+    }
     router.get("/").handler(this::indexHandler);
     router.get("/wiki/:page").handler(this::pageRenderingHandler);
-    router.post().handler(BodyHandler.create());
+    router.get("/diff/:page").handler(this::pageDiffHandler);
+    router.get("/backlinks/:page").handler(this::backlinksHandler);
+    // Imports and saves stream the request body, so they must be routed before the body handler buffers it
+    router.post("/import").handler(this::importHandler);
     router.post("/save").handler(this::pageUpdateHandler);
+    router.post().handler(context -> {
+      if (acceptBody(context, bodyMaxBytes)) {
+        context.next();
+      }
+    });
+    router.post().handler(BodyHandler.create().setBodyLimit(bodyMaxBytes));
     router.post("/create").handler(this::pageCreateHandler);
     router.post("/delete").handler(this::pageDeleteHandler);
     router.get("/backup").handler(this::backupHandler);
+    router.get("/export").handler(this::exportHandler);
+    router.get("/search").handler(this::searchHandler);
+    router.get("/admin/cache").handler(this::cacheStatsHandler);
+    router.get("/admin/search").handler(this::searchStatsHandler);
+    router.get("/admin/links").handler(this::linkStatsHandler);
+    router.get("/metrics").handler(this::metricsExportHandler);
 
     int port = config().getInteger(CONFIG_HTTP_SERVER_PORT, 8080);
     server.requestHandler(router::accept)
@@ -70,6 +214,133 @@ public class HttpServerVerticle extends AbstractVerticle {
   }
 
   private void backupHandler(RoutingContext context) {
+    String target = context.request().getParam("target");
+    if (target == null) {
+      target = backupTarget;
+    }
+    switch (target) {
+      case "incremental":
+        incrementalBackupHandler(context);
+        break;
+      case "local":
+        localBackupHandler(context);
+        break;
+      case "github":
+        gistBackupHandler(context);
+        break;
+      default:
+        context.fail(400);
+    }
+  }
+
+  private void exportHandler(RoutingContext context) {
+    HttpServerResponse response = context.response();
+    response.setChunked(true);
+    response.putHeader("Content-Type", "application/x-ndjson");
+    response.putHeader("Content-Disposition", "attachment; filename=\"wiki.ndjson\"");
+    new PageExporter(dbService, exportBatchSize, response).export().setHandler(ar -> {
+      if (ar.succeeded()) {
+        response.end();
+      } else {
+        // The status line may already be gone, closing the connection is the only way to report the failure
+        LOGGER.error("Export failed", ar.cause());
+        response.close();
+      }
+    });
+  }
+
+  private void importHandler(RoutingContext context) {
+    if (!acceptBody(context, importMaxBytes)) {
+      return;
+    }
+    new PageImporter(dbService, importBatchSize, importMaxBytes, context.request()).importPages().setHandler(ar -> {
+      // Whatever made it in may shadow cached renderings of pages with the same names
+      renderedPageCache.clear();
+      compressedPageCache.clear();
+      if (ar.succeeded()) {
+        LOGGER.info("Imported {} pages", ar.result());
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(new JsonObject().put("imported", ar.result()).encode());
+      } else {
+        LOGGER.error("Import failed", ar.cause());
+        if (ar.cause() instanceof BodyTooLargeException) {
+          context.fail(413);
+        } else if (ar.cause() instanceof DecodeException) {
+          context.fail(400);
+        } else {
+          context.fail(ar.cause());
+        }
+      }
+    });
+  }
+
+  private void incrementalBackupHandler(RoutingContext context) {
+    BackupSink sink;
+    switch (config().getString(CONFIG_BACKUP_INCREMENTAL_SINK, "directory")) {
+      case "directory":
+        sink = new DirectoryBackupSink(vertx, config().getString(CONFIG_BACKUP_INCREMENTAL_DIR, backupDir + File.separator + "incremental"));
+        break;
+      case "http":
+        sink = new HttpBackupSink(webClient, config().getString(CONFIG_BACKUP_INCREMENTAL_URL));
+        break;
+      default:
+        context.fail(new IllegalStateException("Unknown " + CONFIG_BACKUP_INCREMENTAL_SINK + " " + config().getString(CONFIG_BACKUP_INCREMENTAL_SINK)));
+        return;
+    }
+    // Two backups to the same sink would write the same chunks, the second one waits a little then gives up
+    vertx.sharedData().getLockWithTimeout(INCREMENTAL_BACKUP_LOCK, 1000, lock -> {
+      if (lock.failed()) {
+        context.fail(409);
+        return;
+      }
+      new IncrementalBackup(dbService, sink, exportBatchSize, config().getInteger(CONFIG_BACKUP_INCREMENTAL_CHUNK_BYTES, 1024 * 1024),
+        config().getBoolean(CONFIG_BACKUP_INCREMENTAL_PRUNE, true)).run().setHandler(backup -> {
+        lock.result().release();
+        if (backup.succeeded()) {
+          JsonObject result = backup.result();
+          LOGGER.info("Backed up {} page change(s) in {} chunk(s) to {}", result.getLong("pages"), result.getInteger("chunks"), sink.describe());
+          context.put("backup_incremental", result.getLong("pages") + " page change(s) in " + result.getInteger("chunks") + " chunk(s) to " + sink.describe());
+          indexHandler(context);
+        } else {
+          // The next backup resumes after the last chunk written
+          LOGGER.error("Could not backup the wiki to " + sink.describe(), backup.cause());
+          context.fail(backup.cause());
+        }
+      });
+    });
+  }
+
+  private void localBackupHandler(RoutingContext context) {
+    String file = backupDir + File.separator + "wiki-" + System.currentTimeMillis() + ".ndjson";
+    vertx.fileSystem().mkdirs(backupDir, mkdirs -> {
+      if (mkdirs.failed()) {
+        context.fail(mkdirs.cause());
+        return;
+      }
+      vertx.fileSystem().open(file, new OpenOptions().setWrite(true).setCreateNew(true), open -> {
+        if (open.failed()) {
+          context.fail(open.cause());
+          return;
+        }
+        AsyncFile asyncFile = open.result();
+        new PageExporter(dbService, exportBatchSize, asyncFile).export().setHandler(export ->
+          asyncFile.close(close -> {
+            if (export.failed()) {
+              LOGGER.error("Could not backup the wiki to " + file, export.cause());
+              context.fail(export.cause());
+            } else if (close.failed()) {
+              context.fail(close.cause());
+            } else {
+              LOGGER.info("Backed up {} pages to {}", export.result(), file);
+              context.put("backup_file", file);
+              indexHandler(context);
+            }
+          }));
+      });
+    });
+  }
+
+  private void gistBackupHandler(RoutingContext context) {
     this.dbService.fetchAllPagesData(reply -> {
       if (reply.succeeded()) {
         JsonObject filesObject = new JsonObject();
@@ -112,19 +383,189 @@ public class HttpServerVerticle extends AbstractVerticle {
     });
   }
 
+  private void metricsHandler(RoutingContext context) {
+    long start = System.nanoTime();
+    String path = context.request().path();
+    // Label with the route rather than the path so that page names do not create new series
+    String route = path.startsWith("/wiki/") ? "/wiki/:page" : path.startsWith("/diff/") ? "/diff/:page"
+      : path.startsWith("/backlinks/") ? "/backlinks/:page" : ROUTES.contains(path) ? path : "other";
+    context.addBodyEndHandler(v -> {
+      HttpServerResponse response = context.response();
+      routeMetrics.computeIfAbsent(route, RouteMetrics::new).record(System.nanoTime() - start, response.getStatusCode(), response.bytesWritten());
+    });
+    context.next();
+  }
+
+  /**
+   * Answer calls rejected by admission control, that timed out waiting for the database service, or made while it is
+   * not deployed yet (see {@link io.vertx.starter.wiki.MainVerticle}), with a 503 telling clients when to retry. Other
+   * failures get the default handling.
+   */
+  private void unavailableHandler(RoutingContext context) {
+    if (!isUnavailable(context.failure()) || context.response().headWritten()) {
+      context.next();
+      return;
+    }
+    context.response().setStatusCode(503);
+    context.response().putHeader("Retry-After", String.valueOf(retryAfterSeconds));
+    context.response().putHeader("Content-Type", "text/plain");
+    context.response().end("The wiki is busy, please retry in a moment.\n");
+  }
+
+  static boolean isUnavailable(Throwable failure) {
+    if (!(failure instanceof ReplyException)) {
+      return false;
+    }
+    ReplyException reply = (ReplyException) failure;
+    return reply.failureType() == ReplyFailure.TIMEOUT || reply.failureType() == ReplyFailure.NO_HANDLERS
+      || reply.failureCode() == WikiDatabaseService.OVERLOADED;
+  }
+
+  private void metricsExportHandler(RoutingContext context) {
+    context.response().putHeader("Content-Type", "text/plain; version=0.0.4");
+    context.response().end(metrics.scrape());
+  }
+
+  /**
+   * Render a template into the response as it goes and end it, once headers are set.
+   */
+  private void render(RoutingContext context, String template) {
+    long start = System.nanoTime();
+    TemplateRenderer.ResponseWriter writer = templateRenderer.writer(context.response());
+    try {
+      templateRenderer.render(template, context.data(), writer);
+    } catch (IOException | TemplateException e) {
+      if (writer.written()) {
+        // The status line is gone, closing the connection is the only way to report the failure
+        LOGGER.error("Could not render " + template, e);
+        context.response().close();
+      } else {
+        context.fail(e);
+      }
+    } finally {
+      templateTimer(template).record(System.nanoTime() - start);
+    }
+  }
+
+  private Buffer renderToBuffer(RoutingContext context, String template) throws IOException, TemplateException {
+    long start = System.nanoTime();
+    try {
+      return templateRenderer.render(template, context.data());
+    } finally {
+      templateTimer(template).record(System.nanoTime() - start);
+    }
+  }
+
+  private MetricsRegistry.Histogram templateTimer(String template) {
+    return templateTimers.computeIfAbsent(template,
+      name -> metrics.timer("template_render_seconds", "FreeMarker template rendering time", "template", name));
+  }
+
+  private void cacheStatsHandler(RoutingContext context) {
+    context.response().putHeader("Content-Type", "application/json");
+    context.response().end(renderedPageCache.stats()
+      .put("compressed", compressedPageCache.stats())
+      .put("admission", admissionControl.stats())
+      .put("markdown", markdownRenderer.stats())
+      .encodePrettily());
+  }
+
+  private void searchStatsHandler(RoutingContext context) {
+    this.dbService.fetchSearchIndexStats(reply -> {
+      if (reply.succeeded()) {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encodePrettily());
+      } else {
+        context.fail(reply.cause());
+      }
+    });
+  }
+
+  private void backlinksHandler(RoutingContext context) {
+    this.dbService.fetchBacklinks(context.request().getParam("page"), reply -> {
+      if (reply.succeeded()) {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encodePrettily());
+      } else {
+        context.fail(reply.cause());
+      }
+    });
+  }
+
+  /**
+   * Link index statistics and the pages that are linked to but do not exist, a page of them at a time: pass the last
+   * name of the previous page in {@code after} to get the next one.
+   */
+  private void linkStatsHandler(RoutingContext context) {
+    this.dbService.fetchLinkIndexStats(stats -> {
+      if (stats.failed()) {
+        context.fail(stats.cause());
+        return;
+      }
+      this.dbService.fetchMissingPages(context.request().getParam("after"), MISSING_PAGES_LIMIT, missing -> {
+        if (missing.succeeded()) {
+          context.response().putHeader("Content-Type", "application/json");
+          context.response().end(stats.result().put("missing", missing.result()).encodePrettily());
+        } else {
+          context.fail(missing.cause());
+        }
+      });
+    });
+  }
+
+  private void searchHandler(RoutingContext context) {
+    String query = context.request().getParam("q");
+    if (query == null) {
+      query = "";
+    }
+    String searchQuery = query;
+    this.dbService.searchPages(searchQuery, SEARCH_RESULTS_LIMIT, reply -> {
+      if (reply.succeeded()) {
+        JsonObject payload = reply.result();
+        context.put("title", "Search");
+        context.put("query", searchQuery);
+        context.put("results", payload.getJsonArray("results").stream()
+          .map(result -> ((JsonObject) result).getMap())
+          .collect(Collectors.toList()));
+        context.put("tookMicros", payload.getLong("tookMicros"));
+        context.response().putHeader("Content-Type", "text/html");
+        render(context, "/search.ftl");
+      } else {
+        context.fail(reply.cause());
+      }
+    });
+  }
+
   private void indexHandler(RoutingContext context) {
-    this.dbService.fetchAllPages(reply -> {
+    String after = context.request().getParam("after");
+    // One extra name tells whether there is a next page
+    this.dbService.fetchPages(after, indexPageSize + 1, reply -> {
       if (reply.succeeded()) {
-        context.put("title", "Wiki home");
-        context.put("pages", reply.result().getList());
-        templateEngine.render(context, "templates", "/index.ftl", ar -> {
-          if (ar.succeeded()) {
-            context.response().putHeader("Content-Type", "text/html");
-            context.response().end(ar.result());
-          } else {
-            context.fail(ar.cause());
+        List<String> pages = reply.result().stream().map(String.class::cast).collect(Collectors.toList());
+        boolean hasNext = pages.size() > indexPageSize;
+        if (hasNext) {
+          pages = pages.subList(0, indexPageSize);
+        }
+        // Backup result pages are one-offs, only plain index views get validators
+        String etag = null;
+        if ("/".equals(context.request().path())) {
+          etag = ConditionalGet.digestEtag(after + "\n" + reply.result().encode());
+          if (ConditionalGet.isNotModified(context.request(), etag, null)) {
+            ConditionalGet.notModified(context.response(), etag, null);
+            return;
           }
-        });
+        }
+        context.put("title", "Wiki home");
+        context.put("pages", pages);
+        context.put("firstPage", after == null);
+        if (hasNext) {
+          context.put("nextAfter", pages.get(pages.size() - 1));
+        }
+        if (etag != null) {
+          ConditionalGet.putValidators(context.response(), etag, null);
+        }
+        context.response().putHeader("Content-Type", "text/html");
+        render(context, "/index.ftl");
       } else {
         context.fail(reply.cause());
       }
@@ -132,9 +573,24 @@ public class HttpServerVerticle extends AbstractVerticle {
   }
 
   private void pageDeleteHandler(RoutingContext context) {
-    String id = context.request().getParam("id");
-    this.dbService.deletePage(Integer.valueOf(id), reply -> {
+    String title = context.request().getParam("title");
+    int id;
+    try {
+      // A missing id is a NumberFormatException too
+      id = Integer.parseInt(context.request().getParam("id"));
+    } catch (NumberFormatException e) {
+      context.fail(400);
+      return;
+    }
+    this.dbService.deletePage(id, reply -> {
       if (reply.succeeded()) {
+        if (title != null) {
+          renderedPageCache.invalidate(title);
+          compressedPageCache.invalidate(title);
+        } else {
+          renderedPageCache.clear();
+          compressedPageCache.clear();
+        }
         context.response().setStatusCode(303);
         context.response().putHeader("Location", "/");
         context.response().end();
@@ -156,25 +612,87 @@ public class HttpServerVerticle extends AbstractVerticle {
     context.response().end();
   }
 
+  /**
+   * Reject a request whose declared body is larger than {@code maxBytes}, -1 meaning no limit, before reading any of
+   * it, and otherwise tell a client waiting for it that it may send it.
+   *
+   * @return whether the body should be read
+   */
+  private boolean acceptBody(RoutingContext context, long maxBytes) {
+    HttpServerRequest request = context.request();
+    String length = request.getHeader(HttpHeaders.CONTENT_LENGTH);
+    try {
+      if (maxBytes >= 0 && length != null && Long.parseLong(length) > maxBytes) {
+        context.fail(413);
+        return false;
+      }
+    } catch (NumberFormatException e) {
+      context.fail(400);
+      return false;
+    }
+    if ("100-continue".equalsIgnoreCase(request.getHeader(HttpHeaders.EXPECT))) {
+      context.response().writeContinue();
+    }
+    return true;
+  }
+
   private void pageUpdateHandler(RoutingContext context) {
-    String title = context.request().getParam("title");
+    String contentType = context.request().getHeader(HttpHeaders.CONTENT_TYPE);
+    if (contentType == null || !contentType.toLowerCase().startsWith("application/x-www-form-urlencoded")) {
+      context.fail(415);
+      return;
+    }
+    if (!acceptBody(context, saveMaxBytes)) {
+      return;
+    }
+    new StreamingForm(context.request(), saveMaxBytes).parse().setHandler(ar -> {
+      if (ar.succeeded()) {
+        savePage(context, ar.result());
+      } else if (ar.cause() instanceof BodyTooLargeException) {
+        context.fail(413);
+      } else if (ar.cause() instanceof IllegalArgumentException) {
+        context.fail(400);
+      } else {
+        context.fail(ar.cause());
+      }
+    });
+  }
+
+  private void savePage(RoutingContext context, Map<String, String> form) {
+    String title = form.get("title");
 
     Handler<AsyncResult<Void>> handler = reply -> {
       if (reply.succeeded()) {
+        renderedPageCache.invalidate(title);
+        compressedPageCache.invalidate(title);
         context.response().setStatusCode(303);
         context.response().putHeader("Location", "/wiki/" + title);
         context.response().end();
+      } else if (reply.cause() instanceof ReplyException && ((ReplyException) reply.cause()).failureCode() == WikiDatabaseService.CONFLICT) {
+        context.response().setStatusCode(409);
+        context.response().putHeader("Content-Type", "text/plain");
+        context.response().end("The page was changed since you started editing it, reload it and apply your changes again.\n");
       } else {
         context.fail(reply.cause());
       }
     };
 
-    String markdown = context.request().getParam("markdown");
-    if (context.request().getParam("newPage").equals("yes")) {
+    // The markdown was decoded straight from the body, it is handed over as is
+    String markdown = form.get("markdown");
+    if ("yes".equals(form.get("newPage"))) {
       dbService.createPage(title, markdown, handler);
     } else {
-      String id = context.request().getParam("id");
-      dbService.savePage(Integer.valueOf(id), markdown, handler);
+      int id;
+      int revision;
+      try {
+        // A missing id or revision is a NumberFormatException too
+        id = Integer.parseInt(form.get("id"));
+        revision = Integer.parseInt(form.get("revision"));
+      } catch (NumberFormatException e) {
+        context.fail(400);
+        return;
+      }
+      dbService.savePage(id, revision, markdown, handler);
     }
   }
 
@@ -190,26 +708,177 @@ public class HttpServerVerticle extends AbstractVerticle {
         JsonObject payload = reply.result();
 
         boolean found = payload.getBoolean("found");
+        int revision = payload.getInteger("revision", 0);
+        Long modified = payload.getLong("modified");
+        // Ids are never reused, so id and revision identify the content even across delete and re-create
+        String version = payload.getInteger("id", -1) + "-" + revision;
+        boolean gzip = found && compression && acceptsGzip(context.request().getHeader("Accept-Encoding"));
+        // Each encoding has an ETag of its own, so that no cache ever validates a body it cannot decode
+        String etag = found ? ConditionalGet.etag(gzip ? version + "-gzip" : version) : null;
+        if (found && ConditionalGet.isNotModified(context.request(), etag, modified)) {
+          ConditionalGet.notModified(context.response(), etag, modified);
+          return;
+        }
+        if (gzip) {
+          Buffer compressed = compressedPageCache.get(requestedPage, version);
+          if (compressed != null) {
+            ConditionalGet.putValidators(context.response(), etag, modified);
+            endCompressed(context, compressed);
+            return;
+          }
+        }
+
         String rawContent = payload.getString("rawContent", EMPTY_PAGE_MARKDOWN);
         context.put("title", requestedPage);
         context.put("id", payload.getInteger("id", -1));
+        context.put("revision", revision);
         context.put("newPage", found ? "no" : "yes");
         context.put("rawContent", rawContent);
-        context.put("content", Processor.process(rawContent));
-        context.put("timestamp", new Date().toString());
-
-        templateEngine.render(context, "templates", "/page.ftl", ar -> {
-          if (ar.succeeded()) {
-            context.response().putHeader("Content-Type", "text/html");
-            context.response().end(ar.result());
-          } else {
-            context.fail(ar.cause());
+        context.put("modified", modified != null ? ConditionalGet.httpDate(modified) : "never");
+        // Pages store their rendered HTML, only rows not backfilled yet and the new page placeholder are rendered here
+        String html = payload.getString("html");
+        if (html != null) {
+          context.put("content", html);
+          respondWithPage(context, requestedPage, version, etag, modified, found, gzip);
+          return;
+        }
+        renderMarkdown(requestedPage, version, rawContent, rendering -> {
+          if (rendering.failed()) {
+            context.fail(rendering.cause());
+            return;
           }
+          context.put("content", rendering.result());
+          respondWithPage(context, requestedPage, version, etag, modified, found, gzip);
         });
-
       } else {
         context.fail(reply.cause());
       }
     });
   }
+
+  private void respondWithPage(RoutingContext context, String requestedPage, String version, String etag, Long modified, boolean found, boolean gzip) {
+    if (!gzip) {
+      if (found) {
+        ConditionalGet.putValidators(context.response(), etag, modified);
+      }
+      context.response().putHeader("Content-Type", "text/html");
+      render(context, "/page.ftl");
+      return;
+    }
+    // The pre-compressed variant is built from the whole page
+    Buffer page;
+    try {
+      page = renderToBuffer(context, "/page.ftl");
+    } catch (IOException | TemplateException e) {
+      context.fail(e);
+      return;
+    }
+    ConditionalGet.putValidators(context.response(), etag, modified);
+    if (page.length() >= compressionMinBytes) {
+      long start = System.nanoTime();
+      Buffer compressed = CompressedPageCache.gzip(page, compressionLevel);
+      compressionTimer.record(System.nanoTime() - start);
+      uncompressedBytes.inc(page.length());
+      compressedBytes.inc(compressed.length());
+      compressedPageCache.put(requestedPage, version, compressed);
+      endCompressed(context, compressed);
+      return;
+    }
+    context.response().putHeader("Content-Type", "text/html");
+    context.response().end(page);
+  }
+
+  private void pageDiffHandler(RoutingContext context) {
+    String page = context.request().getParam("page");
+    String from = context.request().getParam("from");
+    String to = context.request().getParam("to");
+    int fromRevision;
+    int toRevision;
+    try {
+      // Without revisions, show the last change
+      fromRevision = from == null ? 0 : Integer.parseInt(from);
+      toRevision = to == null ? 0 : Integer.parseInt(to);
+    } catch (NumberFormatException e) {
+      context.fail(400);
+      return;
+    }
+    this.dbService.fetchPageDiff(page, fromRevision, toRevision, reply -> {
+      if (reply.failed()) {
+        context.fail(reply.cause());
+      } else if (!reply.result().getBoolean("found")) {
+        context.fail(404);
+      } else {
+        context.response().putHeader("Content-Type", "text/plain; charset=utf-8");
+        context.response().end(reply.result().getString("diff"));
+      }
+    });
+  }
+
+  private static void endCompressed(RoutingContext context, Buffer compressed) {
+    // An explicit Content-Encoding also keeps the server from compressing the body again
+    context.response().putHeader("Content-Encoding", "gzip");
+    context.response().putHeader("Content-Type", "text/html");
+    context.response().end(compressed);
+  }
+
+  /**
+   * Whether an {@code Accept-Encoding} header accepts gzip, explicitly or through {@code *}, with a non-zero quality.
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+        for (int i = 1; i < parts.length; i++) {
+          String param = parts[i].trim();
+          if (param.startsWith("q=")) {
+            try {
+              return Double.parseDouble(param.substring(2)) > 0;
+            } catch (NumberFormatException e) {
+              return false;
+            }
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void renderMarkdown(String page, String version, String rawContent, Handler<AsyncResult<String>> handler) {
+    String html = renderedPageCache.get(page, version);
+    if (html != null) {
+      handler.handle(Future.succeededFuture(html));
+      return;
+    }
+    markdownRenderer.render(rawContent, rendering -> {
+      if (rendering.succeeded()) {
+        renderedPageCache.put(page, version, rendering.result());
+      }
+      handler.handle(rendering);
+    });
+  }
+
+  private final class RouteMetrics {
+    private final String route;
+    private final MetricsRegistry.Histogram seconds;
+    private final MetricsRegistry.Histogram bytes;
+    private final ConcurrentMap<Integer, MetricsRegistry.Counter> statuses = new ConcurrentHashMap<>();
+
+    private RouteMetrics(String route) {
+      this.route = route;
+      this.seconds = metrics.timer("http_request_seconds", "HTTP request processing time", "route", route);
+      this.bytes = metrics.histogram("http_response_bytes", "HTTP response body sizes", MetricsRegistry.BYTES_BUCKETS, "route", route);
+    }
+
+    private void record(long nanos, int status, long written) {
+      seconds.record(nanos);
+      bytes.record(written);
+      statuses.computeIfAbsent(status, code -> metrics.counter("http_responses_total", "HTTP responses by status",
+        "route", route, "status", String.valueOf(code))).inc();
+    }
+  }
 }
@@ -0,0 +1,211 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.starter.wiki.database.WikiDatabaseService;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backs the wiki up to a {@link BackupSink}, shipping only the pages created, saved or deleted since the previous
+ * backup according to the database change log.
+ * <p>
+ * The first backup to a sink is a snapshot of every page. Pages go out as newline-delimited JSON chunks of about
+ * {@code chunkBytes}: a {@code name} and {@code content} per page, or a {@code name} and {@code deleted} true. Replaying
+ * the chunks in order rebuilds the wiki. The sink manifest records how far the backup got after every chunk, so a
+ * backup that fails part way resumes from the last chunk written rather than starting over.
+ * <p>
+ * Manifests hold the number of {@code chunks} written, the change log {@code seq} shipped up to and, while the first
+ * snapshot is in progress, the {@code snapshot} change log position it started at and page id it got to.
+ */
+class IncrementalBackup {
+
+  private final WikiDatabaseService dbService;
+  private final BackupSink sink;
+  private final int batchSize;
+  private final int chunkBytes;
+  private final boolean prune;
+
+  private JsonObject manifest;
+  private Chunk chunk = new Chunk();
+  private int chunks;
+  private long pages;
+
+  IncrementalBackup(WikiDatabaseService dbService, BackupSink sink, int batchSize, int chunkBytes, boolean prune) {
+    this.dbService = dbService;
+    this.sink = sink;
+    this.batchSize = batchSize;
+    this.chunkBytes = chunkBytes;
+    this.prune = prune;
+  }
+
+  /**
+   * Run the backup.
+   *
+   * @return a future completed with the number of {@code chunks} and {@code pages} shipped by this run and the change
+   * log {@code seq} now backed up
+   */
+  Future<JsonObject> run() {
+    return sink.readManifest().compose(existing -> {
+      manifest = existing != null ? existing : new JsonObject().put("chunks", 0);
+      return manifest.containsKey("seq") ? Future.<Void>succeededFuture() : snapshot();
+    }).compose(v -> {
+      Future<Void> changes = Future.future();
+      shipChanges(manifest.getLong("seq"), changes);
+      return changes;
+    }).compose(v -> {
+      Future<Void> pruned = Future.future();
+      if (prune) {
+        dbService.prunePageChanges(manifest.getLong("seq"), pruned.completer());
+      } else {
+        pruned.complete();
+      }
+      return pruned;
+    }).map(v -> new JsonObject().put("chunks", chunks).put("pages", pages).put("seq", manifest.getLong("seq")));
+  }
+
+  private Future<Void> snapshot() {
+    Future<JsonObject> start = Future.future();
+    JsonObject snapshot = manifest.getJsonObject("snapshot");
+    if (snapshot != null) {
+      start.complete(snapshot);
+    } else {
+      // Changes made while the snapshot runs are logged past this point and shipped next, possibly twice
+      dbService.fetchLastPageChange(ar -> start.handle(ar.map(seq -> new JsonObject().put("seq", seq).put("afterId", -1))));
+    }
+    return start.compose(position -> {
+      manifest.put("snapshot", position);
+      Future<Void> done = Future.future();
+      shipPages(position.getInteger("afterId"), done);
+      return done;
+    }).compose(v -> {
+      JsonObject position = (JsonObject) manifest.remove("snapshot");
+      manifest.put("seq", position.getLong("seq"));
+      return sink.writeManifest(manifest);
+    });
+  }
+
+  private void shipPages(int afterId, Future<Void> done) {
+    dbService.exportPages(afterId, batchSize, ar -> {
+      if (ar.failed()) {
+        done.fail(ar.cause());
+        return;
+      }
+      List<JsonObject> batch = ar.result();
+      Future<Void> added = Future.succeededFuture();
+      for (JsonObject page : batch) {
+        JsonObject line = new JsonObject().put("name", page.getString("name")).put("content", page.getString("content"));
+        added = added.compose(v -> add(line, position -> position.getJsonObject("snapshot").put("afterId", page.getInteger("id"))));
+      }
+      if (batch.size() < batchSize) {
+        added.compose(v -> flush()).setHandler(done.completer());
+      } else {
+        added.setHandler(next -> {
+          if (next.failed()) {
+            done.fail(next.cause());
+          } else {
+            shipPages(batch.get(batch.size() - 1).getInteger("id"), done);
+          }
+        });
+      }
+    });
+  }
+
+  private void shipChanges(long afterSeq, Future<Void> done) {
+    dbService.fetchPageChanges(afterSeq, batchSize, ar -> {
+      if (ar.failed()) {
+        done.fail(ar.cause());
+        return;
+      }
+      List<JsonObject> batch = ar.result();
+      Future<Void> added = Future.succeededFuture();
+      for (JsonObject change : batch) {
+        JsonObject line = new JsonObject().put("name", change.getString("name"));
+        if (change.getBoolean("deleted")) {
+          line.put("deleted", true);
+        } else {
+          line.put("content", change.getString("content"));
+        }
+        added = added.compose(v -> add(line, position -> position.put("seq", change.getLong("seq"))));
+      }
+      if (batch.size() < batchSize) {
+        added.compose(v -> flush()).setHandler(done.completer());
+      } else {
+        added.setHandler(next -> {
+          if (next.failed()) {
+            done.fail(next.cause());
+          } else {
+            shipChanges(batch.get(batch.size() - 1).getLong("seq"), done);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Add a page to the current chunk, shipping the chunk first if the page would not fit.
+   *
+   * @param advance updates the manifest position once the page is shipped
+   */
+  private Future<Void> add(JsonObject line, PositionUpdate advance) {
+    Buffer encoded = line.toBuffer().appendString("\n");
+    Future<Void> room = !chunk.isEmpty() && chunk.bytes + encoded.length() > chunkBytes ? flush() : Future.succeededFuture();
+    return room.map(v -> {
+      chunk.put(line.getString("name"), encoded, advance);
+      return null;
+    });
+  }
+
+  private Future<Void> flush() {
+    if (chunk.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    Chunk shipped = chunk;
+    chunk = new Chunk();
+    int number = manifest.getInteger("chunks") + 1;
+    return sink.writeChunk(String.format("chunk-%08d.ndjson", number), shipped.toBuffer()).compose(v -> {
+      shipped.advance.update(manifest);
+      manifest.put("chunks", number).put("updated", System.currentTimeMillis());
+      chunks++;
+      pages += shipped.lines.size();
+      return sink.writeManifest(manifest);
+    });
+  }
+
+  @FunctionalInterface
+  private interface PositionUpdate {
+    void update(JsonObject manifest);
+  }
+
+  /**
+   * Pages waiting to be shipped, keeping only the latest line of a page changed several times.
+   */
+  private static final class Chunk {
+    private final Map<String, Buffer> lines = new LinkedHashMap<>();
+    private int bytes;
+    private PositionUpdate advance;
+
+    private void put(String name, Buffer line, PositionUpdate advance) {
+      Buffer previous = lines.remove(name);
+      if (previous != null) {
+        bytes -= previous.length();
+      }
+      lines.put(name, line);
+      bytes += line.length();
+      this.advance = advance;
+    }
+
+    private boolean isEmpty() {
+      return lines.isEmpty();
+    }
+
+    private Buffer toBuffer() {
+      Buffer buffer = Buffer.buffer(bytes);
+      lines.values().forEach(buffer::appendBuffer);
+      return buffer;
+    }
+  }
+}
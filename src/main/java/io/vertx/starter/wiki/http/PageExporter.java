@@ -0,0 +1,72 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+import io.vertx.starter.wiki.database.WikiDatabaseService;
+
+import java.util.List;
+
+/**
+ * Writes every page as newline-delimited JSON to a stream (HTTP response, file...).
+ * <p>
+ * Pages are fetched in id-ordered batches and the next batch is only requested once the destination stream has
+ * room for it, so memory use is bounded by the batch size rather than by the wiki size.
+ */
+class PageExporter {
+
+  private final WikiDatabaseService dbService;
+  private final int batchSize;
+  private final WriteStream<Buffer> destination;
+  private final Future<Long> result = Future.future();
+  private long count;
+
+  PageExporter(WikiDatabaseService dbService, int batchSize, WriteStream<Buffer> destination) {
+    this.dbService = dbService;
+    this.batchSize = batchSize;
+    this.destination = destination;
+  }
+
+  /**
+   * Start the export.
+   *
+   * @return a future completed with the number of exported pages once the last one has been written
+   */
+  Future<Long> export() {
+    destination.exceptionHandler(this::fail);
+    fetchBatch(-1);
+    return result;
+  }
+
+  private void fetchBatch(int afterId) {
+    dbService.exportPages(afterId, batchSize, ar -> {
+      if (ar.failed()) {
+        fail(ar.cause());
+        return;
+      }
+      List<JsonObject> pages = ar.result();
+      for (JsonObject page : pages) {
+        destination.write(Buffer.buffer(page.encode()).appendString("\n"));
+      }
+      count += pages.size();
+      if (pages.size() < batchSize) {
+        result.tryComplete(count);
+        return;
+      }
+      int lastId = pages.get(pages.size() - 1).getInteger("id");
+      if (destination.writeQueueFull()) {
+        destination.drainHandler(v -> {
+          destination.drainHandler(null);
+          fetchBatch(lastId);
+        });
+      } else {
+        fetchBatch(lastId);
+      }
+    });
+  }
+
+  private void fail(Throwable cause) {
+    result.tryFail(cause);
+  }
+}
@@ -0,0 +1,120 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.starter.wiki.database.WikiDatabaseService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates pages from a newline-delimited JSON stream, as produced by {@link PageExporter}.
+ * <p>
+ * Lines are grouped in batches handed to {@link WikiDatabaseService#createPages}; the source is paused while a batch
+ * is being written so that a large dump never sits in memory. A dump of more than {@code maxBytes} fails with a
+ * {@link BodyTooLargeException} once the chunk crossing the limit arrives, leaving the batches written so far in place.
+ */
+class PageImporter {
+
+  private final WikiDatabaseService dbService;
+  private final int batchSize;
+  private final long maxBytes;
+  private final ReadStream<Buffer> source;
+  private final Future<Long> result = Future.future();
+
+  private List<JsonObject> batch = new ArrayList<>();
+  private boolean flushing;
+  private boolean ended;
+  private long count;
+  private long received;
+
+  /**
+   * @param maxBytes the largest dump accepted, or -1 for no limit
+   */
+  PageImporter(WikiDatabaseService dbService, int batchSize, long maxBytes, ReadStream<Buffer> source) {
+    this.dbService = dbService;
+    this.batchSize = batchSize;
+    this.maxBytes = maxBytes;
+    this.source = source;
+  }
+
+  /**
+   * Start the import.
+   *
+   * @return a future completed with the number of created pages once the source has been fully consumed
+   */
+  Future<Long> importPages() {
+    RecordParser parser = RecordParser.newDelimited("\n", this::handleLine);
+    source.handler(chunk -> {
+      received += chunk.length();
+      if (maxBytes >= 0 && received > maxBytes) {
+        result.tryFail(new BodyTooLargeException(maxBytes));
+      } else if (!result.isComplete()) {
+        parser.handle(chunk);
+      }
+    });
+    source.exceptionHandler(result::tryFail);
+    source.endHandler(v -> {
+      // Terminate a last line that has no trailing newline
+      parser.handle(Buffer.buffer("\n"));
+      ended = true;
+      if (!flushing) {
+        flush();
+      }
+    });
+    return result;
+  }
+
+  private void handleLine(Buffer line) {
+    if (result.isComplete() || line.length() == 0) {
+      return;
+    }
+    try {
+      JsonObject page = new JsonObject(line.toString("UTF-8"));
+      batch.add(new JsonObject().put("name", page.getString("name")).put("content", page.getString("content")));
+    } catch (DecodeException | ClassCastException e) {
+      result.tryFail(e);
+      return;
+    }
+    if (batch.size() >= batchSize && !flushing) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    if (result.isComplete()) {
+      // Failed, pages still in the batch are dropped
+      return;
+    }
+    if (batch.isEmpty()) {
+      if (ended) {
+        result.tryComplete(count);
+      }
+      return;
+    }
+    flushing = true;
+    if (!ended) {
+      // Pausing an ended request would leave its keep-alive connection unable to read the next request
+      source.pause();
+    }
+    List<JsonObject> pages = batch;
+    batch = new ArrayList<>();
+    dbService.createPages(pages, ar -> {
+      flushing = false;
+      if (ar.failed()) {
+        result.tryFail(ar.cause());
+        return;
+      }
+      count += pages.size();
+      if (ended || batch.size() >= batchSize) {
+        flush();
+      } else {
+        source.resume();
+      }
+    });
+  }
+}
@@ -0,0 +1,29 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+
+/**
+ * LRU cache of markdown rendered to HTML, keyed by page name and content version.
+ * <p>
+ * One instance is shared by all {@link HttpServerVerticle} instances of a Vert.x instance through a local map.
+ */
+public class RenderedPageCache extends VersionedLruCache<String> {
+
+  private static final String SHARED_MAP_NAME = "wiki.http.cache";
+  private static final String SHARED_MAP_KEY = "rendered-pages";
+
+  public RenderedPageCache(int maxEntries, long maxBytes) {
+    super(maxEntries, maxBytes, html -> 2L * html.length());
+  }
+
+  /**
+   * Get the cache shared by every verticle of this Vert.x instance, creating it on first use.
+   */
+  public static RenderedPageCache shared(Vertx vertx, int maxEntries, long maxBytes) {
+    LocalMap<String, RenderedPageCache> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+    RenderedPageCache cache = new RenderedPageCache(maxEntries, maxBytes);
+    RenderedPageCache existing = map.putIfAbsent(SHARED_MAP_KEY, cache);
+    return existing != null ? existing : cache;
+  }
+}
@@ -0,0 +1,128 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads an {@code application/x-www-form-urlencoded} body as it arrives, decoding each field straight into a buffer of
+ * its own, rather than buffering the whole body to decode it afterwards.
+ * <p>
+ * Each field value is turned into a string once, when the body ends. A body of more than {@code maxBytes} fails with a
+ * {@link BodyTooLargeException} as soon as the chunk crossing the limit arrives, and the rest of it is ignored.
+ */
+class StreamingForm {
+
+  private final ReadStream<Buffer> source;
+  private final long maxBytes;
+  private final Future<Map<String, String>> result = Future.future();
+  private final Map<String, String> fields = new HashMap<>();
+
+  private Buffer name = Buffer.buffer();
+  // Null while the name of the field is being read
+  private Buffer value;
+  // Number of hex digits of a percent escape read so far, -1 outside of one
+  private int escapeDigits = -1;
+  private int escaped;
+  private long received;
+
+  /**
+   * @param maxBytes the largest body accepted, or -1 for no limit
+   */
+  StreamingForm(ReadStream<Buffer> source, long maxBytes) {
+    this.source = source;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Start reading the body.
+   *
+   * @return a future completed with the fields by name once the body has been fully read; when a field is repeated,
+   * only its first value is kept
+   */
+  Future<Map<String, String>> parse() {
+    source.handler(this::handleChunk);
+    source.exceptionHandler(result::tryFail);
+    source.endHandler(v -> {
+      if (result.isComplete()) {
+        return;
+      }
+      if (escapeDigits >= 0) {
+        result.tryFail(new IllegalArgumentException("Truncated percent escape"));
+        return;
+      }
+      endField();
+      result.tryComplete(fields);
+    });
+    return result;
+  }
+
+  private void handleChunk(Buffer chunk) {
+    if (result.isComplete()) {
+      return;
+    }
+    received += chunk.length();
+    if (maxBytes >= 0 && received > maxBytes) {
+      result.tryFail(new BodyTooLargeException(maxBytes));
+      return;
+    }
+    // Bytes that decode to themselves are copied in runs rather than one at a time
+    int run = 0;
+    for (int i = 0; i < chunk.length(); i++) {
+      byte b = chunk.getByte(i);
+      if (escapeDigits >= 0) {
+        int digit = Character.digit(b, 16);
+        if (digit < 0) {
+          result.tryFail(new IllegalArgumentException("Invalid percent escape"));
+          return;
+        }
+        escaped = escaped * 16 + digit;
+        if (++escapeDigits == 2) {
+          target().appendByte((byte) escaped);
+          escapeDigits = -1;
+        }
+        run = i + 1;
+        continue;
+      }
+      if (b != '&' && b != '=' && b != '+' && b != '%') {
+        continue;
+      }
+      target().appendBuffer(chunk, run, i - run);
+      run = i + 1;
+      switch (b) {
+        case '&':
+          endField();
+          break;
+        case '=':
+          if (value == null) {
+            value = Buffer.buffer();
+          } else {
+            value.appendByte(b);
+          }
+          break;
+        case '+':
+          target().appendByte((byte) ' ');
+          break;
+        default:
+          escapeDigits = 0;
+          escaped = 0;
+      }
+    }
+    target().appendBuffer(chunk, run, chunk.length() - run);
+  }
+
+  private Buffer target() {
+    return value == null ? name : value;
+  }
+
+  private void endField() {
+    if (name.length() > 0 || value != null) {
+      fields.putIfAbsent(name.toString("UTF-8"), value == null ? "" : value.toString("UTF-8"));
+    }
+    name = Buffer.buffer();
+    value = null;
+  }
+}
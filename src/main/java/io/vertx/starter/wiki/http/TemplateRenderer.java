@@ -0,0 +1,159 @@
+package io.vertx.starter.wiki.http;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * FreeMarker rendering of the {@code templates} classpath directory, with the data model of the Vert.x Web engine: the
+ * routing context data as {@code context}. JSON objects must be passed as maps.
+ * <p>
+ * Templates are compiled on first use and kept by a FreeMarker configuration shared by all {@link HttpServerVerticle}
+ * instances of a Vert.x instance through a local map. They are not checked for modifications unless
+ * {@code http.templates.update_delay_ms} is set, which is only useful while editing them.
+ */
+final class TemplateRenderer implements Shareable {
+
+  static final String CONFIG_HTTP_TEMPLATES_UPDATE_DELAY_MILLIS = "http.templates.update_delay_ms";
+  static final String CONFIG_HTTP_TEMPLATES_CHUNK_CHARS = "http.templates.chunk_chars";
+
+  private static final String SHARED_MAP_NAME = "wiki.http.templates";
+  private static final String SHARED_MAP_KEY = "renderer";
+
+  private final Configuration configuration;
+  private final int chunkChars;
+
+  TemplateRenderer(long updateDelayMillis, int chunkChars) {
+    configuration = new Configuration(Configuration.VERSION_2_3_22);
+    // Template data is made of strings, numbers, lists and maps, there is no need for a wrapper of JSON types
+    configuration.setObjectWrapper(new DefaultObjectWrapper(configuration.getIncompatibleImprovements()));
+    configuration.setTemplateLoader(new ClassTemplateLoader(TemplateRenderer.class, "/templates"));
+    configuration.setTemplateUpdateDelayMilliseconds(updateDelayMillis < 0 ? Long.MAX_VALUE : updateDelayMillis);
+    configuration.setDefaultEncoding("UTF-8");
+    configuration.setLocalizedLookup(false);
+    configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+    configuration.setLogTemplateExceptions(false);
+    this.chunkChars = chunkChars;
+  }
+
+  /**
+   * Get the renderer shared by every verticle of this Vert.x instance, creating it on first use.
+   */
+  static TemplateRenderer shared(Vertx vertx, JsonObject config) {
+    LocalMap<String, TemplateRenderer> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+    TemplateRenderer existing = map.get(SHARED_MAP_KEY);
+    if (existing != null) {
+      return existing;
+    }
+    TemplateRenderer renderer = new TemplateRenderer(config.getLong(CONFIG_HTTP_TEMPLATES_UPDATE_DELAY_MILLIS, -1L),
+      config.getInteger(CONFIG_HTTP_TEMPLATES_CHUNK_CHARS, 16384));
+    existing = map.putIfAbsent(SHARED_MAP_KEY, renderer);
+    return existing != null ? existing : renderer;
+  }
+
+  /**
+   * Render a template into a buffer, for responses that need the whole body, e.g. to compress it.
+   */
+  Buffer render(String template, Map<String, Object> data) throws IOException, TemplateException {
+    StringWriter writer = new StringWriter();
+    process(template, data, writer);
+    return Buffer.buffer(writer.toString(), "UTF-8");
+  }
+
+  /**
+   * Render a template into a response and end it. The body is written in chunks of about
+   * {@code http.templates.chunk_chars} characters as rendering goes, or at once with a content length when it fits in
+   * a single chunk; headers must hence all be set beforehand.
+   *
+   * @throws IOException or TemplateException if rendering fails; the response is left untouched if nothing was written
+   *                     yet, see {@link ResponseWriter#written()}
+   */
+  void render(String template, Map<String, Object> data, ResponseWriter writer) throws IOException, TemplateException {
+    process(template, data, writer);
+    writer.close();
+  }
+
+  ResponseWriter writer(HttpServerResponse response) {
+    return new ResponseWriter(response, chunkChars);
+  }
+
+  private void process(String template, Map<String, Object> data, Writer writer) throws IOException, TemplateException {
+    Template compiled = configuration.getTemplate(template.startsWith("/") ? template.substring(1) : template);
+    compiled.process(Collections.singletonMap("context", data), writer);
+  }
+
+  /**
+   * Writes characters to a response as UTF-8 chunks.
+   */
+  static final class ResponseWriter extends Writer {
+    private final HttpServerResponse response;
+    private final int chunkChars;
+    private final StringBuilder pending;
+    private boolean written;
+
+    private ResponseWriter(HttpServerResponse response, int chunkChars) {
+      this.response = response;
+      this.chunkChars = chunkChars;
+      this.pending = new StringBuilder(Math.min(chunkChars, 4096));
+    }
+
+    /**
+     * Whether part of the body was sent, after which a failure can only be reported by closing the connection.
+     */
+    boolean written() {
+      return written;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+      pending.append(chars, offset, length);
+      if (pending.length() >= chunkChars) {
+        writeChunk();
+      }
+    }
+
+    @Override
+    public void write(String text, int offset, int length) {
+      pending.append(text, offset, offset + length);
+      if (pending.length() >= chunkChars) {
+        writeChunk();
+      }
+    }
+
+    private void writeChunk() {
+      // A surrogate pair split across chunks would not encode, its first half waits for the next chunk
+      int end = Character.isHighSurrogate(pending.charAt(pending.length() - 1)) ? pending.length() - 1 : pending.length();
+      if (!written) {
+        response.setChunked(true);
+        written = true;
+      }
+      response.write(Buffer.buffer(pending.substring(0, end), "UTF-8"));
+      pending.delete(0, end);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+      response.end(Buffer.buffer(pending.toString(), "UTF-8"));
+      pending.setLength(0);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * LRU cache of values keyed by page name and content version, bounded both in entries and in bytes.
+ * <p>
+ * A page holds a single entry: putting a new version replaces the previous one, and getting any other version is a
+ * miss. The size of an entry is the size of its value, as given by the size function, plus that of the page name.
+ * Instances are meant to be shared by all {@link HttpServerVerticle} instances of a Vert.x instance through a local
+ * map, hence the synchronized accessors.
+ *
+ * @param <V> the type of the cached values
+ */
+public class VersionedLruCache<V> implements Shareable {
+
+  private final int maxEntries;
+  private final long maxBytes;
+  private final ToLongFunction<V> sizeOf;
+
+  private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param sizeOf the size in bytes of a value
+   */
+  public VersionedLruCache(int maxEntries, long maxBytes, ToLongFunction<V> sizeOf) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.sizeOf = sizeOf;
+  }
+
+  public synchronized V get(String page, String version) {
+    Entry<V> entry = entries.get(page);
+    if (entry != null && entry.version.equals(version)) {
+      hits.incrementAndGet();
+      return entry.value;
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public synchronized void put(String page, String version, V value) {
+    // Java strings are UTF-16 backed, roughly 2 bytes per char
+    Entry<V> entry = new Entry<>(version, value, 2L * page.length() + sizeOf.applyAsLong(value));
+    if (entry.size > maxBytes) {
+      return;
+    }
+    Entry<V> previous = entries.put(page, entry);
+    if (previous != null) {
+      bytes -= previous.size;
+    }
+    bytes += entry.size;
+    evict();
+  }
+
+  public synchronized void invalidate(String page) {
+    Entry<V> previous = entries.remove(page);
+    if (previous != null) {
+      bytes -= previous.size;
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  public synchronized JsonObject stats() {
+    return new JsonObject()
+      .put("entries", entries.size())
+      .put("bytes", bytes)
+      .put("maxEntries", maxEntries)
+      .put("maxBytes", maxBytes)
+      .put("hits", hits.get())
+      .put("misses", misses.get())
+      .put("evictions", evictions.get());
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Entry<V>>> iterator = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+      bytes -= iterator.next().getValue().size;
+      iterator.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private static final class Entry<V> {
+    private final String version;
+    private final V value;
+    private final long size;
+
+    private Entry(String version, V value, long size) {
+      this.version = version;
+      this.value = value;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package io.vertx.starter.wiki.metrics;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters, histograms and gauges exposed in the Prometheus text format.
+ * <p>
+ * One registry is shared by all verticles of a Vert.x instance through a local map. Metrics are looked up by name and
+ * labels once and then updated with {@link LongAdder}s, so recording never blocks an event loop.
+ */
+public class MetricsRegistry implements Shareable {
+
+  private static final String SHARED_MAP_NAME = "wiki.metrics";
+  private static final String SHARED_MAP_KEY = "registry";
+
+  /**
+   * Latency buckets in seconds, from half a millisecond to ten seconds.
+   */
+  public static final double[] SECONDS_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  public static final double[] ROWS_BUCKETS = {0, 1, 10, 100, 1000, 10000};
+
+  public static final double[] BYTES_BUCKETS = {256, 1024, 4096, 16384, 65536, 262144, 1048576};
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+  /**
+   * Get the registry shared by every verticle of this Vert.x instance, creating it on first use.
+   */
+  public static MetricsRegistry shared(Vertx vertx) {
+    LocalMap<String, MetricsRegistry> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+    MetricsRegistry registry = new MetricsRegistry();
+    MetricsRegistry existing = map.putIfAbsent(SHARED_MAP_KEY, registry);
+    return existing != null ? existing : registry;
+  }
+
+  /**
+   * @param labels label names and values, alternately
+   */
+  public Counter counter(String name, String help, String... labels) {
+    return (Counter) family(name, help, "counter").metrics.computeIfAbsent(labels(labels), key -> new Counter());
+  }
+
+  /**
+   * A histogram of durations recorded in nanoseconds and exported in seconds.
+   */
+  public Histogram timer(String name, String help, String... labels) {
+    return histogram(name, help, SECONDS_BUCKETS, 1 / NANOS_PER_SECOND, labels);
+  }
+
+  public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+    return histogram(name, help, buckets, 1, labels);
+  }
+
+  private Histogram histogram(String name, String help, double[] buckets, double scale, String... labels) {
+    return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(labels(labels), key -> new Histogram(buckets, scale));
+  }
+
+  /**
+   * Register a value read when metrics are scraped; a gauge registered again under the same name and labels replaces
+   * the previous one.
+   */
+  public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+    family(name, help, "gauge").metrics.put(labels(labels), new Gauge(value));
+  }
+
+  /**
+   * Wrap a service so that the time from each call to its result handler being invoked is recorded in a timer, labelled
+   * with {@code label} set to the method name. Calls that fail are also counted in {@code <name>_errors_total}, without
+   * the {@code _seconds} suffix.
+   * <p>
+   * Every method taking a result handler as its last argument is timed; fluent methods return the wrapper.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T timed(Class<T> type, T delegate, String name, String help, String label) {
+    Map<Method, Histogram> timers = new HashMap<>();
+    Map<Method, Counter> errors = new HashMap<>();
+    String errorsName = name.replaceFirst("_seconds$", "") + "_errors_total";
+    for (Method method : type.getMethods()) {
+      Class<?>[] parameters = method.getParameterTypes();
+      if (parameters.length > 0 && parameters[parameters.length - 1] == Handler.class) {
+        timers.put(method, timer(name, help, label, method.getName()));
+        errors.put(method, counter(errorsName, "Failed calls", label, method.getName()));
+      }
+    }
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+      Histogram timer = timers.get(method);
+      if (timer != null) {
+        Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) args[args.length - 1];
+        Counter counter = errors.get(method);
+        long start = System.nanoTime();
+        args[args.length - 1] = (Handler<AsyncResult<Object>>) ar -> {
+          timer.record(System.nanoTime() - start);
+          if (ar.failed()) {
+            counter.inc();
+          }
+          handler.handle(ar);
+        };
+      }
+      try {
+        Object result = method.invoke(delegate, args);
+        return result == delegate ? self : result;
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    });
+  }
+
+  /**
+   * Render every metric in the Prometheus text exposition format, version 0.0.4.
+   */
+  public String scrape() {
+    StringBuilder out = new StringBuilder();
+    families.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
+      String name = entry.getKey();
+      Family family = entry.getValue();
+      out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+      family.metrics.entrySet().stream().sorted(Map.Entry.comparingByKey())
+        .forEach(metric -> metric.getValue().write(out, name, metric.getKey()));
+    });
+    return out.toString();
+  }
+
+  private Family family(String name, String help, String type) {
+    Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+    }
+    return family;
+  }
+
+  private static String labels(String... labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be name and value pairs");
+    }
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        out.append(',');
+      }
+      out.append(labels[i]).append("=\"");
+      String value = labels[i + 1] == null ? "" : labels[i + 1];
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        if (c == '\\' || c == '"') {
+          out.append('\\').append(c);
+        } else if (c == '\n') {
+          out.append("\\n");
+        } else {
+          out.append(c);
+        }
+      }
+      out.append('"');
+    }
+    return out.toString();
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, String extraLabel, double value) {
+    out.append(name);
+    if (!labels.isEmpty() || extraLabel != null) {
+      out.append('{').append(labels);
+      if (extraLabel != null) {
+        out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+      }
+      out.append('}');
+    }
+    out.append(' ');
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      out.append((long) value);
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+  }
+
+  private static final class Family {
+    private final String help;
+    private final String type;
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private Family(String help, String type) {
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  private interface Metric {
+    void write(StringBuilder out, String name, String labels);
+  }
+
+  public static final class Counter implements Metric {
+    private final LongAdder value = new LongAdder();
+
+    private Counter() {
+    }
+
+    public void inc() {
+      value.increment();
+    }
+
+    public void inc(long amount) {
+      value.add(amount);
+    }
+
+    public long get() {
+      return value.sum();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+      sample(out, name, labels, null, value.sum());
+    }
+  }
+
+  public static final class Histogram implements Metric {
+    private final String[] bucketLabels;
+    private final long[] bounds;
+    private final double scale;
+    private final LongAdder[] counts;
+    private final LongAdder sum = new LongAdder();
+
+    private Histogram(double[] buckets, double scale) {
+      this.scale = scale;
+      // Compare raw values against bounds in the recorded unit, so that recording needs no floating point
+      this.bounds = new long[buckets.length];
+      this.bucketLabels = new String[buckets.length];
+      for (int i = 0; i < buckets.length; i++) {
+        bounds[i] = Math.round(buckets[i] / scale);
+        bucketLabels[i] = "le=\"" + BigDecimal.valueOf(buckets[i]).stripTrailingZeros().toPlainString() + "\"";
+      }
+      this.counts = new LongAdder[buckets.length + 1];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * @param value a duration in nanoseconds for timers, a plain amount otherwise
+     */
+    public void record(long value) {
+      int i = 0;
+      while (i < bounds.length && value > bounds[i]) {
+        i++;
+      }
+      counts[i].increment();
+      sum.add(value);
+    }
+
+    public long count() {
+      long count = 0;
+      for (LongAdder bucket : counts) {
+        count += bucket.sum();
+      }
+      return count;
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+      long cumulative = 0;
+      for (int i = 0; i < bounds.length; i++) {
+        cumulative += counts[i].sum();
+        sample(out, name + "_bucket", labels, bucketLabels[i], cumulative);
+      }
+      cumulative += counts[bounds.length].sum();
+      sample(out, name + "_bucket", labels, "le=\"+Inf\"", cumulative);
+      sample(out, name + "_sum", labels, null, sum.sum() * scale);
+      sample(out, name + "_count", labels, null, cumulative);
+    }
+  }
+
+  private static final class Gauge implements Metric {
+    private final DoubleSupplier value;
+
+    private Gauge(DoubleSupplier value) {
+      this.value = value;
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+      sample(out, name, labels, null, value.getAsDouble());
+    }
+  }
+}
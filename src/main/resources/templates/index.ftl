@@ -10,10 +10,30 @@
         </div>
         <button type="submit" class="btn btn-primary">Create</button>
       </form>
+      <form class="form-inline mt-1" action="/search" method="get">
+        <div class="form-group">
+          <input type="search" class="form-control" id="q" name="q" placeholder="Search">
+        </div>
+        <button type="submit" class="btn btn-outline-primary">Search</button>
+      </form>
     </div>
     <h1 class="display-4">${context.title}</h1>
   </div>
 
+  <#if context.backup_file??>
+  <div class="col-md-12 mt-1">
+    <div class="alert alert-success" role="alert">Wiki backed up to <code>${context.backup_file}</code></div>
+  </div>
+  <#elseif context.backup_incremental??>
+  <div class="col-md-12 mt-1">
+    <div class="alert alert-success" role="alert">Wiki backed up: ${context.backup_incremental}</div>
+  </div>
+  <#elseif context.backup_gist_url??>
+  <div class="col-md-12 mt-1">
+    <div class="alert alert-success" role="alert">Wiki backed up to <a href="${context.backup_gist_url}">${context.backup_gist_url}</a></div>
+  </div>
+  </#if>
+
   <div class="col-md-12 mt-1">
   <#list context.pages>
     <h2>Pages:</h2>
@@ -25,6 +45,18 @@
   <#else>
     <p>The wiki is currently empty!</p>
   </#list>
+  <#if !context.firstPage || context.nextAfter??>
+    <nav>
+      <ul class="pagination">
+      <#if !context.firstPage>
+        <li class="page-item"><a class="page-link" href="/">First</a></li>
+      </#if>
+      <#if context.nextAfter??>
+        <li class="page-item"><a class="page-link" href="/?after=${context.nextAfter?url('UTF-8')}">Next</a></li>
+      </#if>
+      </ul>
+    </nav>
+  </#if>
   </div>
 
 </div>
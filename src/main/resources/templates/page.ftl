@@ -22,7 +22,8 @@
   <div class="col-md-12 collapsable collapse clearfix" id="editor">
     <form action="/save" method="post">
       <div class="form-group">
-        <input type="hidden" name="id" value="${context.id}">
+        <input type="hidden" name="id" value="${context.id?c}">
+        <input type="hidden" name="revision" value="${context.revision?c}">
         <input type="hidden" name="title" value="${context.title}">
         <input type="hidden" name="newPage" value="${context.newPage}">
         <textarea class="form-control" id="markdown" name="markdown" rows="15">${context.rawContent}</textarea>
@@ -36,7 +37,8 @@
 
   <div class="col-md-12 mt-1">
     <hr class="mt-1">
-    <p class="small">Rendered: ${context.timestamp}</p>
+    <p class="small">Last modified: ${context.modified}<#if context.revision gt 1>, revision ${context.revision}
+      (<a href="/diff/${context.title}">changes</a>)</#if></p>
   </div>
 
 </div>
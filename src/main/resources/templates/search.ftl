@@ -0,0 +1,37 @@
+<#include "header.ftl">
+
+<div class="row">
+
+  <div class="col-md-12 mt-1">
+    <div class="float-xs-right">
+      <form class="form-inline" action="/search" method="get">
+        <div class="form-group">
+          <input type="search" class="form-control" id="q" name="q" value="${context.query?html}" placeholder="Search">
+        </div>
+        <button type="submit" class="btn btn-primary">Search</button>
+        <a class="btn btn-outline-primary" href="/" role="button" aria-pressed="true">Home</a>
+      </form>
+    </div>
+    <h1 class="display-4">${context.title}</h1>
+  </div>
+
+  <div class="col-md-12 mt-1">
+  <#list context.results>
+    <ul>
+      <#items as result>
+        <li><a href="/wiki/${result.name}">${result.name}</a></li>
+      </#items>
+    </ul>
+  <#else>
+    <p>No page matches <em>${context.query?html}</em>.</p>
+  </#list>
+  </div>
+
+  <div class="col-md-12 mt-1">
+    <hr class="mt-1">
+    <p class="small">Search took ${context.tookMicros?c}&micro;s</p>
+  </div>
+
+</div>
+
+<#include "footer.ftl">
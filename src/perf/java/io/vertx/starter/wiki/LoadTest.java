@@ -0,0 +1,372 @@
+package io.vertx.starter.wiki;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.starter.wiki.database.WikiDatabaseService;
+import io.vertx.starter.wiki.database.WikiDatabaseVerticle;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end HTTP load test: boots {@link MainVerticle} against an in-memory HSQLDB, seeds pages through
+ * {@code /import} and drives a read/write mix with a fixed number of concurrent connections for a fixed duration.
+ * <p>
+ * Options ({@code -name value}):
+ * <ul>
+ * <li>{@code -pages} number of seeded pages (1000)</li>
+ * <li>{@code -size} approximate markdown size of a page in characters (4096)</li>
+ * <li>{@code -connections} concurrent connections, each issuing its next request when the previous one completes (32)</li>
+ * <li>{@code -threads} client event loops the connections are spread over (2)</li>
+ * <li>{@code -timeout} request timeout in milliseconds, a timed out request counts as an error (10000)</li>
+ * <li>{@code -duration} measured seconds (30), after {@code -warmup} seconds (10) that are not recorded</li>
+ * <li>{@code -mix} operation weights among read, index, search, write and delete (read:80,index:10,search:4,write:5,delete:1)</li>
+ * <li>{@code -config} JSON merged into the application config, e.g. {@code {"wikidb.jdbc.max_pool_size":10}}</li>
+ * <li>{@code -port} HTTP port (8080) and {@code -output} JSON report file (target/load-result.json)</li>
+ * </ul>
+ * Since the load is closed-loop, latencies do not include time spent waiting to send when the server falls behind:
+ * compare throughput together with the percentiles.
+ */
+public class LoadTest {
+
+  private static final String[] SEARCH_TERMS = {"vert", "reactive", "cache", "latency", "router"};
+
+  private final Map<String, String> options;
+  private final int pages;
+  private final int size;
+  private final int connections;
+  private final int threads;
+  private final int port;
+  private final long timeout;
+
+  private final Map<String, Operation> operations = new LinkedHashMap<>();
+  private final List<Operation> weighted = new ArrayList<>();
+
+  private Vertx serverVertx;
+  private Vertx clientVertx;
+  private final List<Loop> loops = new ArrayList<>();
+  private WikiDatabaseService dbService;
+  private final List<Integer> pageIds = new ArrayList<>();
+  private final AtomicLong tmpPages = new AtomicLong();
+
+  private volatile boolean recording;
+  private volatile long deadline;
+
+  private LoadTest(Map<String, String> options) {
+    this.options = options;
+    this.pages = Integer.parseInt(options.getOrDefault("pages", "1000"));
+    this.size = Integer.parseInt(options.getOrDefault("size", "4096"));
+    this.connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+    this.threads = Math.min(connections, Integer.parseInt(options.getOrDefault("threads", "2")));
+    this.port = Integer.parseInt(options.getOrDefault("port", "8080"));
+    this.timeout = Long.parseLong(options.getOrDefault("timeout", "10000"));
+
+    operations.put("read", new Operation("read", this::read));
+    operations.put("index", new Operation("index", this::index));
+    operations.put("search", new Operation("search", this::search));
+    operations.put("write", new Operation("write", this::write));
+    operations.put("delete", new Operation("delete", this::delete));
+    for (String entry : options.getOrDefault("mix", "read:80,index:10,search:4,write:5,delete:1").split(",")) {
+      String[] weight = entry.split(":");
+      Operation operation = operations.get(weight[0].trim());
+      if (operation == null) {
+        throw new IllegalArgumentException("Unknown operation " + weight[0]);
+      }
+      for (int i = 0; i < Integer.parseInt(weight[1].trim()); i++) {
+        weighted.add(operation);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+    }
+    LoadTest test = new LoadTest(options);
+    try {
+      test.run();
+    } finally {
+      test.close();
+    }
+  }
+
+  private void run() throws Exception {
+    JsonObject config = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:loadtest;shutdown=true")
+      .put("http.server.port", port)
+      .mergeIn(new JsonObject(options.getOrDefault("config", "{}")));
+
+    serverVertx = Vertx.vertx();
+    CompletableFuture<String> deployed = new CompletableFuture<>();
+    serverVertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(config), complete(deployed));
+    deployed.get();
+    dbService = WikiDatabaseService.createProxy(serverVertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+
+    // The client gets its own event loops so that it does not compete with the server verticles, and one web client
+    // per loop since HTTP connections are bound to the context they were opened from
+    clientVertx = Vertx.vertx();
+    for (int i = 0; i < threads; i++) {
+      loops.add(new Loop(clientVertx.getOrCreateContext(), WebClient.create(clientVertx, new WebClientOptions()
+        .setDefaultPort(port)
+        .setFollowRedirects(false)
+        .setMaxPoolSize((connections + threads - 1) / threads)
+        .setKeepAlive(true))));
+    }
+
+    seed();
+
+    System.out.printf("Warming up for %ss...%n", options.getOrDefault("warmup", "10"));
+    drive(Integer.parseInt(options.getOrDefault("warmup", "10")));
+    operations.values().forEach(Operation::reset);
+    recording = true;
+    System.out.printf("Running for %ss with %d connections...%n", options.getOrDefault("duration", "30"), connections);
+    long start = System.nanoTime();
+    drive(Integer.parseInt(options.getOrDefault("duration", "30")));
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    report(config, seconds);
+  }
+
+  private void close() throws Exception {
+    for (Vertx vertx : new Vertx[]{clientVertx, serverVertx}) {
+      if (vertx != null) {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(complete(closed));
+        closed.get(10, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private void seed() throws Exception {
+    Buffer dump = Buffer.buffer();
+    for (int i = 0; i < pages; i++) {
+      dump.appendString(new JsonObject().put("name", name(i)).put("content", SampleMarkdown.generate(size, i)).encode()).appendString("\n");
+    }
+    CompletableFuture<HttpResponse<Buffer>> imported = new CompletableFuture<>();
+    Loop loop = loops.get(0);
+    loop.context.runOnContext(v -> loop.client.post("/import").sendBuffer(dump, complete(imported)));
+    if (imported.get().statusCode() != 200) {
+      throw new IllegalStateException("Seeding failed: " + imported.get().statusCode());
+    }
+    CompletableFuture<List<JsonObject>> exported = new CompletableFuture<>();
+    dbService.exportPages(-1, pages, complete(exported));
+    exported.get().forEach(page -> pageIds.add(page.getInteger("id")));
+    System.out.printf("Seeded %d pages of ~%d characters%n", pageIds.size(), size);
+  }
+
+  private void drive(int seconds) throws InterruptedException {
+    deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    CountDownLatch done = new CountDownLatch(connections);
+    for (int i = 0; i < connections; i++) {
+      Loop loop = loops.get(i % threads);
+      Random random = new Random(i);
+      loop.context.runOnContext(v -> next(loop, random, done));
+    }
+    done.await();
+  }
+
+  private void next(Loop loop, Random random, CountDownLatch done) {
+    if (System.nanoTime() >= deadline) {
+      done.countDown();
+      return;
+    }
+    Operation operation = weighted.get(random.nextInt(weighted.size()));
+    long start = System.nanoTime();
+    operation.action.run(loop, random, ar -> {
+      operation.record(System.nanoTime() - start, ar.succeeded() && ar.result() < 400);
+      next(loop, random, done);
+    });
+  }
+
+  private void read(Loop loop, Random random, Handler<AsyncResult<Integer>> handler) {
+    loop.client.get("/wiki/" + name(random.nextInt(pages))).timeout(timeout).send(status(handler));
+  }
+
+  private void index(Loop loop, Random random, Handler<AsyncResult<Integer>> handler) {
+    loop.client.get("/").timeout(timeout).send(status(handler));
+  }
+
+  private void search(Loop loop, Random random, Handler<AsyncResult<Integer>> handler) {
+    loop.client.get("/search").addQueryParam("q", SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)]).timeout(timeout).send(status(handler));
+  }
+
+  /**
+   * Saves a page over its current revision, as a user editing it would; concurrent writes to the same page may still
+   * conflict and count as errors.
+   */
+  private void write(Loop loop, Random random, Handler<AsyncResult<Integer>> handler) {
+    int page = random.nextInt(pageIds.size());
+    String markdown = SampleMarkdown.generate(size, random.nextLong());
+    dbService.fetchPage(name(page), fetched -> {
+      if (fetched.failed()) {
+        loop.context.runOnContext(v -> handler.handle(fetched.map(-1)));
+        return;
+      }
+      MultiMap form = MultiMap.caseInsensitiveMultiMap()
+        .add("id", String.valueOf(pageIds.get(page)))
+        .add("revision", String.valueOf(fetched.result().getInteger("revision")))
+        .add("title", name(page))
+        .add("newPage", "no")
+        .add("markdown", markdown);
+      loop.context.runOnContext(v -> loop.client.post("/save").timeout(timeout).sendForm(form, status(handler)));
+    });
+  }
+
+  /**
+   * Deletes a page created for the occasion; only the {@code /delete} request is timed by the caller, but creating the
+   * page goes through the same database and does add load.
+   */
+  private void delete(Loop loop, Random random, Handler<AsyncResult<Integer>> handler) {
+    String title = "Tmp" + tmpPages.incrementAndGet();
+    dbService.createPage(title, "Temporary page", created -> {
+      if (created.failed()) {
+        loop.context.runOnContext(v -> handler.handle(created.map(-1)));
+        return;
+      }
+      dbService.fetchPage(title, fetched -> {
+        if (fetched.failed()) {
+          loop.context.runOnContext(v -> handler.handle(fetched.map(-1)));
+          return;
+        }
+        MultiMap form = MultiMap.caseInsensitiveMultiMap()
+          .add("id", String.valueOf(fetched.result().getInteger("id")))
+          .add("title", title);
+        // Back to the loop, database replies are delivered on the server event loops
+        loop.context.runOnContext(v -> loop.client.post("/delete").timeout(timeout).sendForm(form, status(handler)));
+      });
+    });
+  }
+
+  private void report(JsonObject config, double seconds) throws Exception {
+    JsonObject result = new JsonObject()
+      .put("pages", pages)
+      .put("size", size)
+      .put("connections", connections)
+      .put("seconds", seconds)
+      .put("config", config);
+    JsonArray results = new JsonArray();
+    Histogram total = new Histogram(3);
+    long totalErrors = 0;
+
+    System.out.printf("%n%-8s %10s %8s %10s %10s %10s %10s %10s%n", "op", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+    for (Operation operation : operations.values()) {
+      if (operation.histogram.getTotalCount() == 0) {
+        continue;
+      }
+      results.add(operation.print(seconds));
+      total.add(operation.histogram);
+      totalErrors += operation.errors.get();
+    }
+    Operation all = new Operation("all", null);
+    all.histogram.add(total);
+    all.errors.set(totalErrors);
+    result.put("total", all.print(seconds));
+    result.put("operations", results);
+
+    File output = new File(options.getOrDefault("output", "target/load-result.json"));
+    if (output.getParentFile() != null) {
+      output.getParentFile().mkdirs();
+    }
+    Files.write(output.toPath(), result.encodePrettily().getBytes("UTF-8"));
+    System.out.printf("%nReport written to %s%n", output);
+  }
+
+  private static String name(int i) {
+    return String.format("Page%05d", i);
+  }
+
+  private static Handler<AsyncResult<HttpResponse<Buffer>>> status(Handler<AsyncResult<Integer>> handler) {
+    return ar -> handler.handle(ar.map(HttpResponse::statusCode));
+  }
+
+  private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+    return ar -> {
+      if (ar.succeeded()) {
+        future.complete(ar.result());
+      } else {
+        future.completeExceptionally(ar.cause());
+      }
+    };
+  }
+
+  @FunctionalInterface
+  private interface Action {
+    void run(Loop loop, Random random, Handler<AsyncResult<Integer>> handler);
+  }
+
+  private static final class Loop {
+    private final Context context;
+    private final WebClient client;
+
+    private Loop(Context context, WebClient client) {
+      this.context = context;
+      this.client = client;
+    }
+  }
+
+  private final class Operation {
+    private final String name;
+    private final Action action;
+    // Microseconds, up to one minute with 3 significant digits
+    private final Histogram histogram = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+    private final AtomicLong errors = new AtomicLong();
+
+    private Operation(String name, Action action) {
+      this.name = name;
+      this.action = action;
+    }
+
+    private void record(long nanos, boolean success) {
+      if (!recording) {
+        return;
+      }
+      histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), histogram.getHighestTrackableValue()));
+      if (!success) {
+        errors.incrementAndGet();
+      }
+    }
+
+    private void reset() {
+      histogram.reset();
+      errors.set(0);
+    }
+
+    private JsonObject print(double seconds) {
+      long count = histogram.getTotalCount();
+      JsonObject json = new JsonObject()
+        .put("operation", name)
+        .put("count", count)
+        .put("errors", errors.get())
+        .put("throughput", count / seconds)
+        .put("p50", histogram.getValueAtPercentile(50) / 1000.0)
+        .put("p99", histogram.getValueAtPercentile(99) / 1000.0)
+        .put("p999", histogram.getValueAtPercentile(99.9) / 1000.0)
+        .put("max", histogram.getMaxValue() / 1000.0);
+      System.out.printf("%-8s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n", name, count, errors.get(), json.getDouble("throughput"),
+        json.getDouble("p50"), json.getDouble("p99"), json.getDouble("p999"), json.getDouble("max"));
+      return json;
+    }
+  }
+}
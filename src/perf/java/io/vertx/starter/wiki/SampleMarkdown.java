@@ -0,0 +1,54 @@
+package io.vertx.starter.wiki;
+
+import java.util.Random;
+
+/**
+ * Deterministic markdown documents for benchmarks and load tests, so that runs on different commits see the same input.
+ */
+public final class SampleMarkdown {
+
+  private static final String[] WORDS = {
+    "vert.x", "wiki", "reactive", "event", "loop", "verticle", "page", "markdown", "database", "query",
+    "handler", "future", "buffer", "template", "router", "cluster", "latency", "throughput", "cache", "index"
+  };
+
+  private SampleMarkdown() {
+  }
+
+  /**
+   * Generate a document of roughly {@code size} characters with headings, paragraphs, lists, emphasis and links.
+   */
+  public static String generate(int size, long seed) {
+    Random random = new Random(seed);
+    StringBuilder markdown = new StringBuilder(size + 256);
+    int section = 0;
+    while (markdown.length() < size) {
+      markdown.append("## Section ").append(++section).append("\n\n");
+      for (int paragraph = 0; paragraph < 3 && markdown.length() < size; paragraph++) {
+        for (int word = 0; word < 60; word++) {
+          String token = WORDS[random.nextInt(WORDS.length)];
+          switch (random.nextInt(12)) {
+            case 0:
+              markdown.append('*').append(token).append('*');
+              break;
+            case 1:
+              markdown.append("[").append(token).append("](/wiki/").append(token).append(')');
+              break;
+            case 2:
+              markdown.append('`').append(token).append('`');
+              break;
+            default:
+              markdown.append(token);
+          }
+          markdown.append(' ');
+        }
+        markdown.append("\n\n");
+      }
+      for (int item = 0; item < 4; item++) {
+        markdown.append("- ").append(WORDS[random.nextInt(WORDS.length)]).append('\n');
+      }
+      markdown.append('\n');
+    }
+    return markdown.toString();
+  }
+}
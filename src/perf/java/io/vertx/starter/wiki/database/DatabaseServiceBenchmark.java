@@ -0,0 +1,158 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.starter.wiki.SampleMarkdown;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WikiDatabaseService} backends called directly (no event bus), seeded with a fixed set of pages:
+ * {@link WikiDatabaseServiceImpl} against an in-memory HSQLDB, and {@link LogWikiDatabaseService} against a page log
+ * in a temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class DatabaseServiceBenchmark {
+
+  @Param({"jdbc", "log"})
+  public String backend;
+
+  @Param({"1000"})
+  public int pageCount;
+
+  @Param({"4096"})
+  public int size;
+
+  private Vertx vertx;
+  private Context context;
+  private LogStore logStore;
+  private File logFile;
+  private WikiDatabaseService service;
+  private final Random random = new Random(42);
+  private int savedPageId;
+  private int savedRevision;
+
+  @Setup
+  public void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    context = vertx.getOrCreateContext();
+    service = "log".equals(backend) ? createLogService() : createJdbcService();
+
+    List<JsonObject> pages = new ArrayList<>();
+    for (int i = 0; i < pageCount; i++) {
+      pages.add(new JsonObject().put("name", name(i)).put("content", SampleMarkdown.generate(size, i)));
+    }
+    CompletableFuture<Void> seeded = new CompletableFuture<>();
+    context.runOnContext(v -> service.createPages(pages, complete(seeded)));
+    seeded.get();
+
+    JsonObject saved = fetchPage();
+    savedPageId = saved.getInteger("id");
+    savedRevision = saved.getInteger("revision");
+  }
+
+  private WikiDatabaseService createJdbcService() throws Exception {
+    JsonObject config = new JsonObject()
+      .put("url", "jdbc:hsqldb:mem:benchmark;shutdown=true")
+      .put("driver_class", "org.hsqldb.jdbcDriver")
+      .put("max_pool_size", 8);
+    JDBCClient jdbcClient = JDBCClient.createShared(vertx, config);
+
+    SqlQueries sqlQueries = SqlQueries.load(null, null);
+    CompletableFuture<WikiDatabaseService> created = new CompletableFuture<>();
+    context.runOnContext(v -> {
+      MetricsRegistry metrics = new MetricsRegistry();
+      WikiDatabaseService.create(jdbcClient, sqlQueries, new SearchIndex(), new MarkdownRenderer(vertx, new JsonObject(), metrics), metrics, new JsonObject(), complete(created));
+    });
+    return created.get();
+  }
+
+  private WikiDatabaseService createLogService() throws Exception {
+    logFile = File.createTempFile("benchmark", ".log");
+    logStore = new LogStore(logFile, false);
+    CompletableFuture<WikiDatabaseService> created = new CompletableFuture<>();
+    context.runOnContext(v -> {
+      LogWikiDatabaseService logService = new LogWikiDatabaseService(vertx, logStore, new SearchIndex(), new LinkIndex(),
+        new MarkdownRenderer(vertx, new JsonObject(), new MetricsRegistry()));
+      logService.prepare().setHandler(ar -> complete(created).handle(ar.map((WikiDatabaseService) logService)));
+    });
+    return created.get();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    vertx.close();
+    if (logStore != null) {
+      logStore.close();
+      Files.deleteIfExists(logFile.toPath());
+    }
+  }
+
+  @Benchmark
+  public JsonObject fetchPage() throws Exception {
+    String name = name(random.nextInt(pageCount));
+    CompletableFuture<JsonObject> result = new CompletableFuture<>();
+    context.runOnContext(v -> service.fetchPage(name, complete(result)));
+    return result.get();
+  }
+
+  @Benchmark
+  public JsonArray fetchPages() throws Exception {
+    CompletableFuture<JsonArray> result = new CompletableFuture<>();
+    context.runOnContext(v -> service.fetchPages(null, 50, complete(result)));
+    return result.get();
+  }
+
+  @Benchmark
+  public Void savePage() throws Exception {
+    String markdown = SampleMarkdown.generate(size, random.nextInt());
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    context.runOnContext(v -> service.savePage(savedPageId, savedRevision, markdown, complete(result)));
+    result.get();
+    savedRevision++;
+    return null;
+  }
+
+  private static String name(int i) {
+    return String.format("Page %05d", i);
+  }
+
+  private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+    return ar -> {
+      if (ar.succeeded()) {
+        future.complete(ar.result());
+      } else {
+        future.completeExceptionally(ar.cause());
+      }
+    };
+  }
+}
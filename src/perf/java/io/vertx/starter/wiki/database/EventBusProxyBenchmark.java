@@ -0,0 +1,149 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.starter.wiki.SampleMarkdown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of going through {@link WikiDatabaseServiceVertxEBProxy} and the generated proxy handler, or through
+ * {@link LocalDelivery}, compared to calling the same service directly. The service is an in-memory stub so that only
+ * event-bus dispatch, JSON encoding and copying are measured; run with {@code -prof gc} to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class EventBusProxyBenchmark {
+
+  private static final String ADDRESS = "benchmark.wikidb.queue";
+
+  @Param({"1024", "65536"})
+  public int size;
+
+  private Vertx vertx;
+  private Context context;
+  private WikiDatabaseService stub;
+  private WikiDatabaseService proxy;
+  private WikiDatabaseService localProxy;
+
+  @Setup
+  public void setUp() {
+    JsonObject page = new JsonObject()
+      .put("found", true)
+      .put("id", 1)
+      .put("rawContent", SampleMarkdown.generate(size, 42))
+      .put("revision", 1)
+      .put("modified", 0L);
+    JsonArray names = new JsonArray();
+    for (int i = 0; i < 50; i++) {
+      names.add(String.format("Page %05d", i));
+    }
+    stub = stub(page, names);
+
+    vertx = Vertx.vertx();
+    context = vertx.getOrCreateContext();
+    new ServiceBinder(vertx).setAddress(ADDRESS).register(WikiDatabaseService.class, stub);
+    proxy = WikiDatabaseService.createProxy(vertx, ADDRESS);
+    LocalDelivery.register(vertx, ADDRESS, stub, (action, nanos) -> {
+    });
+    localProxy = WikiDatabaseService.createLocalProxy(vertx, ADDRESS);
+  }
+
+  @TearDown
+  public void tearDown() {
+    vertx.close();
+  }
+
+  @Benchmark
+  public JsonObject fetchPageDirect() throws Exception {
+    return fetchPage(stub);
+  }
+
+  @Benchmark
+  public JsonObject fetchPageProxy() throws Exception {
+    return fetchPage(proxy);
+  }
+
+  @Benchmark
+  public JsonObject fetchPageLocal() throws Exception {
+    return fetchPage(localProxy);
+  }
+
+  @Benchmark
+  public JsonArray fetchPagesProxy() throws Exception {
+    return fetchPages(proxy);
+  }
+
+  @Benchmark
+  public JsonArray fetchPagesLocal() throws Exception {
+    return fetchPages(localProxy);
+  }
+
+  private JsonArray fetchPages(WikiDatabaseService service) throws Exception {
+    CompletableFuture<JsonArray> result = new CompletableFuture<>();
+    context.runOnContext(v -> service.fetchPages(null, 50, complete(result)));
+    return result.get();
+  }
+
+  private JsonObject fetchPage(WikiDatabaseService service) throws Exception {
+    CompletableFuture<JsonObject> result = new CompletableFuture<>();
+    context.runOnContext(v -> service.fetchPage("Benchmark", complete(result)));
+    return result.get();
+  }
+
+  private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+    return ar -> {
+      if (ar.succeeded()) {
+        future.complete(ar.result());
+      } else {
+        future.completeExceptionally(ar.cause());
+      }
+    };
+  }
+
+  /**
+   * A service answering {@code fetchPage} and {@code fetchPages} with fixed payloads, and failing anything else.
+   */
+  @SuppressWarnings("unchecked")
+  private static WikiDatabaseService stub(JsonObject page, JsonArray names) {
+    return (WikiDatabaseService) Proxy.newProxyInstance(WikiDatabaseService.class.getClassLoader(),
+      new Class<?>[]{WikiDatabaseService.class}, (self, method, args) -> {
+        Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) args[args.length - 1];
+        switch (method.getName()) {
+          case "fetchPage":
+            handler.handle(Future.succeededFuture(page));
+            break;
+          case "fetchPages":
+            handler.handle(Future.succeededFuture(names));
+            break;
+          default:
+            handler.handle(Future.failedFuture(new UnsupportedOperationException(method.getName())));
+        }
+        return self;
+      });
+  }
+}
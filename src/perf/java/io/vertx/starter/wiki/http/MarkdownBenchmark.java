@@ -0,0 +1,44 @@
+package io.vertx.starter.wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.starter.wiki.SampleMarkdown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * txtmark rendering cost, as paid by {@link HttpServerVerticle} for every page view that misses the caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class MarkdownBenchmark {
+
+  @Param({"1024", "65536"})
+  public int size;
+
+  private String markdown;
+
+  @Setup
+  public void setUp() {
+    markdown = SampleMarkdown.generate(size, 42);
+  }
+
+  @Benchmark
+  public String process() {
+    return Processor.process(markdown);
+  }
+}
@@ -0,0 +1,92 @@
+package io.vertx.starter.wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.starter.wiki.SampleMarkdown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreeMarker rendering of {@code page.ftl} and {@code index.ftl} with already compiled templates, through the
+ * {@link TemplateRenderer} used by {@link HttpServerVerticle}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TemplateBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class PageState {
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private Map<String, Object> model;
+
+    @Setup
+    public void setUp() throws Exception {
+
+      String markdown = SampleMarkdown.generate(size, 42);
+      Map<String, Object> page = new HashMap<>();
+      page.put("title", "Benchmark");
+      page.put("id", 1);
+      page.put("newPage", "no");
+      page.put("rawContent", markdown);
+      page.put("content", Processor.process(markdown));
+      page.put("modified", "Thu, 1 Jan 1970 00:00:00 GMT");
+      model = page;
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class IndexState {
+
+    @Param({"50", "1000"})
+    public int pageCount;
+
+    private Map<String, Object> model;
+
+    @Setup
+    public void setUp() throws Exception {
+
+      List<String> names = new ArrayList<>();
+      for (int i = 0; i < pageCount; i++) {
+        names.add(String.format("Page %05d", i));
+      }
+      Map<String, Object> index = new HashMap<>();
+      index.put("title", "Wiki home");
+      index.put("pages", names);
+      index.put("firstPage", true);
+      model = index;
+    }
+  }
+
+  private static final TemplateRenderer RENDERER = new TemplateRenderer(-1, 16384);
+
+  @Benchmark
+  public Buffer renderPage(PageState state) throws Exception {
+    return RENDERER.render("/page.ftl", state.model);
+  }
+
+  @Benchmark
+  public Buffer renderIndex(IndexState state) throws Exception {
+    return RENDERER.render("/index.ftl", state.model);
+  }
+}
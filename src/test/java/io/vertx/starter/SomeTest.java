@@ -1,22 +1,57 @@
 package io.vertx.starter;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.starter.wiki.MainVerticle;
+import io.vertx.starter.wiki.database.LogStoreMigration;
+import io.vertx.starter.wiki.database.MarkdownRenderer;
+import io.vertx.starter.wiki.database.SearchIndex;
+import io.vertx.starter.wiki.database.SqlQueries;
 import io.vertx.starter.wiki.database.WikiDatabaseService;
 import io.vertx.starter.wiki.database.WikiDatabaseVerticle;
+import io.vertx.starter.wiki.http.HttpServerVerticle;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
 @RunWith(VertxUnitRunner.class)
 public class SomeTest {
 
@@ -24,13 +59,20 @@ public class SomeTest {
 
   private WikiDatabaseService service;
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Before
   public void setUp(TestContext testContext) {
     vertx = Vertx.vertx();
 
     JsonObject conf = new JsonObject()
       .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
-      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_BATCH_SIZE, 10)
+      // Low enough for some test pages to be stored compressed and others raw
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_COMPRESSION_ENABLED, true)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_COMPRESSION_THRESHOLD, 32);
 
     vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
       testContext.asyncAssertSuccess(id -> service = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE))
@@ -56,32 +98,1001 @@ public class SomeTest {
   @Test
   public void testCRUD(TestContext testContext) {
     Async async = testContext.async();
+    checkCrud(service, testContext, v -> async.complete());
+  }
 
+  private static void checkCrud(WikiDatabaseService service, TestContext testContext, Handler<Void> done) {
     service.createPage("TestTitle", "TestMarkdown", testContext.asyncAssertSuccess(v1 -> {
       service.fetchPage("TestTitle", testContext.asyncAssertSuccess(json1 -> {
         testContext.assertTrue(json1.getBoolean("found"));
         testContext.assertTrue(json1.containsKey("id"));
         testContext.assertEquals("TestMarkdown", json1.getString("rawContent"));
+        testContext.assertEquals(1, json1.getInteger("revision"));
+        testContext.assertNotNull(json1.getLong("modified"));
 
-        service.savePage(json1.getInteger("id"), "Yo!", testContext.asyncAssertSuccess(v2 -> {
+        service.savePage(json1.getInteger("id"), json1.getInteger("revision"), "Yo!", testContext.asyncAssertSuccess(v2 -> {
           service.fetchAllPages(testContext.asyncAssertSuccess(array1 -> {
             testContext.assertEquals(1, array1.size());
 
             service.fetchPage("TestTitle", testContext.asyncAssertSuccess(json2 -> {
               testContext.assertEquals("Yo!", json2.getString("rawContent"));
+              testContext.assertEquals(2, json2.getInteger("revision"));
               service.deletePage(json2.getInteger("id"), testContext.asyncAssertSuccess(v3 -> {
                 service.fetchAllPages(testContext.asyncAssertSuccess(array2 -> {
                   testContext.assertEquals(0, array2.size());
-                  async.complete();
+                  done.handle(null);
+                }));
+              }));
+            }));
+          }));
+        }));
+      }));
+    }));
+  }
+
+  @Test
+  public void testRenderedHtmlIsStored(TestContext testContext) {
+    Async async = testContext.async();
+
+    service.createPage("Rendered", "# Title", testContext.asyncAssertSuccess(v1 ->
+      service.fetchPage("Rendered", testContext.asyncAssertSuccess(json1 -> {
+        testContext.assertEquals("<h1>Title</h1>\n", json1.getString("html"));
+        testContext.assertNotNull(json1.getString("hash"));
+
+        service.savePage(json1.getInteger("id"), json1.getInteger("revision"), "*Edited*", testContext.asyncAssertSuccess(v2 ->
+          service.fetchPage("Rendered", testContext.asyncAssertSuccess(json2 -> {
+            testContext.assertEquals("<p><em>Edited</em></p>\n", json2.getString("html"));
+            testContext.assertNotEquals(json1.getString("hash"), json2.getString("hash"));
+            async.complete();
+          }))));
+      }))));
+  }
+
+  @Test
+  public void testRevisionHistory(TestContext testContext) {
+    Async async = testContext.async();
+    checkRevisionHistory(service, testContext, v -> async.complete());
+  }
+
+  private static void checkRevisionHistory(WikiDatabaseService service, TestContext testContext, Handler<Void> done) {
+    service.createPage("History", "one\ntwo\nthree\n", testContext.asyncAssertSuccess(v1 ->
+      service.fetchPage("History", testContext.asyncAssertSuccess(page -> {
+        int id = page.getInteger("id");
+        service.savePage(id, 1, "one\n2\nthree\n", testContext.asyncAssertSuccess(v2 ->
+          service.savePage(id, 2, "one\n2\nthree\nfour\n", testContext.asyncAssertSuccess(v3 ->
+            service.fetchPageRevision("History", 1, testContext.asyncAssertSuccess(revision1 -> {
+              testContext.assertTrue(revision1.getBoolean("found"));
+              testContext.assertEquals("one\ntwo\nthree\n", revision1.getString("rawContent"));
+              testContext.assertEquals(3, revision1.getInteger("latestRevision"));
+
+              service.fetchPageRevision("History", 4, testContext.asyncAssertSuccess(missing -> {
+                testContext.assertFalse(missing.getBoolean("found"));
+
+                service.fetchPageDiff("History", 1, 0, testContext.asyncAssertSuccess(diff -> {
+                  testContext.assertEquals(3, diff.getInteger("to"));
+                  testContext.assertEquals(2, diff.getInteger("added"));
+                  testContext.assertEquals(1, diff.getInteger("removed"));
+                  testContext.assertEquals("--- History@1\n+++ History@3\n@@ -1,3 +1,4 @@\n one\n-two\n+2\n three\n+four\n", diff.getString("diff"));
+                  done.handle(null);
+                }));
+              }));
+            }))))));
+      }))));
+  }
+
+  @Test
+  public void testStaleSaveConflicts(TestContext testContext) {
+    Async async = testContext.async();
+    checkStaleSaveConflicts(service, testContext, v -> async.complete());
+  }
+
+  private static void checkStaleSaveConflicts(WikiDatabaseService service, TestContext testContext, Handler<Void> done) {
+    service.createPage("Contended", "original", testContext.asyncAssertSuccess(v1 ->
+      service.fetchPage("Contended", testContext.asyncAssertSuccess(page -> {
+        int id = page.getInteger("id");
+        service.savePage(id, 1, "first edit", testContext.asyncAssertSuccess(v2 ->
+          service.savePage(id, 1, "second edit", testContext.asyncAssertFailure(err -> {
+            testContext.assertEquals(WikiDatabaseService.CONFLICT, ((ReplyException) err).failureCode());
+            service.fetchPage("Contended", testContext.asyncAssertSuccess(current -> {
+              testContext.assertEquals("first edit", current.getString("rawContent"));
+              testContext.assertEquals(2, current.getInteger("revision"));
+              done.handle(null);
+            }));
+          }))));
+      }))));
+  }
+
+  @Test
+  public void testLogBackend(TestContext testContext) throws IOException {
+    Async async = testContext.async();
+    Vertx logVertx = Vertx.vertx();
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_BACKEND, WikiDatabaseVerticle.BACKEND_LOG)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_FILE, new File(folder.newFolder(), "wiki.log").getPath());
+    logVertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      WikiDatabaseService logService = WikiDatabaseService.createProxy(logVertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+      checkCrud(logService, testContext, v1 ->
+        checkRevisionHistory(logService, testContext, v2 ->
+          checkStaleSaveConflicts(logService, testContext, v3 ->
+            logService.createPage("Linking", "[History](/wiki/History) [Nowhere](/wiki/Nowhere)", testContext.asyncAssertSuccess(v4 ->
+              logService.searchPages("edit", 10, testContext.asyncAssertSuccess(results -> {
+                testContext.assertEquals("Contended", results.getJsonArray("results").getJsonObject(0).getString("name"));
+                logService.fetchBacklinks("History", testContext.asyncAssertSuccess(backlinks -> {
+                  testContext.assertEquals(new JsonArray().add("Linking"), backlinks);
+                  // Pages are read back from the log by the next deployment
+                  logVertx.close(testContext.asyncAssertSuccess(v5 -> {
+                    Vertx reopenedVertx = Vertx.vertx();
+                    reopenedVertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id2 -> {
+                      WikiDatabaseService reopened = WikiDatabaseService.createProxy(reopenedVertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+                      reopened.fetchPageRevision("History", 1, testContext.asyncAssertSuccess(revision1 -> {
+                        testContext.assertEquals("one\ntwo\nthree\n", revision1.getString("rawContent"));
+                        reopened.fetchMissingPages(null, 10, testContext.asyncAssertSuccess(missing -> {
+                          testContext.assertEquals("Nowhere", missing.getJsonObject(0).getString("name"));
+                          reopenedVertx.close(testContext.asyncAssertSuccess(v6 -> async.complete()));
+                        }));
+                      }));
+                    }));
+                  }));
+                }));
+              })))))));
+    }));
+  }
+
+  @Test
+  public void testMigrationToLogBackend(TestContext testContext) throws IOException {
+    Async async = testContext.async();
+    File logFile = new File(folder.newFolder(), "wiki.log");
+    service.createPage("Migrated", "# First\n", testContext.asyncAssertSuccess(v1 ->
+      service.fetchPage("Migrated", testContext.asyncAssertSuccess(page ->
+        service.savePage(page.getInteger("id"), 1, "# Second\n[Home](/wiki/Home)\n", testContext.asyncAssertSuccess(v2 ->
+          vertx.<Integer>executeBlocking(migration -> {
+            try {
+              // The same in-memory database as the service, kept alive by its connection pool
+              migration.complete(LogStoreMigration.migrate("jdbc:hsqldb:mem:testdb", null, logFile));
+            } catch (Exception e) {
+              migration.fail(e);
+            }
+          }, testContext.asyncAssertSuccess(migrated -> {
+            testContext.assertEquals(1, migrated);
+            Vertx logVertx = Vertx.vertx();
+            JsonObject conf = new JsonObject()
+              .put(WikiDatabaseVerticle.CONFIG_WIKIDB_BACKEND, WikiDatabaseVerticle.BACKEND_LOG)
+              .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_FILE, logFile.getPath());
+            logVertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+              WikiDatabaseService logService = WikiDatabaseService.createProxy(logVertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+              logService.fetchPage("Migrated", testContext.asyncAssertSuccess(migratedPage -> {
+                testContext.assertEquals(page.getInteger("id"), migratedPage.getInteger("id"));
+                testContext.assertEquals(2, migratedPage.getInteger("revision"));
+                testContext.assertTrue(migratedPage.getString("html").startsWith("<h1>Second</h1>"));
+                logService.fetchPageRevision("Migrated", 1, testContext.asyncAssertSuccess(revision1 -> {
+                  testContext.assertEquals("# First\n", revision1.getString("rawContent"));
+                  logService.fetchMissingPages(null, 10, testContext.asyncAssertSuccess(missing -> {
+                    testContext.assertEquals("Home", missing.getJsonObject(0).getString("name"));
+                    logVertx.close(testContext.asyncAssertSuccess(v3 -> async.complete()));
+                  }));
+                }));
+              }));
+            }));
+          }))))))));
+  }
+
+  @Test
+  public void testLegacyPagesAreMigrated(TestContext testContext) {
+    Async async = testContext.async();
+    Vertx legacyVertx = Vertx.vertx();
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:legacydb;shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+    JDBCClient jdbcClient = JDBCClient.createNonShared(legacyVertx, new JsonObject()
+      .put("url", conf.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL))
+      .put("driver_class", "org.hsqldb.jdbcDriver"));
+    jdbcClient.getConnection(testContext.asyncAssertSuccess(connection ->
+      connection.execute("create table Pages (Id integer identity primary key, Name varchar(255) unique, Content clob, Revision integer default 1 not null, Modified bigint)", testContext.asyncAssertSuccess(v1 ->
+        connection.execute("insert into Pages (Name, Content, Revision, Modified) values ('Legacy', '# Old', 1, 0), ('Linking', '[Old](/wiki/Legacy) [Gone](/wiki/Gone)', 1, 0)", testContext.asyncAssertSuccess(v2 -> {
+          connection.close();
+          legacyVertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+            WikiDatabaseService legacyService = WikiDatabaseService.createProxy(legacyVertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+            // Links of existing pages are extracted before the verticle is deployed
+            legacyService.fetchBacklinks("Legacy", testContext.asyncAssertSuccess(backlinks -> {
+              testContext.assertEquals(new JsonArray().add("Linking"), backlinks);
+              // The backfill runs in the background once the verticle is deployed
+              legacyVertx.setPeriodic(50, timer -> legacyService.fetchPage("Legacy", testContext.asyncAssertSuccess(page -> {
+                if (page.containsKey("html")) {
+                  legacyVertx.cancelTimer(timer);
+                  testContext.assertEquals("<h1>Old</h1>\n", page.getString("html"));
+                  jdbcClient.close();
+                  legacyVertx.close(testContext.asyncAssertSuccess(v3 -> async.complete()));
+                }
+              })));
+            }));
+          }));
+        }))))));
+  }
+
+  @Test
+  public void testBaselinePagesAreMigrated(TestContext testContext) {
+    Async async = testContext.async();
+    Vertx baselineVertx = Vertx.vertx();
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:baselinedb;shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+    JDBCClient jdbcClient = JDBCClient.createNonShared(baselineVertx, new JsonObject()
+      .put("url", conf.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL))
+      .put("driver_class", "org.hsqldb.jdbcDriver"));
+    // The table as created before pages had revisions
+    jdbcClient.getConnection(testContext.asyncAssertSuccess(connection ->
+      connection.execute("create table Pages (Id integer identity primary key, Name varchar(255) unique, Content clob)", testContext.asyncAssertSuccess(v1 ->
+        connection.execute("insert into Pages (Name, Content) values ('Baseline', 'Before')", testContext.asyncAssertSuccess(v2 -> {
+          connection.close();
+          baselineVertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+            WikiDatabaseService baselineService = WikiDatabaseService.createProxy(baselineVertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+            baselineService.fetchPage("Baseline", testContext.asyncAssertSuccess(page -> {
+              testContext.assertEquals(1, page.getInteger("revision"));
+              baselineService.savePage(page.getInteger("id"), 1, "After", testContext.asyncAssertSuccess(v3 ->
+                baselineService.fetchPage("Baseline", testContext.asyncAssertSuccess(saved -> {
+                  testContext.assertEquals("After", saved.getString("rawContent"));
+                  testContext.assertEquals(2, saved.getInteger("revision"));
+                  testContext.assertNotNull(saved.getLong("modified"));
+                  baselineService.fetchPageRevision("Baseline", 1, testContext.asyncAssertSuccess(first -> {
+                    testContext.assertEquals("Before", first.getString("rawContent"));
+                    jdbcClient.close();
+                    baselineVertx.close(testContext.asyncAssertSuccess(v4 -> async.complete()));
+                  }));
+                }))));
+            }));
+          }));
+        }))))));
+  }
+
+  @Test
+  public void testH2Dialect(TestContext testContext) {
+    Async async = testContext.async();
+    Vertx h2Vertx = Vertx.vertx();
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SQL_DIALECT, "h2")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:h2:mem:h2test;DB_CLOSE_DELAY=-1")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.h2.Driver")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+    h2Vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      WikiDatabaseService h2Service = WikiDatabaseService.createProxy(h2Vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+      h2Service.createPage("H2", "# First", testContext.asyncAssertSuccess(v1 ->
+        h2Service.fetchPage("H2", testContext.asyncAssertSuccess(page ->
+          h2Service.savePage(page.getInteger("id"), page.getInteger("revision"), "# Second", testContext.asyncAssertSuccess(v2 ->
+            h2Service.fetchPageRevision("H2", 1, testContext.asyncAssertSuccess(first -> {
+              testContext.assertEquals("# First", first.getString("rawContent"));
+              testContext.assertEquals(2, first.getInteger("latestRevision"));
+              h2Service.fetchPage("H2", testContext.asyncAssertSuccess(second -> {
+                testContext.assertEquals("<h1>Second</h1>\n", second.getString("html"));
+                h2Service.deletePage(second.getInteger("id"), testContext.asyncAssertSuccess(v3 ->
+                  h2Service.fetchAllPages(testContext.asyncAssertSuccess(pages -> {
+                    testContext.assertTrue(pages.isEmpty());
+                    h2Vertx.close(testContext.asyncAssertSuccess(v4 -> async.complete()));
+                  }))));
+              }));
+            }))))))));
+    }));
+  }
+
+  @Test
+  public void testGroupCommit(TestContext testContext) {
+    Async async = testContext.async();
+    Vertx groupVertx = Vertx.vertx();
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:groupdb;shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_GROUP_COMMIT_ENABLED, true)
+      // Long enough for every save below to be queued before the first commit
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_GROUP_COMMIT_WINDOW_MILLIS, 500);
+    groupVertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      WikiDatabaseService groupService = WikiDatabaseService.createProxy(groupVertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+      groupService.createPage("Burst", "zero\n", testContext.asyncAssertSuccess(v1 ->
+        groupService.fetchPage("Burst", testContext.asyncAssertSuccess(page -> {
+          int pageId = page.getInteger("id");
+          List<Future> saves = new ArrayList<>();
+          String[][] edits = {{"1", "one\n"}, {"2", "two\n"}, {"1", "stale\n"}, {"3", "three\n"}};
+          for (String[] edit : edits) {
+            Future<Void> saved = Future.future();
+            groupService.savePage(pageId, Integer.parseInt(edit[0]), edit[1], saved.completer());
+            saves.add(saved);
+          }
+          CompositeFuture.join(saves).setHandler(all -> {
+            testContext.assertTrue(saves.get(0).succeeded());
+            testContext.assertTrue(saves.get(1).succeeded());
+            testContext.assertEquals(WikiDatabaseService.CONFLICT, ((ReplyException) saves.get(2).cause()).failureCode());
+            testContext.assertTrue(saves.get(3).succeeded());
+            groupService.fetchPage("Burst", testContext.asyncAssertSuccess(saved -> {
+              testContext.assertEquals(4, saved.getInteger("revision"));
+              testContext.assertEquals("three\n", saved.getString("rawContent"));
+              testContext.assertEquals("<p>three</p>\n", saved.getString("html"));
+              // Saves of the page were committed one group after the other, the history must replay them
+              groupService.fetchPageRevision("Burst", 2, testContext.asyncAssertSuccess(revision2 -> {
+                testContext.assertEquals("one\n", revision2.getString("rawContent"));
+                groupService.fetchPageRevision("Burst", 1, testContext.asyncAssertSuccess(revision1 -> {
+                  testContext.assertEquals("zero\n", revision1.getString("rawContent"));
+                  groupVertx.close(testContext.asyncAssertSuccess(v2 -> async.complete()));
+                }));
+              }));
+            }));
+          });
+        }))));
+    }));
+  }
+
+  @Test
+  public void testExportPages(TestContext testContext) {
+    Async async = testContext.async();
+
+    service.createPage("A", "a", testContext.asyncAssertSuccess(v1 ->
+      service.createPage("B", "b", testContext.asyncAssertSuccess(v2 ->
+        service.createPage("C", "c", testContext.asyncAssertSuccess(v3 ->
+          service.exportPages(-1, 2, testContext.asyncAssertSuccess(batch1 -> {
+            testContext.assertEquals(2, batch1.size());
+            testContext.assertEquals("A", batch1.get(0).getString("name"));
+            testContext.assertEquals("a", batch1.get(0).getString("content"));
+
+            service.exportPages(batch1.get(1).getInteger("id"), 2, testContext.asyncAssertSuccess(batch2 -> {
+              testContext.assertEquals(1, batch2.size());
+              testContext.assertEquals("C", batch2.get(0).getString("name"));
+              async.complete();
+            }));
+          }))))))));
+  }
+
+  @Test
+  public void testSearchPages(TestContext testContext) {
+    Async async = testContext.async();
+
+    service.createPage("Vertx", "A toolkit for reactive applications", testContext.asyncAssertSuccess(v1 ->
+      service.createPage("Other", "Nothing to see", testContext.asyncAssertSuccess(v2 ->
+        service.searchPages("reactive", 10, testContext.asyncAssertSuccess(json1 -> {
+          testContext.assertEquals(1, json1.getJsonArray("results").size());
+          testContext.assertEquals("Vertx", json1.getJsonArray("results").getJsonObject(0).getString("name"));
+
+          service.fetchPage("Other", testContext.asyncAssertSuccess(page ->
+            service.savePage(page.getInteger("id"), page.getInteger("revision"), "Reactive too", testContext.asyncAssertSuccess(v3 ->
+              service.searchPages("reactive", 10, testContext.asyncAssertSuccess(json2 -> {
+                testContext.assertEquals(2, json2.getJsonArray("results").size());
+                async.complete();
+              }))))));
+        }))))));
+  }
+
+  @Test
+  public void testBulkOperations(TestContext testContext) {
+    Async async = testContext.async();
+
+    List<JsonObject> pages = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      pages.add(new JsonObject().put("name", "Page" + i).put("content", "content " + i));
+    }
+    service.createPages(pages, testContext.asyncAssertSuccess(v1 ->
+      service.exportPages(-1, 100, testContext.asyncAssertSuccess(exported -> {
+        testContext.assertEquals(25, exported.size());
+
+        List<JsonObject> saves = exported.stream()
+          .map(page -> new JsonObject().put("id", page.getInteger("id")).put("content", "updated"))
+          .collect(Collectors.toList());
+        service.savePages(saves, testContext.asyncAssertSuccess(v2 ->
+          service.fetchPage("Page3", testContext.asyncAssertSuccess(page -> {
+            testContext.assertEquals("updated", page.getString("rawContent"));
+            testContext.assertEquals(2, page.getInteger("revision"));
+
+            List<Integer> ids = exported.stream().map(json -> json.getInteger("id")).collect(Collectors.toList());
+            service.deletePages(ids, testContext.asyncAssertSuccess(v3 ->
+              service.fetchAllPages(testContext.asyncAssertSuccess(array -> {
+                testContext.assertEquals(0, array.size());
+                async.complete();
+              }))));
+          }))));
+      }))));
+  }
+
+  @Test
+  public void testBulkSavedPagesMissingFromTheSearchIndexAreIndexed(TestContext testContext) throws IOException {
+    Async async = testContext.async();
+    JDBCClient jdbcClient = JDBCClient.createNonShared(vertx, new JsonObject()
+      .put("url", "jdbc:hsqldb:mem:bulkindexdb;shutdown=true")
+      .put("driver_class", "org.hsqldb.jdbcDriver"));
+    SqlQueries sqlQueries = SqlQueries.load(null, null);
+    SearchIndex searchIndex = new SearchIndex();
+    MetricsRegistry metrics = new MetricsRegistry();
+    vertx.runOnContext(v -> WikiDatabaseService.create(jdbcClient, sqlQueries, searchIndex, new MarkdownRenderer(vertx, new JsonObject(), metrics), metrics, new JsonObject(), testContext.asyncAssertSuccess(bulkService ->
+      bulkService.createPage("Unindexed", "apples", testContext.asyncAssertSuccess(v1 ->
+        bulkService.fetchPage("Unindexed", testContext.asyncAssertSuccess(page -> {
+          int id = page.getInteger("id");
+          searchIndex.remove(id);
+          List<JsonObject> saves = Collections.singletonList(new JsonObject().put("id", id).put("content", "oranges"));
+          bulkService.savePages(saves, testContext.asyncAssertSuccess(v2 -> {
+            testContext.assertEquals(2, searchIndex.revisionOf(id));
+            testContext.assertEquals(1, searchIndex.search("oranges", 10).size());
+            jdbcClient.close();
+            async.complete();
+          }));
+        })))))));
+  }
+
+  @Test
+  public void testFetchPages(TestContext testContext) {
+    Async async = testContext.async();
+
+    List<JsonObject> pages = new ArrayList<>();
+    for (String name : new String[]{"Delta", "Alpha", "Charlie", "Bravo", "Echo"}) {
+      pages.add(new JsonObject().put("name", name).put("content", name));
+    }
+    service.createPages(pages, testContext.asyncAssertSuccess(v ->
+      service.fetchPages(null, 2, testContext.asyncAssertSuccess(page1 -> {
+        testContext.assertEquals(new JsonArray().add("Alpha").add("Bravo"), page1);
+        service.fetchPages("Bravo", 2, testContext.asyncAssertSuccess(page2 -> {
+          testContext.assertEquals(new JsonArray().add("Charlie").add("Delta"), page2);
+          service.fetchPages("Delta", 2, testContext.asyncAssertSuccess(page3 -> {
+            testContext.assertEquals(new JsonArray().add("Echo"), page3);
+            async.complete();
+          }));
+        }));
+      }))));
+  }
+
+  @Test
+  public void testCreatePagesIsAtomic(TestContext testContext) {
+    Async async = testContext.async();
+
+    List<JsonObject> pages = new ArrayList<>();
+    pages.add(new JsonObject().put("name", "Twice").put("content", "a"));
+    pages.add(new JsonObject().put("name", "Twice").put("content", "b"));
+    service.createPages(pages, testContext.asyncAssertFailure(err ->
+      service.fetchAllPages(testContext.asyncAssertSuccess(array -> {
+        testContext.assertEquals(0, array.size());
+        async.complete();
+      }))));
+  }
+
+  @Test
+  public void testMultipleInstancesShareTheSearchIndex(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+    vertx.deployVerticle(WikiDatabaseVerticle.class.getName(), new DeploymentOptions().setInstances(3).setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      // Consumers take turns, so these creations are spread over the instances
+      List<Future> created = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        Future<Void> future = Future.future();
+        service.createPage("Shared" + i, "Shared content", future.completer());
+        created.add(future);
+      }
+      CompositeFuture.all(created).setHandler(testContext.asyncAssertSuccess(all -> {
+        List<Future> searches = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+          Future<JsonObject> future = Future.future();
+          service.searchPages("shared", 20, future.completer());
+          searches.add(future);
+        }
+        CompositeFuture.all(searches).setHandler(testContext.asyncAssertSuccess(results -> {
+          for (int i = 0; i < 4; i++) {
+            testContext.assertEquals(8, results.<JsonObject>resultAt(i).getJsonArray("results").size());
+          }
+          async.complete();
+        }));
+      }));
+    }));
+  }
+
+  @Test
+  public void testLocalProxy(TestContext testContext) {
+    Async async = testContext.async();
+    WikiDatabaseService localService = WikiDatabaseService.createLocalProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+
+    List<JsonObject> twice = new ArrayList<>();
+    twice.add(new JsonObject().put("name", "Twice").put("content", "a"));
+    twice.add(new JsonObject().put("name", "Twice").put("content", "b"));
+    localService.createPage("Local", "By reference", testContext.asyncAssertSuccess(v1 ->
+      localService.fetchPage("Local", testContext.asyncAssertSuccess(page -> {
+        testContext.assertEquals("By reference", page.getString("rawContent"));
+        localService.createPages(twice, testContext.asyncAssertFailure(err -> async.complete()));
+      }))));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testLocalProxyFallsBackWithoutLocalConsumer(TestContext testContext) {
+    Async async = testContext.async();
+    // Only a JSON consumer, as when the service runs on another cluster node
+    WikiDatabaseService stub = (WikiDatabaseService) Proxy.newProxyInstance(WikiDatabaseService.class.getClassLoader(),
+      new Class<?>[]{WikiDatabaseService.class}, (self, method, args) -> {
+        ((Handler<AsyncResult<JsonObject>>) args[args.length - 1]).handle(Future.succeededFuture(new JsonObject().put("found", false)));
+        return self;
+      });
+    new ServiceBinder(vertx).setAddress("wikidb.remote").register(WikiDatabaseService.class, stub);
+
+    WikiDatabaseService.createLocalProxy(vertx, "wikidb.remote").fetchPage("Remote", testContext.asyncAssertSuccess(page -> {
+      testContext.assertFalse(page.getBoolean("found"));
+      async.complete();
+    }));
+  }
+
+  @Test
+  public void testImportKeepsConnectionUsable(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject().put("http.server.port", 8081);
+    vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      // A single pooled connection, so the page request reuses the one the import went through
+      WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081).setMaxPoolSize(1).setKeepAlive(true));
+      Buffer dump = Buffer.buffer();
+      for (int i = 0; i < 5; i++) {
+        dump.appendString(new JsonObject().put("name", "Imported" + i).put("content", "# " + i).encode()).appendString("\n");
+      }
+      webClient.post("/import").sendBuffer(dump, testContext.asyncAssertSuccess(imported -> {
+        testContext.assertEquals(200, imported.statusCode());
+        webClient.get("/wiki/Imported4").timeout(5000).send(testContext.asyncAssertSuccess(page -> {
+          testContext.assertEquals(200, page.statusCode());
+          testContext.assertTrue(page.bodyAsString().contains("Imported4"));
+          webClient.close();
+          async.complete();
+        }));
+      }));
+    }));
+  }
+
+  @Test
+  public void testRequestBodyLimits(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject()
+      .put("http.server.port", 8081)
+      .put("http.body.max_bytes", 1024)
+      .put("http.body.save_max_bytes", 4096)
+      .put("http.body.import_max_bytes", 1024);
+    vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      // A single pooled connection, so every request goes through the one the rejected ones were sent on
+      WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081).setMaxPoolSize(1).setKeepAlive(true)
+        .setFollowRedirects(false));
+      char[] large = new char[8192];
+      Arrays.fill(large, 'x');
+      service.createPage("Limited", "# Small", testContext.asyncAssertSuccess(v1 ->
+        service.fetchPage("Limited", testContext.asyncAssertSuccess(page -> {
+          MultiMap form = MultiMap.caseInsensitiveMultiMap()
+            .add("id", String.valueOf(page.getInteger("id")))
+            .add("revision", "1")
+            .add("title", "Limited")
+            .add("newPage", "no")
+            .add("markdown", "Caf\u00e9 & co + 100% = *\u2713*");
+          webClient.post("/save").sendForm(form, testContext.asyncAssertSuccess(saved -> {
+            testContext.assertEquals(303, saved.statusCode());
+            form.set("revision", "2").set("markdown", new String(large));
+            webClient.post("/save").sendForm(form, testContext.asyncAssertSuccess(tooLarge -> {
+              testContext.assertEquals(413, tooLarge.statusCode());
+              webClient.post("/save").sendBuffer(Buffer.buffer("markdown=x"), testContext.asyncAssertSuccess(unsupported -> {
+                testContext.assertEquals(415, unsupported.statusCode());
+                webClient.post("/create").sendForm(MultiMap.caseInsensitiveMultiMap().add("name", new String(large)), testContext.asyncAssertSuccess(create -> {
+                  testContext.assertEquals(413, create.statusCode());
+                  webClient.post("/import").sendBuffer(Buffer.buffer(new String(large)), testContext.asyncAssertSuccess(imported -> {
+                    testContext.assertEquals(413, imported.statusCode());
+                    service.fetchPage("Limited", testContext.asyncAssertSuccess(current -> {
+                      testContext.assertEquals("Caf\u00e9 & co + 100% = *\u2713*", current.getString("rawContent"));
+                      testContext.assertEquals(2, current.getInteger("revision"));
+                      webClient.get("/wiki/Limited").send(testContext.asyncAssertSuccess(rendered -> {
+                        testContext.assertEquals(200, rendered.statusCode());
+                        webClient.close();
+                        async.complete();
+                      }));
+                    }));
+                  }));
+                }));
+              }));
+            }));
+          }));
+        }))));
+    }));
+  }
+
+  @Test
+  public void testInvalidIdsAreRejected(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject().put("http.server.port", 8081);
+    vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081).setFollowRedirects(false));
+      MultiMap form = MultiMap.caseInsensitiveMultiMap()
+        .add("id", "abc")
+        .add("revision", "1")
+        .add("title", "Invalid")
+        .add("newPage", "no")
+        .add("markdown", "# Invalid");
+      webClient.post("/save").sendForm(form, testContext.asyncAssertSuccess(badId -> {
+        testContext.assertEquals(400, badId.statusCode());
+        form.set("id", "1").remove("revision");
+        webClient.post("/save").sendForm(form, testContext.asyncAssertSuccess(noRevision -> {
+          testContext.assertEquals(400, noRevision.statusCode());
+          webClient.post("/delete").sendForm(MultiMap.caseInsensitiveMultiMap().add("title", "Invalid"), testContext.asyncAssertSuccess(noId -> {
+            testContext.assertEquals(400, noId.statusCode());
+            webClient.close();
+            async.complete();
+          }));
+        }));
+      }));
+    }));
+  }
+
+  @Test
+  public void testLargeIdsAndRevisionsRoundTripThroughTheForm(TestContext testContext) {
+    Async async = testContext.async();
+    JDBCClient jdbcClient = JDBCClient.createNonShared(vertx, new JsonObject()
+      .put("url", "jdbc:hsqldb:mem:testdb;shutdown=true")
+      .put("driver_class", "org.hsqldb.jdbcDriver"));
+    JsonObject conf = new JsonObject().put("http.server.port", 8081);
+    service.createPage("Thousands", "# Many edits", testContext.asyncAssertSuccess(v1 ->
+      // As if imported among many pages and edited many times, big enough for numbers to be formatted with separators
+      jdbcClient.updateWithParams("update Pages set Id = 1234, Revision = 1500 where Name = ?", new JsonArray().add("Thousands"), testContext.asyncAssertSuccess(updated ->
+        vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+          WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081).setFollowRedirects(false));
+          webClient.get("/wiki/Thousands").send(testContext.asyncAssertSuccess(page -> {
+            String html = page.bodyAsString();
+            testContext.assertTrue(html.contains("name=\"id\" value=\"1234\""));
+            testContext.assertTrue(html.contains("name=\"revision\" value=\"1500\""));
+            MultiMap form = MultiMap.caseInsensitiveMultiMap()
+              .add("id", "1234")
+              .add("revision", "1500")
+              .add("title", "Thousands")
+              .add("newPage", "no")
+              .add("markdown", "# Many more edits");
+            webClient.post("/save").sendForm(form, testContext.asyncAssertSuccess(saved -> {
+              testContext.assertEquals(303, saved.statusCode());
+              service.fetchPage("Thousands", testContext.asyncAssertSuccess(current -> {
+                testContext.assertEquals(1501, current.getInteger("revision"));
+                webClient.close();
+                jdbcClient.close();
+                async.complete();
+              }));
+            }));
+          }));
+        }))))));
+  }
+
+  @Test
+  public void testConditionalGets(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject().put("http.server.port", 8081);
+    service.createPage("Cached", "# Cached", testContext.asyncAssertSuccess(v1 ->
+      vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081));
+        webClient.get("/wiki/Cached").send(testContext.asyncAssertSuccess(page -> {
+          String etag = page.getHeader("ETag");
+          String lastModified = page.getHeader("Last-Modified");
+          testContext.assertNotNull(lastModified);
+          webClient.get("/wiki/Cached").putHeader("If-None-Match", etag).send(testContext.asyncAssertSuccess(strong -> {
+            testContext.assertEquals(304, strong.statusCode());
+            // As rewritten by a proxy compressing the response
+            webClient.get("/wiki/Cached").putHeader("If-None-Match", "\"other\", W/" + etag).send(testContext.asyncAssertSuccess(weak -> {
+              testContext.assertEquals(304, weak.statusCode());
+              webClient.get("/wiki/Cached").putHeader("If-Modified-Since", lastModified).send(testContext.asyncAssertSuccess(since -> {
+                testContext.assertEquals(304, since.statusCode());
+                webClient.get("/").send(testContext.asyncAssertSuccess(index -> {
+                  String indexEtag = index.getHeader("ETag");
+                  webClient.get("/").putHeader("If-None-Match", indexEtag).send(testContext.asyncAssertSuccess(indexStrong -> {
+                    testContext.assertEquals(304, indexStrong.statusCode());
+                    webClient.get("/").putHeader("If-None-Match", "W/" + indexEtag).send(testContext.asyncAssertSuccess(indexWeak -> {
+                      testContext.assertEquals(304, indexWeak.statusCode());
+                      service.createPage("Another", "# Another", testContext.asyncAssertSuccess(v2 ->
+                        webClient.get("/").putHeader("If-None-Match", indexEtag).send(testContext.asyncAssertSuccess(changed -> {
+                          testContext.assertEquals(200, changed.statusCode());
+                          testContext.assertNotEquals(indexEtag, changed.getHeader("ETag"));
+                          webClient.close();
+                          async.complete();
+                        }))));
+                    }));
+                  }));
                 }));
               }));
             }));
           }));
         }));
+      }))));
+  }
+
+  @Test
+  public void testSearchPage(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject().put("http.server.port", 8081);
+    service.createPage("Searchable", "A reactive unicorn", testContext.asyncAssertSuccess(v1 ->
+      vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081));
+        webClient.get("/search?q=unicorn").send(testContext.asyncAssertSuccess(response -> {
+          testContext.assertEquals(200, response.statusCode());
+          testContext.assertTrue(response.bodyAsString().contains("<a href=\"/wiki/Searchable\">Searchable</a>"));
+          webClient.close();
+          async.complete();
+        }));
+      }))));
+  }
+
+  @Test
+  public void testMetrics(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject().put("http.server.port", 8081);
+    vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081));
+      webClient.get("/wiki/Metered").send(testContext.asyncAssertSuccess(page ->
+        webClient.get("/metrics").send(testContext.asyncAssertSuccess(response -> {
+          testContext.assertEquals(200, response.statusCode());
+          String metrics = response.bodyAsString();
+          testContext.assertTrue(metrics.contains("http_responses_total{route=\"/wiki/:page\",status=\"200\"} 1"));
+          testContext.assertTrue(metrics.contains("wikidb_call_seconds_count{action=\"fetchPage\"} 1"));
+          testContext.assertTrue(metrics.contains("wikidb_queue_wait_seconds_count{action=\"fetchPage\"} 1"));
+          testContext.assertTrue(metrics.contains("wikidb_sql_rows_count{query=\"get_page\"}"));
+          testContext.assertTrue(metrics.contains("template_render_seconds_count{template=\"/page.ftl\"} 1"));
+          testContext.assertTrue(metrics.contains("markdown_render_seconds_count 1"));
+          testContext.assertTrue(metrics.contains("wikidb_pool_connections{state=\"busy\"}"));
+          webClient.close();
+          async.complete();
+        }))));
+    }));
+  }
+
+  @Test
+  public void testOverloadedRequestsAreRejected(TestContext testContext) {
+    Async async = testContext.async();
+    JsonObject conf = new JsonObject()
+      .put("http.server.port", 8081)
+      .put("wikidb.admission.max_in_flight", 0)
+      .put("http.retry_after_seconds", 2);
+    vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081));
+      webClient.get("/wiki/Busy").send(testContext.asyncAssertSuccess(response -> {
+        testContext.assertEquals(503, response.statusCode());
+        testContext.assertEquals("2", response.getHeader("Retry-After"));
+        webClient.close();
+        async.complete();
+      }));
+    }));
+  }
+
+  @Test
+  public void testPagesAreStreamed(TestContext testContext) {
+    Async async = testContext.async();
+    StringBuilder markdown = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      markdown.append("Line ").append(i).append(" of a long page.\n\n");
+    }
+    JsonObject conf = new JsonObject()
+      .put("http.server.port", 8081)
+      .put("http.templates.chunk_chars", 8192);
+    service.createPage("Long", markdown.toString(), testContext.asyncAssertSuccess(v ->
+      vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081));
+        webClient.get("/wiki/Long").send(testContext.asyncAssertSuccess(page -> {
+          testContext.assertEquals(200, page.statusCode());
+          testContext.assertEquals("chunked", page.getHeader("Transfer-Encoding"));
+          testContext.assertNotNull(page.getHeader("ETag"));
+          testContext.assertTrue(page.bodyAsString().contains("Line 199 of a long page."));
+          testContext.assertTrue(page.bodyAsString().trim().endsWith("</html>"));
+
+          webClient.get("/wiki/Short").send(testContext.asyncAssertSuccess(shortPage -> {
+            testContext.assertNull(shortPage.getHeader("Transfer-Encoding"));
+            testContext.assertEquals(String.valueOf(shortPage.body().length()), shortPage.getHeader("Content-Length"));
+            webClient.close();
+            async.complete();
+          }));
+        }));
+      }))));
+  }
+
+  @Test
+  public void testParallelStartupWithWarmUp(TestContext testContext) {
+    Async async = testContext.async();
+    Vertx mainVertx = Vertx.vertx();
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:startupdb;shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_INSTANCES, 1)
+      .put("http.server.instances", 1)
+      .put("http.server.port", 8082)
+      .put("startup.parallel", true)
+      .put("startup.warmup.pages", 5)
+      .put("startup.warmup.rounds", 1);
+    mainVertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+      WebClient webClient = WebClient.create(mainVertx, new WebClientOptions().setDefaultPort(8082));
+      webClient.get("/metrics").send(testContext.asyncAssertSuccess(response -> {
+        String metrics = response.bodyAsString();
+        testContext.assertTrue(metrics.contains("startup_phase_seconds{phase=\"database\"}"));
+        testContext.assertTrue(metrics.contains("startup_phase_seconds{phase=\"warmup\"}"));
+        testContext.assertTrue(metrics.contains("http_responses_total{route=\"/\",status=\"200\"} 1"));
+        webClient.close();
+        mainVertx.close(testContext.asyncAssertSuccess(v -> async.complete()));
       }));
     }));
   }
 
+  @Test
+  public void testCompressedPages(TestContext testContext) {
+    Async async = testContext.async();
+    StringBuilder markdown = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      markdown.append("A line of markdown that compresses well.\n");
+    }
+    JsonObject conf = new JsonObject().put("http.server.port", 8081);
+    service.createPage("Compressed", markdown.toString(), testContext.asyncAssertSuccess(v ->
+      vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081));
+        webClient.get("/wiki/Compressed").putHeader("Accept-Encoding", "gzip").send(testContext.asyncAssertSuccess(first -> {
+          testContext.assertEquals("gzip", first.getHeader("Content-Encoding"));
+          String html = gunzip(first.body());
+          testContext.assertTrue(html.contains("A line of markdown that compresses well."));
+          testContext.assertTrue(first.body().length() < html.length() / 4);
+
+          webClient.get("/wiki/Compressed").putHeader("Accept-Encoding", "gzip").send(testContext.asyncAssertSuccess(second -> {
+            testContext.assertEquals(first.body(), second.body());
+            webClient.get("/admin/cache").send(testContext.asyncAssertSuccess(stats -> {
+              testContext.assertEquals(1, stats.bodyAsJsonObject().getJsonObject("compressed").getInteger("hits"));
+              String gzipEtag = first.getHeader("ETag");
+              webClient.get("/wiki/Compressed").putHeader("If-None-Match", gzipEtag).send(testContext.asyncAssertSuccess(identity -> {
+                testContext.assertEquals(200, identity.statusCode());
+                testContext.assertEquals("identity", identity.getHeader("Content-Encoding"));
+                testContext.assertNotEquals(gzipEtag, identity.getHeader("ETag"));
+                webClient.get("/wiki/Compressed").putHeader("Accept-Encoding", "gzip").putHeader("If-None-Match", gzipEtag).send(testContext.asyncAssertSuccess(notModified -> {
+                  testContext.assertEquals(304, notModified.statusCode());
+                  // Bodies under an identity ETag are never compressed on the fly
+                  webClient.get("/wiki/Compressed").putHeader("Accept-Encoding", "deflate").send(testContext.asyncAssertSuccess(deflate -> {
+                    testContext.assertEquals("identity", deflate.getHeader("Content-Encoding"));
+                    testContext.assertEquals(identity.getHeader("ETag"), deflate.getHeader("ETag"));
+                    testContext.assertTrue(deflate.bodyAsString().contains("A line of markdown that compresses well."));
+                    webClient.get("/").putHeader("Accept-Encoding", "gzip").send(testContext.asyncAssertSuccess(index -> {
+                      testContext.assertEquals("identity", index.getHeader("Content-Encoding"));
+                      testContext.assertTrue(index.bodyAsString().contains("Compressed"));
+                      webClient.close();
+                      async.complete();
+                    }));
+                  }));
+                }));
+              }));
+            }));
+          }));
+        }));
+      }))));
+  }
+
+  private static String gunzip(Buffer body) {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.getBytes()))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Test
+  public void testPageChanges(TestContext testContext) {
+    Async async = testContext.async();
+    service.createPage("Changed", "v1", testContext.asyncAssertSuccess(v1 ->
+      service.createPage("Deleted", "gone", testContext.asyncAssertSuccess(v2 ->
+        service.fetchPage("Changed", testContext.asyncAssertSuccess(changed ->
+          service.savePage(changed.getInteger("id"), 1, "v2", testContext.asyncAssertSuccess(v3 ->
+            service.fetchPage("Deleted", testContext.asyncAssertSuccess(deleted ->
+              service.deletePage(deleted.getInteger("id"), testContext.asyncAssertSuccess(v4 ->
+                service.fetchPageChanges(0, 10, testContext.asyncAssertSuccess(changes -> {
+                  testContext.assertEquals(4, changes.size());
+                  testContext.assertEquals("Changed", changes.get(0).getString("name"));
+                  // Entries hold the current state of the page, not the one after the change
+                  testContext.assertEquals("v2", changes.get(0).getString("content"));
+                  testContext.assertEquals(2, changes.get(0).getInteger("revision"));
+                  testContext.assertTrue(changes.get(1).getBoolean("deleted"));
+                  testContext.assertEquals("Changed", changes.get(2).getString("name"));
+                  testContext.assertEquals("Deleted", changes.get(3).getString("name"));
+                  long last = changes.get(3).getLong("seq");
+                  service.fetchPageChanges(changes.get(1).getLong("seq"), 10, testContext.asyncAssertSuccess(tail -> {
+                    testContext.assertEquals(2, tail.size());
+                    service.fetchLastPageChange(testContext.asyncAssertSuccess(seq -> {
+                      testContext.assertEquals(last, seq);
+                      service.prunePageChanges(last, testContext.asyncAssertSuccess(v5 ->
+                        service.fetchPageChanges(0, 10, testContext.asyncAssertSuccess(pruned -> {
+                          testContext.assertTrue(pruned.isEmpty());
+                          async.complete();
+                        }))));
+                    }));
+                  }));
+                }))))))))))))));
+  }
+
+  @Test
+  public void testLinkGraph(TestContext testContext) {
+    Async async = testContext.async();
+    service.createPage("Home", "[A](/wiki/A) and [a missing page](/wiki/Missing%20page)", testContext.asyncAssertSuccess(v1 ->
+      service.createPage("A", "[Home](/wiki/Home)", testContext.asyncAssertSuccess(v2 ->
+        service.fetchBacklinks("A", testContext.asyncAssertSuccess(backlinks -> {
+          testContext.assertEquals(new JsonArray().add("Home"), backlinks);
+          service.fetchMissingPages(null, 10, testContext.asyncAssertSuccess(missing -> {
+            testContext.assertEquals(new JsonArray().add(new JsonObject().put("name", "Missing page").put("backlinks", 1)), missing);
+            service.fetchPage("Home", testContext.asyncAssertSuccess(home ->
+              service.savePage(home.getInteger("id"), 1, "Only [A](/wiki/A)", testContext.asyncAssertSuccess(v3 ->
+                service.fetchPage("A", testContext.asyncAssertSuccess(a ->
+                  service.deletePage(a.getInteger("id"), testContext.asyncAssertSuccess(v4 ->
+                    service.fetchBacklinks("Home", testContext.asyncAssertSuccess(homeBacklinks -> {
+                      // Links from a deleted page go with it, links to it are now to a missing page
+                      testContext.assertTrue(homeBacklinks.isEmpty());
+                      service.fetchMissingPages(null, 10, testContext.asyncAssertSuccess(stillMissing -> {
+                        testContext.assertEquals(1, stillMissing.size());
+                        testContext.assertEquals("A", stillMissing.getJsonObject(0).getString("name"));
+                        service.fetchLinkIndexStats(testContext.asyncAssertSuccess(stats -> {
+                          testContext.assertEquals(1L, stats.getLong("links"));
+                          async.complete();
+                        }));
+                      }));
+                    }))))))))));
+          }));
+        }))))));
+  }
+
+  @Test
+  public void testIncrementalBackupResumes(TestContext testContext) {
+    Async async = testContext.async();
+    // A stand-in backup server, failing the first PUT of chunk 5
+    Map<String, Buffer> stored = new HashMap<>();
+    Map<String, Integer> puts = new HashMap<>();
+    vertx.createHttpServer().requestHandler(req -> {
+      String name = req.path().substring("/wiki-backup/".length());
+      if (req.method() == HttpMethod.GET) {
+        Buffer body = stored.get(name);
+        req.response().setStatusCode(body == null ? 404 : 200).end(body == null ? Buffer.buffer() : body);
+        return;
+      }
+      req.bodyHandler(body -> {
+        int count = puts.merge(name, 1, Integer::sum);
+        if ("chunk-00000005.ndjson".equals(name) && count == 1) {
+          req.response().setStatusCode(500).end();
+        } else {
+          stored.put(name, body);
+          req.response().setStatusCode(201).end();
+        }
+      });
+    }).listen(8083, testContext.asyncAssertSuccess(backupServer -> {
+      JsonObject conf = new JsonObject()
+        .put("http.server.port", 8081)
+        .put("backup.incremental.sink", "http")
+        .put("backup.incremental.url", "http://localhost:8083/wiki-backup")
+        // Every page gets a chunk of its own
+        .put("backup.incremental.chunk_bytes", 1);
+      List<JsonObject> pages = new ArrayList<>();
+      for (String name : Arrays.asList("Alpha", "Beta", "Gamma")) {
+        pages.add(new JsonObject().put("name", name).put("content", "# " + name));
+      }
+      service.createPages(pages, testContext.asyncAssertSuccess(v1 ->
+        vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(conf), testContext.asyncAssertSuccess(id -> {
+          WebClient webClient = WebClient.create(vertx, new WebClientOptions().setDefaultPort(8081));
+          webClient.get("/backup").send(testContext.asyncAssertSuccess(snapshot -> {
+            testContext.assertEquals(200, snapshot.statusCode());
+            testContext.assertEquals(3, stored.get("manifest.json").toJsonObject().getInteger("chunks"));
+            testContext.assertTrue(stored.get("chunk-00000001.ndjson").toString().contains("Alpha"));
+            service.fetchPage("Alpha", testContext.asyncAssertSuccess(alpha ->
+              service.savePage(alpha.getInteger("id"), 1, "# Alpha 2", testContext.asyncAssertSuccess(v2 ->
+                service.fetchPage("Beta", testContext.asyncAssertSuccess(beta ->
+                  service.deletePage(beta.getInteger("id"), testContext.asyncAssertSuccess(v3 ->
+                    service.createPage("Delta", "# Delta", testContext.asyncAssertSuccess(v4 ->
+                      webClient.get("/backup").send(testContext.asyncAssertSuccess(failed -> {
+                        testContext.assertEquals(500, failed.statusCode());
+                        testContext.assertEquals(4, stored.get("manifest.json").toJsonObject().getInteger("chunks"));
+                        webClient.get("/backup").send(testContext.asyncAssertSuccess(resumed -> {
+                          testContext.assertEquals(200, resumed.statusCode());
+                          // Only the changes were shipped, and the chunk written before the failure was not shipped again
+                          testContext.assertEquals(6, stored.get("manifest.json").toJsonObject().getInteger("chunks"));
+                          testContext.assertEquals(1, puts.get("chunk-00000004.ndjson"));
+                          testContext.assertEquals(new JsonObject().put("name", "Alpha").put("content", "# Alpha 2"),
+                            new JsonObject(stored.get("chunk-00000004.ndjson").toString().trim()));
+                          testContext.assertEquals(new JsonObject().put("name", "Beta").put("deleted", true),
+                            new JsonObject(stored.get("chunk-00000005.ndjson").toString().trim()));
+                          testContext.assertTrue(stored.get("chunk-00000006.ndjson").toString().contains("Delta"));
+                          webClient.get("/backup").send(testContext.asyncAssertSuccess(unchanged -> {
+                            testContext.assertEquals(200, unchanged.statusCode());
+                            testContext.assertFalse(stored.containsKey("chunk-00000007.ndjson"));
+                            webClient.close();
+                            async.complete();
+                          }));
+                        }));
+                      }))))))))))));
+          }));
+        }))));
+    }));
+  }
+
   @Test
   public void testWebClient(TestContext testContext) {
     Async async = testContext.async();
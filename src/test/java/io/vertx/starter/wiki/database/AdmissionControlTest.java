@@ -0,0 +1,76 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.serviceproxy.ServiceException;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.vertx.starter.wiki.database.AdmissionControl.Priority.BULK;
+import static io.vertx.starter.wiki.database.AdmissionControl.Priority.READ;
+import static io.vertx.starter.wiki.database.AdmissionControl.Priority.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlTest {
+
+  @Test
+  public void testPriorities() {
+    assertEquals(READ, AdmissionControl.priority("fetchPage"));
+    assertEquals(WRITE, AdmissionControl.priority("savePage"));
+    assertEquals(BULK, AdmissionControl.priority("fetchAllPagesData"));
+    assertEquals(BULK, AdmissionControl.priority("exportPages"));
+  }
+
+  @Test
+  public void testReadsKeepHeadroom() {
+    AdmissionControl admission = new AdmissionControl(8, 2, new MetricsRegistry());
+
+    assertTrue(admission.tryAcquire(BULK));
+    assertTrue(admission.tryAcquire(BULK));
+    assertFalse("over the bulk limit", admission.tryAcquire(BULK));
+    for (int i = 0; i < 4; i++) {
+      assertTrue(admission.tryAcquire(WRITE));
+    }
+    assertFalse("writes leave a quarter to reads", admission.tryAcquire(WRITE));
+    assertTrue(admission.tryAcquire(READ));
+    assertTrue(admission.tryAcquire(READ));
+    assertFalse(admission.tryAcquire(READ));
+
+    admission.release(BULK);
+    assertFalse("bulk calls only use half the limit", admission.tryAcquire(BULK));
+    assertTrue(admission.tryAcquire(READ));
+    assertEquals(8, (int) admission.stats().getInteger("inFlight"));
+  }
+
+  @Test
+  public void testGuardRejectsAndReleases() {
+    AdmissionControl admission = new AdmissionControl(1, 1, new MetricsRegistry());
+    List<Handler<AsyncResult<String>>> pending = new ArrayList<>();
+    Pages pages = admission.guard(Pages.class, (name, handler) -> {
+      pending.add(handler);
+      return null;
+    });
+    List<AsyncResult<String>> results = new ArrayList<>();
+
+    pages.fetchPage("a", results::add);
+    pages.fetchPage("b", results::add);
+    assertEquals(1, results.size());
+    assertEquals(WikiDatabaseService.OVERLOADED, ((ServiceException) results.get(0).cause()).failureCode());
+
+    pending.get(0).handle(Future.succeededFuture("a"));
+    assertEquals("a", results.get(1).result());
+    pages.fetchPage("c", results::add);
+    assertEquals(2, pending.size());
+    assertEquals(2, results.size());
+  }
+
+  public interface Pages {
+    Pages fetchPage(String name, Handler<AsyncResult<String>> handler);
+  }
+}
@@ -0,0 +1,49 @@
+package io.vertx.starter.wiki.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.json.JsonArray;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinkIndexTest {
+
+  @Test
+  public void testTargets() {
+    String html = Processor.process("[A](/wiki/A) [again](/wiki/A#top) [B](/wiki/Big%20page) [C+D](/wiki/C+D)\n" +
+      "[self](/wiki/Home) [elsewhere](http://example.com/wiki/E) [ref][r]\n\n    [code](/wiki/Code)\n\n[r]: /wiki/Ref\n");
+    assertEquals(Arrays.asList("A", "Big page", "C+D", "Ref"), Arrays.asList(LinkIndex.targets("Home", html).toArray()));
+  }
+
+  @Test
+  public void testBacklinksAndMissingPages() {
+    LinkIndex index = new LinkIndex();
+    index.load(Arrays.asList("Home", "A"), Collections.singletonList(new JsonArray().add("Home").add("A")));
+    index.pageCreated("B");
+    index.setLinks("B", new HashSet<>(Arrays.asList("A", "Nowhere")));
+
+    assertEquals(new JsonArray().add("B").add("Home"), index.backlinks("A"));
+    JsonArray missing = index.missingPages(null, 10);
+    assertEquals(1, missing.size());
+    assertEquals("Nowhere", missing.getJsonObject(0).getString("name"));
+    assertEquals(1, (int) missing.getJsonObject(0).getInteger("backlinks"));
+
+    index.pageCreated("Nowhere");
+    assertEquals(0, index.missingPages(null, 10).size());
+
+    index.pageDeleted("A");
+    assertEquals(new JsonArray().add("B").add("Home"), index.backlinks("A"));
+    assertEquals("A", index.missingPages(null, 10).getJsonObject(0).getString("name"));
+    assertEquals(0, index.missingPages("A", 10).size());
+
+    index.setLinks("B", Collections.emptySet());
+    index.setLinks("Home", Collections.emptySet());
+    assertEquals(0, index.backlinks("A").size());
+    assertEquals(0, index.missingPages(null, 10).size());
+    assertEquals(0L, (long) index.stats().getLong("links"));
+  }
+}
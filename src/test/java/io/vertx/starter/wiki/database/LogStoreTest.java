@@ -0,0 +1,160 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // Long enough for a revision to take more room in full than as a delta
+  private static final String BODY = String.join("\n", Collections.nCopies(50, "Some line of text"));
+
+  private static JsonObject page(String name, String content) {
+    return new JsonObject().put("name", name).put("content", content).put("html", "<p>" + content + "</p>").put("hash", "h");
+  }
+
+  @Test
+  public void testCrudAndRevisions() throws Exception {
+    LogStore store = new LogStore(folder.newFile(), false);
+    assertEquals(0, store.open());
+
+    List<Integer> ids = store.create(Arrays.asList(page("A", "one"), page("B", "bee")), 1L);
+    int a = ids.get(0);
+    store.save(Collections.singletonList(page("A", "two").put("id", a).put("revision", 1)), 2L);
+    store.save(Collections.singletonList(page("A", "three").put("id", a)), 3L);
+    try {
+      store.save(Collections.singletonList(page("A", "stale").put("id", a).put("revision", 2)), 4L);
+      fail("Expected a conflict");
+    } catch (ServiceException e) {
+      assertEquals(WikiDatabaseService.CONFLICT, e.failureCode());
+    }
+    try {
+      store.create(Collections.singletonList(page("B", "again")), 4L);
+      fail("Expected a duplicate");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    JsonObject current = store.page("A");
+    assertEquals("three", current.getString("rawContent"));
+    assertEquals(3, (int) current.getInteger("revision"));
+    assertEquals("two", store.revision("A", 2).getString("rawContent"));
+    assertEquals("one", store.revision("A", 1).getString("rawContent"));
+    assertEquals(1L, (long) store.revision("A", 1).getLong("modified"));
+    assertFalse(store.revision("A", 4).getBoolean("found"));
+
+    assertEquals(Collections.singletonList("B"), store.delete(Arrays.asList(ids.get(1), 42)));
+    assertFalse(store.page("B").getBoolean("found"));
+    assertEquals(Collections.singletonList("A"), store.names(null, 10));
+    assertTrue(store.changes(0, 10).stream().anyMatch(change -> "B".equals(change.getString("name")) && change.getBoolean("deleted")));
+    store.close();
+  }
+
+  @Test
+  public void testRecoveryDropsIncompleteWrite() throws Exception {
+    File file = folder.newFile();
+    LogStore store = new LogStore(file, true);
+    store.open();
+    store.create(Collections.singletonList(page("A", "one")), 1L);
+    long complete = file.length();
+    store.create(Arrays.asList(page("B", "bee"), page("C", "sea")), 2L);
+    store.close();
+
+    // Cut the second write short, as a crash half way through it would
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(file.length() - 5);
+    }
+    store = new LogStore(file, true);
+    assertEquals(1, store.open());
+    assertEquals(complete, file.length());
+    assertFalse(store.page("B").getBoolean("found"));
+
+    store.create(Collections.singletonList(page("B", "bee")), 3L);
+    store.close();
+    store = new LogStore(file, true);
+    assertEquals(2, store.open());
+    store.close();
+  }
+
+  @Test
+  public void testCompactionKeepsHistoryAndChanges() throws Exception {
+    File file = folder.newFile();
+    LogStore store = new LogStore(file, false);
+    store.open();
+    int id = store.create(Arrays.asList(page("A", BODY + "rev 1"), page("Gone", "soon")), 1L).get(0);
+    for (int rev = 2; rev <= 20; rev++) {
+      store.save(Collections.singletonList(page("A", BODY + "rev " + rev).put("id", id)), rev);
+    }
+    store.delete(Collections.singletonList(id + 1));
+    long lastChange = store.lastChange();
+    int changes = store.changes(0, Integer.MAX_VALUE).size();
+    assertTrue(store.needsCompaction(0.5));
+
+    assertTrue(store.compact() > 0);
+    assertFalse(store.needsCompaction(0.5));
+    assertEquals(BODY + "rev 20", store.page("A").getString("rawContent"));
+    assertEquals(BODY + "rev 7", store.revision("A", 7).getString("rawContent"));
+    assertEquals(7L, (long) store.revision("A", 7).getLong("modified"));
+    assertEquals(lastChange, store.lastChange());
+    assertEquals(changes, store.changes(0, Integer.MAX_VALUE).size());
+    store.close();
+
+    store = new LogStore(file, false);
+    assertEquals(1, store.open());
+    assertEquals(BODY + "rev 1", store.revision("A", 1).getString("rawContent"));
+    assertNull(store.revisionOf("Gone"));
+    int created = store.create(Collections.singletonList(page("New", "page")), 21L).get(0);
+    assertTrue(created > id + 1);
+    store.close();
+  }
+
+  @Test
+  public void testFailedCompactionKeepsTheLogUsable() throws Exception {
+    File file = folder.newFile();
+    LogStore store = new LogStore(file, false) {
+      @Override
+      void swapIn(Path compacted) throws IOException {
+        throw new IOException("Simulated failure");
+      }
+    };
+    store.open();
+    int id = store.create(Collections.singletonList(page("A", BODY + "rev 1")), 1L).get(0);
+    store.save(Collections.singletonList(page("A", BODY + "rev 2").put("id", id)), 2L);
+    long size = file.length();
+    try {
+      store.compact();
+      fail("Expected the compaction to fail");
+    } catch (IOException expected) {
+    }
+
+    assertEquals(size, file.length());
+    assertFalse(new File(file.getPath() + ".compact").exists());
+    assertEquals(BODY + "rev 2", store.page("A").getString("rawContent"));
+    assertEquals(BODY + "rev 1", store.revision("A", 1).getString("rawContent"));
+    store.save(Collections.singletonList(page("A", BODY + "rev 3").put("id", id)), 3L);
+    store.close();
+
+    store = new LogStore(file, false);
+    assertEquals(1, store.open());
+    assertEquals(BODY + "rev 3", store.page("A").getString("rawContent"));
+    store.close();
+  }
+}
@@ -0,0 +1,67 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+@RunWith(VertxUnitRunner.class)
+public class LogWikiDatabaseServiceTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Vertx vertx;
+  private LogStore store;
+  private SearchIndex searchIndex;
+  private LogWikiDatabaseService service;
+
+  @Before
+  public void setUp(TestContext testContext) throws IOException {
+    vertx = Vertx.vertx();
+    store = new LogStore(folder.newFile(), false);
+    searchIndex = new SearchIndex();
+    service = new LogWikiDatabaseService(vertx, store, searchIndex, new LinkIndex(), new MarkdownRenderer(vertx, new JsonObject(), new MetricsRegistry()));
+    vertx.runOnContext(v -> service.prepare().setHandler(testContext.asyncAssertSuccess()));
+  }
+
+  @After
+  public void tearDown(TestContext testContext) throws IOException {
+    store.close();
+    vertx.close(testContext.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testSavedPageMissingFromTheSearchIndexIsIndexed(TestContext testContext) {
+    Async async = testContext.async();
+    vertx.runOnContext(v -> service.createPage("Page", "apples", testContext.asyncAssertSuccess(v1 ->
+      service.fetchPage("Page", testContext.asyncAssertSuccess(page -> {
+        int id = page.getInteger("id");
+        searchIndex.remove(id);
+        service.savePage(id, 1, "oranges", testContext.asyncAssertSuccess(v2 -> {
+          testContext.assertEquals(2, searchIndex.revisionOf(id));
+          service.searchPages("oranges", 10, testContext.asyncAssertSuccess(results -> {
+            testContext.assertEquals("Page", results.getJsonArray("results").getJsonObject(0).getString("name"));
+            service.fetchPages(null, 10, testContext.asyncAssertSuccess(names -> {
+              testContext.assertEquals(new JsonArray().add("Page"), names);
+              service.fetchLastPageChange(testContext.asyncAssertSuccess(seq -> {
+                testContext.assertTrue(seq > 0);
+                async.complete();
+              }));
+            }));
+          }));
+        }));
+      })))));
+  }
+}
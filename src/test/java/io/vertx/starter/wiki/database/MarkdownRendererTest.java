@@ -0,0 +1,101 @@
+package io.vertx.starter.wiki.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceException;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class MarkdownRendererTest {
+
+  private Vertx vertx;
+  private MetricsRegistry metrics;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    metrics = new MetricsRegistry();
+  }
+
+  @After
+  public void tearDown(TestContext testContext) {
+    vertx.close(testContext.asyncAssertSuccess());
+  }
+
+  private static String markdown(int chars) {
+    StringBuilder markdown = new StringBuilder();
+    for (int i = 0; markdown.length() < chars; i++) {
+      markdown.append("# Section ").append(i).append("\n\nSome *emphasis* and a [link](/wiki/Page").append(i).append(").\n\n");
+    }
+    return markdown.toString();
+  }
+
+  @Test
+  public void testSmallPagesRenderInlineAndLargeOnesOnWorkers(TestContext testContext) {
+    Async async = testContext.async();
+    MarkdownRenderer renderer = new MarkdownRenderer(vertx, new JsonObject().put(MarkdownRenderer.CONFIG_MARKDOWN_INLINE_MAX_CHARS, 100), metrics);
+    String large = markdown(1000);
+    vertx.runOnContext(v -> renderer.render("# Small", testContext.asyncAssertSuccess(small -> {
+      testContext.assertEquals(Processor.process("# Small"), small);
+      renderer.render(large, testContext.asyncAssertSuccess(html -> {
+        testContext.assertEquals(Processor.process(large), html);
+        testContext.assertTrue(Vertx.currentContext().isEventLoopContext(), "handlers are called back on the event loop");
+        String scrape = metrics.scrape();
+        testContext.assertTrue(scrape.contains("markdown_renders_total{mode=\"inline\"} 1"));
+        testContext.assertTrue(scrape.contains("markdown_renders_total{mode=\"worker\"} 1"));
+        testContext.assertEquals(0, renderer.stats().getInteger("depth"));
+        async.complete();
+      }));
+    })));
+  }
+
+  @Test
+  public void testFullQueueRejects(TestContext testContext) {
+    Async async = testContext.async();
+    MarkdownRenderer renderer = new MarkdownRenderer(vertx, new JsonObject()
+      .put(MarkdownRenderer.CONFIG_MARKDOWN_INLINE_MAX_CHARS, 100)
+      .put(MarkdownRenderer.CONFIG_MARKDOWN_QUEUE_LIMIT, 0), metrics);
+    vertx.runOnContext(v -> renderer.render(markdown(1000), testContext.asyncAssertFailure(cause -> {
+      testContext.assertEquals(WikiDatabaseService.OVERLOADED, ((ServiceException) cause).failureCode());
+      // Small pages do not go through the queue
+      renderer.render("# Small", testContext.asyncAssertSuccess(html -> async.complete()));
+    })));
+  }
+
+  @Test
+  public void testSlowRenderingsTimeOut(TestContext testContext) {
+    Async async = testContext.async();
+    MarkdownRenderer renderer = new MarkdownRenderer(vertx, new JsonObject()
+      .put(MarkdownRenderer.CONFIG_MARKDOWN_INLINE_MAX_CHARS, 100)
+      .put(MarkdownRenderer.CONFIG_MARKDOWN_TIMEOUT_MILLIS, 1), metrics);
+    vertx.runOnContext(v -> renderer.render(markdown(4 * 1024 * 1024), testContext.asyncAssertFailure(cause -> {
+      testContext.assertEquals(WikiDatabaseService.OVERLOADED, ((ServiceException) cause).failureCode());
+      testContext.assertTrue(metrics.scrape().contains("markdown_render_failures_total{reason=\"timeout\"} 1"));
+      async.complete();
+    })));
+  }
+
+  @Test
+  public void testWritesAreNeitherRejectedNorTimedOut(TestContext testContext) {
+    Async async = testContext.async();
+    MarkdownRenderer renderer = new MarkdownRenderer(vertx, new JsonObject()
+      .put(MarkdownRenderer.CONFIG_MARKDOWN_INLINE_MAX_CHARS, 100)
+      .put(MarkdownRenderer.CONFIG_MARKDOWN_QUEUE_LIMIT, 0)
+      .put(MarkdownRenderer.CONFIG_MARKDOWN_TIMEOUT_MILLIS, 1), metrics);
+    String large = markdown(1024 * 1024);
+    vertx.runOnContext(v -> renderer.renderForWrite(large, testContext.asyncAssertSuccess(html -> {
+      testContext.assertEquals(Processor.process(large), html);
+      testContext.assertFalse(metrics.scrape().contains("markdown_render_failures_total{reason=\"timeout\"} 1"));
+      testContext.assertEquals(0, renderer.stats().getInteger("depth"));
+      async.complete();
+    })));
+  }
+}
@@ -0,0 +1,124 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PageCacheTest {
+
+  private static JsonObject page(int id, String content) {
+    return new JsonObject().put("found", true).put("id", id).put("rawContent", content);
+  }
+
+  @Test
+  public void testHitAfterLoad() {
+    PageCache cache = new PageCache(10, 60000);
+    List<AsyncResult<JsonObject>> results = new ArrayList<>();
+    cache.page("Home", future -> future.complete(page(1, "a")), results::add);
+    cache.page("Home", future -> future.fail("not expected"), results::add);
+
+    assertEquals(2, results.size());
+    assertSame(results.get(0).result(), results.get(1).result());
+    assertEquals(1L, (long) cache.stats().getLong("hits"));
+    assertEquals(1L, (long) cache.stats().getLong("misses"));
+  }
+
+  @Test
+  public void testConcurrentMissesShareOneLoad() {
+    PageCache cache = new PageCache(10, 60000);
+    List<Future<JsonObject>> loads = new ArrayList<>();
+    List<AsyncResult<JsonObject>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      cache.page("Home", loads::add, results::add);
+    }
+
+    assertEquals(1, loads.size());
+    assertTrue(results.isEmpty());
+    loads.get(0).complete(page(1, "a"));
+    assertEquals(3, results.size());
+    assertEquals(2L, (long) cache.stats().getLong("collapsed"));
+  }
+
+  @Test
+  public void testWritesInvalidate() {
+    PageCache cache = new PageCache(10, 60000);
+    List<Future<JsonObject>> loads = new ArrayList<>();
+    cache.page("Home", future -> future.complete(page(1, "a")), ar -> {
+    });
+    cache.pageSaved(1);
+    cache.page("Home", loads::add, ar -> {
+    });
+    assertEquals(1, loads.size());
+
+    // The load in flight read the page before the save, it must not be kept
+    cache.pageSaved(1);
+    loads.get(0).complete(page(1, "a"));
+    cache.page("Home", loads::add, ar -> {
+    });
+    assertEquals(2, loads.size());
+  }
+
+  @Test
+  public void testNames() {
+    PageCache cache = new PageCache(10, 60000);
+    List<NavigableSet<String>> results = new ArrayList<>();
+    cache.names(future -> future.complete(new TreeSet<>(Arrays.asList("B", "A"))), ar -> results.add(ar.result()));
+    NavigableSet<String> loaded = results.get(0);
+
+    cache.pageCreated("C");
+    cache.names(future -> future.fail("not expected"), ar -> results.add(ar.result()));
+    assertEquals(Arrays.asList("A", "B", "C"), new ArrayList<>(results.get(1)));
+    assertEquals(2, loaded.size());
+
+    cache.pagesCreated(Arrays.asList("E", "D"));
+    cache.names(future -> future.fail("not expected"), ar -> results.add(ar.result()));
+    assertEquals(Arrays.asList("A", "B", "C", "D", "E"), new ArrayList<>(results.get(2)));
+
+    cache.pageDeleted(1);
+    cache.names(future -> future.complete(new TreeSet<>(Arrays.asList("A", "C"))), ar -> results.add(ar.result()));
+    assertEquals(Arrays.asList("A", "C"), new ArrayList<>(results.get(3)));
+  }
+
+  @Test
+  public void testExpiryAndEviction() throws InterruptedException {
+    PageCache cache = new PageCache(1, 50);
+    List<Future<JsonObject>> loads = new ArrayList<>();
+    cache.page("A", future -> future.complete(page(1, "a")), ar -> {
+    });
+    cache.page("B", future -> future.complete(page(2, "b")), ar -> {
+    });
+    assertEquals(1, (int) cache.stats().getInteger("entries"));
+    assertEquals(1L, (long) cache.stats().getLong("evictions"));
+
+    Thread.sleep(100);
+    cache.page("B", loads::add, ar -> {
+    });
+    assertEquals(1, loads.size());
+  }
+
+  @Test
+  public void testDisabled() {
+    PageCache cache = new PageCache(0, 60000);
+    List<Future<JsonObject>> loads = new ArrayList<>();
+    cache.page("A", future -> {
+      loads.add(future);
+      future.complete(page(1, "a"));
+    }, ar -> {
+    });
+    cache.page("A", loads::add, ar -> {
+    });
+    assertEquals(2, loads.size());
+    assertEquals(0, (int) cache.stats().getInteger("entries"));
+  }
+}
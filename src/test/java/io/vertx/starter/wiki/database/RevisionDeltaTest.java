@@ -0,0 +1,73 @@
+package io.vertx.starter.wiki.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RevisionDeltaTest {
+
+  @Test
+  public void testRoundTrip() {
+    String newer = "# Title\n\nFirst paragraph.\n\nSecond paragraph.\n";
+    String older = "# Title\n\nFirst paragraph, before the edit.\n\nSecond paragraph.\nA line that was removed.";
+
+    assertEquals(older, RevisionDelta.apply(newer, RevisionDelta.encode(newer, older)));
+    assertEquals("", RevisionDelta.apply(newer, RevisionDelta.encode(newer, "")));
+    assertEquals(newer, RevisionDelta.apply("", RevisionDelta.encode("", newer)));
+  }
+
+  @Test
+  public void testRandomEdits() {
+    Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      List<String> lines = new ArrayList<>();
+      for (int i = 0; i < random.nextInt(50); i++) {
+        lines.add("line " + random.nextInt(20) + "\n");
+      }
+      String older = String.join("", lines);
+      for (int edit = 0; edit < random.nextInt(10); edit++) {
+        int at = lines.isEmpty() ? 0 : random.nextInt(lines.size());
+        if (random.nextBoolean() && !lines.isEmpty()) {
+          lines.remove(at);
+        } else {
+          lines.add(at, "edit " + edit + "\n");
+        }
+      }
+      String newer = String.join("", lines);
+
+      assertEquals(older, RevisionDelta.apply(newer, RevisionDelta.encode(newer, older)));
+    }
+  }
+
+  @Test
+  public void testDeltaIsSmallerThanContent() {
+    StringBuilder page = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      page.append("Line ").append(i).append(" of a page that is edited in a single place.\n");
+    }
+    String older = page.toString();
+    String newer = older.replace("Line 250 ", "Line two hundred and fifty ");
+
+    assertTrue(RevisionDelta.encode(newer, older).length() < 200);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeltaOfAnotherText() {
+    String delta = RevisionDelta.encode("a\nb\n", "a\n");
+    RevisionDelta.apply("a\nb\nc\n", delta);
+  }
+
+  @Test
+  public void testUnifiedDiff() {
+    List<String> a = LineDiff.lines("a\nb\nc\n");
+    List<String> b = LineDiff.lines("a\nc\nd");
+
+    assertEquals("--- a\n+++ b\n@@ -1,3 +1,3 @@\n a\n-b\n c\n+d\n\\ No newline at end of file\n",
+      LineDiff.unified("a", "b", a, b, LineDiff.diff(a, b), 3));
+  }
+}
@@ -0,0 +1,65 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.json.JsonArray;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SearchIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testTokenize() {
+    assertEquals(Arrays.asList("hello", "vert", "world"), SearchIndex.tokenize("# Hello *Vert.x* [world](/wiki/x)").subList(0, 3));
+  }
+
+  @Test
+  public void testTitleMatchesRankFirst() {
+    SearchIndex index = new SearchIndex();
+    index.index(1, "Cooking", 1, "Some notes about pasta and vertx");
+    index.index(2, "Vertx", 1, "An event driven toolkit");
+    index.index(3, "Gardening", 1, "Tomatoes");
+
+    JsonArray results = index.search("vertx", 10);
+    assertEquals(2, results.size());
+    assertEquals("Vertx", results.getJsonObject(0).getString("name"));
+    assertEquals("Cooking", results.getJsonObject(1).getString("name"));
+  }
+
+  @Test
+  public void testUpdateAndRemove() {
+    SearchIndex index = new SearchIndex();
+    index.index(1, "Page", 1, "apples");
+    index.update(1, "oranges");
+
+    assertEquals(0, index.search("apples", 10).size());
+    assertEquals(1, index.search("oranges", 10).size());
+    assertEquals(2, (int) index.revisionOf(1));
+
+    index.remove(1);
+    assertEquals(0, index.search("oranges", 10).size());
+    assertNull(index.revisionOf(1));
+    assertEquals(0, (int) index.stats().getInteger("terms"));
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    SearchIndex index = new SearchIndex();
+    index.index(1, "Page", 3, "apples and oranges");
+    File file = folder.newFile();
+    index.save(file);
+
+    SearchIndex loaded = new SearchIndex();
+    loaded.load(file);
+    assertEquals(3, (int) loaded.revisionOf(1));
+    assertEquals("Page", loaded.search("apples", 10).getJsonObject(0).getString("name"));
+  }
+}
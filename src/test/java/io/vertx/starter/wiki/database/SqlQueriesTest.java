@@ -0,0 +1,50 @@
+package io.vertx.starter.wiki.database;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SqlQueriesTest {
+
+  @Test
+  public void testDialectsDefineEveryQuery() throws Exception {
+    for (String dialect : new String[]{"hsqldb", "h2"}) {
+      SqlQueries queries = SqlQueries.load(dialect, null);
+      assertEquals(dialect, queries.dialect());
+      assertEquals(SqlQuery.values().length, queries.size());
+    }
+    assertEquals("hsqldb", SqlQueries.load(null, null).dialect());
+  }
+
+  @Test
+  public void testKeys() {
+    assertEquals("create-pages-table", SqlQuery.CREATE_PAGES_TABLE.key());
+    assertEquals("get-page-by-id", SqlQuery.GET_PAGE_BY_ID.key());
+  }
+
+  @Test
+  public void testMissingQueries() {
+    Properties props = new Properties();
+    for (SqlQuery query : SqlQuery.values()) {
+      props.setProperty(query.key(), "select 1");
+    }
+    props.remove(SqlQuery.SAVE_PAGE.key());
+    props.setProperty(SqlQuery.DELETE_PAGE.key(), " ");
+    try {
+      SqlQueries.of("test", props, "test.properties");
+      fail("Missing queries must be reported");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("save-page"));
+      assertTrue(e.getMessage(), e.getMessage().contains("delete-page"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownDialect() throws Exception {
+    SqlQueries.load("nosuchdb", null);
+  }
+}
@@ -0,0 +1,63 @@
+package io.vertx.starter.wiki.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.starter.wiki.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StoredContentTest {
+
+  private static StoredContent storedContent(boolean enabled, int threshold) {
+    JsonObject config = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_COMPRESSION_ENABLED, enabled)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_COMPRESSION_THRESHOLD, threshold);
+    return new StoredContent(config, new MetricsRegistry());
+  }
+
+  private static String page(int lines) {
+    StringBuilder page = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      page.append("Line ").append(i).append(" of a page, with some *emphasis* and \u00fcnicode.\n");
+    }
+    return page.toString();
+  }
+
+  @Test
+  public void testRoundTrip() {
+    StoredContent content = storedContent(true, 64);
+    String markdown = page(100);
+    String stored = content.encode(markdown);
+
+    assertNotEquals(markdown, stored);
+    assertTrue(stored.length() < markdown.length() / 4);
+    assertEquals(markdown, content.decode(stored));
+  }
+
+  @Test
+  public void testSmallPagesStayRaw() {
+    StoredContent content = storedContent(true, 64);
+
+    assertEquals("# Small", content.encode("# Small"));
+    assertEquals("# Small", content.decode("# Small"));
+  }
+
+  @Test
+  public void testDisabledReadsCompressedRows() {
+    String stored = storedContent(true, 64).encode(page(10));
+    StoredContent disabled = storedContent(false, 64);
+
+    assertEquals(page(10), disabled.decode(stored));
+    assertEquals(page(10), disabled.encode(page(10)));
+  }
+
+  @Test
+  public void testMarkerInMarkdown() {
+    String markdown = "\u0000deflate:not compressed";
+    StoredContent disabled = storedContent(false, 64);
+
+    assertEquals(markdown, disabled.decode(disabled.encode(markdown)));
+  }
+}
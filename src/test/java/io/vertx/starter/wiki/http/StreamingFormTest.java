@@ -0,0 +1,85 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingFormTest {
+
+  @Test
+  public void testFieldsSplitAcrossChunks() {
+    ChunkStream body = new ChunkStream();
+    Future<Map<String, String>> form = new StreamingForm(body, -1).parse();
+    body.send("title=Caf%C3", "%A9+page&markdown=a%3D", "b+%26+c=d&empty=&flag&title=ignored");
+
+    assertTrue(form.succeeded());
+    assertEquals("Caf\u00e9 page", form.result().get("title"));
+    assertEquals("a=b & c=d", form.result().get("markdown"));
+    assertEquals("", form.result().get("empty"));
+    assertEquals("", form.result().get("flag"));
+  }
+
+  @Test
+  public void testInvalidEscapeFails() {
+    ChunkStream body = new ChunkStream();
+    Future<Map<String, String>> form = new StreamingForm(body, -1).parse();
+    body.send("markdown=100%");
+
+    assertTrue(form.cause() instanceof IllegalArgumentException);
+  }
+
+  @Test
+  public void testLimitIsEnforcedAsChunksArrive() {
+    ChunkStream body = new ChunkStream();
+    Future<Map<String, String>> form = new StreamingForm(body, 16).parse();
+    body.send("markdown=0123456", "789abcdef");
+
+    assertTrue(form.cause() instanceof BodyTooLargeException);
+  }
+
+  private static class ChunkStream implements ReadStream<Buffer> {
+    private Handler<Buffer> handler;
+    private Handler<Void> endHandler;
+
+    void send(String... chunks) {
+      for (String chunk : chunks) {
+        handler.handle(Buffer.buffer(chunk));
+      }
+      endHandler.handle(null);
+    }
+
+    @Override
+    public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+      this.handler = handler;
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> pause() {
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> resume() {
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+      this.endHandler = endHandler;
+      return this;
+    }
+  }
+}
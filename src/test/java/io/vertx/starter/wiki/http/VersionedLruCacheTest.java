@@ -0,0 +1,66 @@
+package io.vertx.starter.wiki.http;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VersionedLruCacheTest {
+
+  @Test
+  public void testVersionMismatchIsAMiss() {
+    VersionedLruCache<String> cache = strings(10, 1024);
+    cache.put("Home", "1", "<p>Hello</p>");
+
+    assertEquals("<p>Hello</p>", cache.get("Home", "1"));
+    assertNull(cache.get("Home", "2"));
+    assertEquals(1L, (long) cache.stats().getLong("hits"));
+    assertEquals(1L, (long) cache.stats().getLong("misses"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    VersionedLruCache<String> cache = strings(2, 1024);
+    cache.put("A", "1", "a");
+    cache.put("B", "1", "b");
+    cache.get("A", "1");
+    cache.put("C", "1", "c");
+
+    assertEquals("a", cache.get("A", "1"));
+    assertNull(cache.get("B", "1"));
+    assertEquals(1L, (long) cache.stats().getLong("evictions"));
+  }
+
+  @Test
+  public void testByteLimit() {
+    VersionedLruCache<String> cache = strings(10, 15);
+    cache.put("A", "1", "aaaa");
+    cache.put("B", "1", "bbbb");
+
+    assertNull(cache.get("A", "1"));
+    assertEquals("bbbb", cache.get("B", "1"));
+  }
+
+  @Test
+  public void testInvalidate() {
+    VersionedLruCache<String> cache = strings(10, 1024);
+    cache.put("A", "1", "a");
+    cache.invalidate("A");
+
+    assertNull(cache.get("A", "1"));
+    assertEquals(0L, (long) cache.stats().getLong("bytes"));
+  }
+
+  @Test
+  public void testSizeFunction() {
+    CompressedPageCache cache = new CompressedPageCache(10, 1024);
+    cache.put("A", "1", Buffer.buffer(new byte[100]));
+
+    assertEquals(102L, (long) cache.stats().getLong("bytes"));
+  }
+
+  private static VersionedLruCache<String> strings(int maxEntries, long maxBytes) {
+    return new VersionedLruCache<>(maxEntries, maxBytes, value -> 2L * value.length());
+  }
+}
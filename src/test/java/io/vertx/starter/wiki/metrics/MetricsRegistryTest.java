@@ -0,0 +1,78 @@
+package io.vertx.starter.wiki.metrics;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+  @Test
+  public void testCounterIsSharedByNameAndLabels() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("requests_total", "Requests", "route", "/").inc();
+    registry.counter("requests_total", "Requests", "route", "/").inc(2);
+    registry.counter("requests_total", "Requests", "route", "/save").inc();
+
+    assertSame(registry.counter("requests_total", "Requests", "route", "/"), registry.counter("requests_total", "Requests", "route", "/"));
+    String scrape = registry.scrape();
+    assertTrue(scrape.contains("# TYPE requests_total counter\n"));
+    assertTrue(scrape.contains("requests_total{route=\"/\"} 3\n"));
+    assertTrue(scrape.contains("requests_total{route=\"/save\"} 1\n"));
+  }
+
+  @Test
+  public void testTimerBucketsAreCumulativeSeconds() {
+    MetricsRegistry registry = new MetricsRegistry();
+    MetricsRegistry.Histogram timer = registry.timer("render_seconds", "Render time");
+    timer.record(TimeUnit.MICROSECONDS.toNanos(300));
+    timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+    timer.record(TimeUnit.SECONDS.toNanos(20));
+
+    String scrape = registry.scrape();
+    assertTrue(scrape.contains("render_seconds_bucket{le=\"0.0005\"} 1\n"));
+    assertTrue(scrape.contains("render_seconds_bucket{le=\"0.005\"} 2\n"));
+    assertTrue(scrape.contains("render_seconds_bucket{le=\"10\"} 2\n"));
+    assertTrue(scrape.contains("render_seconds_bucket{le=\"+Inf\"} 3\n"));
+    assertTrue(scrape.contains("render_seconds_count 3\n"));
+    assertEquals(3, timer.count());
+  }
+
+  @Test
+  public void testLabelValuesAreEscaped() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.gauge("pool_size", "Pool size", () -> 4, "name", "a\"b");
+
+    assertTrue(registry.scrape().contains("pool_size{name=\"a\\\"b\"} 4\n"));
+  }
+
+  @Test
+  public void testTimedService() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Greeter greeter = registry.timed(Greeter.class, (name, handler) -> {
+      handler.handle(name.isEmpty() ? Future.failedFuture("empty") : Future.succeededFuture("Hello " + name));
+    }, "greeter_seconds", "Greeter calls", "method");
+
+    AtomicReference<String> greeting = new AtomicReference<>();
+    greeter.greet("World", ar -> greeting.set(ar.result()));
+    greeter.greet("", ar -> {
+    });
+
+    assertEquals("Hello World", greeting.get());
+    String scrape = registry.scrape();
+    assertTrue(scrape.contains("greeter_seconds_count{method=\"greet\"} 2\n"));
+    assertTrue(scrape.contains("greeter_errors_total{method=\"greet\"} 1\n"));
+  }
+
+  @FunctionalInterface
+  public interface Greeter {
+    void greet(String name, Handler<AsyncResult<String>> handler);
+  }
+}